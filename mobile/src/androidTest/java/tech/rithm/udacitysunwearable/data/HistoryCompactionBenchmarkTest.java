@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import tech.rithm.udacitysunwearable.data.WeatherContract.HistoryEntry;
+import tech.rithm.udacitysunwearable.data.WeatherContract.WeeklyHistoryEntry;
+import tech.rithm.udacitysunwearable.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Seeds the daily history with about five and a half years of days, then compacts everything
+ * past a year of retention into weeks through {@link WeatherContract#METHOD_COMPACT_HISTORY},
+ * as SunshineHistoryTask does. It prints how long the compaction took, how many rows it saved,
+ * and the median time to read the whole history before and after: every day of it before,
+ * the weeks and the retained days after.
+ * <p>
+ * The provider runs on a database of its own, renamed by a RenamingDelegatingContext, so the
+ * history of the app under test is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class HistoryCompactionBenchmarkTest {
+
+    private static final String DATABASE_PREFIX = "benchmark.";
+
+    private static final int HISTORY_DAYS = 2000;
+
+    /* The same retention as SunshineHistoryTask.DAILY_HISTORY_RETENTION_DAYS */
+    private static final int RETENTION_DAYS = 365;
+
+    private static final int MEASURED_QUERIES = 20;
+
+    private Context mContext;
+    private WeatherProvider mProvider;
+
+    @Before
+    public void createProvider() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void deleteDatabase() {
+        mProvider.shutdown();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmark() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        long firstDay = today - (HISTORY_DAYS - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Every batch written also goes to the daily history, as each sync's forecast does */
+        long seedStart = System.nanoTime();
+        Bundle extras = new Bundle();
+        buildBatch(firstDay, HISTORY_DAYS).writeToBundle(extras);
+        mProvider.call(WeatherContract.METHOD_INSERT_BATCH,
+                Long.toString(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID), extras);
+        double seedMillis = (System.nanoTime() - seedStart) / 1e6;
+        assertEquals(HISTORY_DAYS, count(HistoryEntry.CONTENT_URI));
+
+        double beforeMillis = medianQueryMillis(HistoryEntry.CONTENT_URI);
+
+        long cutoff = WeeklyHistoryEntry.getWeekStart(
+                today - RETENTION_DAYS * SunshineDateUtils.DAY_IN_MILLIS);
+        long compactStart = System.nanoTime();
+        Bundle result = mProvider.call(WeatherContract.METHOD_COMPACT_HISTORY,
+                Long.toString(cutoff), null);
+        double compactMillis = (System.nanoTime() - compactStart) / 1e6;
+        int daysCompacted = result.getInt(WeatherContract.EXTRA_ROWS_CHANGED);
+
+        /* Every day before the cutoff is gone from the daily history, and counted in a week */
+        int daysLeft = count(HistoryEntry.CONTENT_URI);
+        int weeks = count(WeeklyHistoryEntry.CONTENT_URI);
+        assertEquals(HISTORY_DAYS, daysCompacted + daysLeft);
+        assertEquals(daysCompacted, sumDayCounts());
+        assertTrue(daysLeft <= RETENTION_DAYS + 7);
+
+        double afterMillis = medianQueryMillis(WeeklyHistoryEntry.CONTENT_URI)
+                + medianQueryMillis(HistoryEntry.CONTENT_URI);
+
+        System.out.println(String.format("Seeded %d days in %.1f ms. Compacted %d days into %d "
+                        + "weeks in %.1f ms, %d daily rows kept. Whole history read in %.2f ms "
+                        + "before, %.2f ms after (%d rows instead of %d)", HISTORY_DAYS,
+                seedMillis, daysCompacted, weeks, compactMillis, daysLeft, beforeMillis,
+                afterMillis, weeks + daysLeft, HISTORY_DAYS));
+    }
+
+    private double medianQueryMillis(Uri uri) {
+        double[] millis = new double[MEASURED_QUERIES];
+        count(uri);
+        for (int i = 0; i < MEASURED_QUERIES; i++) {
+            long start = System.nanoTime();
+            count(uri);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis[millis.length / 2];
+    }
+
+    /* Reads every row, as a chart of the history would */
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int sumDayCounts() {
+        Cursor cursor = mProvider.query(WeeklyHistoryEntry.CONTENT_URI,
+                new String[]{WeeklyHistoryEntry.COLUMN_DAY_COUNT}, null, null, null);
+        try {
+            int days = 0;
+            while (cursor.moveToNext()) {
+                days += cursor.getInt(0);
+            }
+            return days;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ForecastBatch buildBatch(long firstDay, int days) {
+        ForecastBatch batch = new ForecastBatch(days);
+        for (int i = 0; i < days; i++) {
+            batch.add(firstDay + i * SunshineDateUtils.DAY_IN_MILLIS, 800 - i % 3 * 100,
+                    8 + i % 7, 17 + i % 11, 60 + i % 30, 1010 + i % 20, 1.5 + i % 3,
+                    i * 25 % 360);
+        }
+        return batch;
+    }
+}
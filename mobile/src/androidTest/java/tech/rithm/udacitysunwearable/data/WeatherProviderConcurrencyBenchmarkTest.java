@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import tech.rithm.udacitysunwearable.data.WeatherContract.WeatherEntry;
+import tech.rithm.udacitysunwearable.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times the query of the forecast list, as its CursorLoader runs it, while another thread keeps
+ * replacing the forecast through {@link WeatherContract#METHOD_REPLACE_FORECAST}, like a sync.
+ * It runs with write-ahead logging and without, and prints the median, 95th percentile and
+ * worst query time of each, next to the same queries with nobody writing.
+ * <p>
+ * Without write-ahead logging a query has to wait for the write transaction at hand to commit.
+ * With it, the query reads the last committed forecast on a connection of its own. The
+ * provider runs on a database of its own, renamed by a RenamingDelegatingContext, so the
+ * weather of the app under test is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class WeatherProviderConcurrencyBenchmarkTest {
+
+    private static final String DATABASE_PREFIX = "benchmark.";
+
+    /* A long forecast, so each replace holds its transaction for a while */
+    private static final int DAYS = 365;
+
+    private static final int WARM_UP_QUERIES = 50;
+    private static final int MEASURED_QUERIES = 500;
+
+    /* What MainActivity's CursorLoader asks for */
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private Context mContext;
+
+    @Before
+    public void createContext() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void deleteDatabase() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        for (boolean writeAheadLogging : new boolean[]{true, false}) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            WeatherProvider provider = new WeatherProvider(new WeatherDbHelper(mContext,
+                    writeAheadLogging, WeatherDbHelper.SYNCHRONOUS_NORMAL, 2 * 1024,
+                    WeatherDbHelper.TEMP_STORE_MEMORY));
+            provider.attachInfo(mContext, null);
+            try {
+                run(provider, writeAheadLogging);
+            } finally {
+                provider.shutdown();
+            }
+        }
+    }
+
+    private void run(final WeatherProvider provider, boolean writeAheadLogging)
+            throws Exception {
+
+        final ForecastBatch[] forecasts = {buildBatch(0), buildBatch(1)};
+        replaceForecast(provider, forecasts[0]);
+
+        for (int i = 0; i < WARM_UP_QUERIES; i++) {
+            queryForecast(provider);
+        }
+        double[] idle = timeQueries(provider);
+
+        /* A sync that never ends, replacing one forecast with the other */
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicInteger replaces = new AtomicInteger();
+        final AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+        final CountDownLatch writerStarted = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writerStarted.countDown();
+                    while (writing.get()) {
+                        replaceForecast(provider, forecasts[replaces.get() % 2 == 0 ? 1 : 0]);
+                        replaces.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    writerFailure.set(t);
+                }
+            }
+        }, "benchmark-writer");
+        writer.start();
+        writerStarted.await();
+
+        long start = System.nanoTime();
+        double[] busy = timeQueries(provider);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        writing.set(false);
+        writer.join();
+        assertNull(writerFailure.get());
+        assertTrue(replaces.get() > 0);
+
+        System.out.println(String.format("WAL %-3s  idle: median %6.2f ms, p95 %6.2f ms, "
+                        + "max %7.2f ms", writeAheadLogging ? "on" : "off", percentile(idle, 50),
+                percentile(idle, 95), percentile(idle, 100)));
+        System.out.println(String.format("WAL %-3s  busy: median %6.2f ms, p95 %6.2f ms, "
+                        + "max %7.2f ms, %.1f replaces/s", writeAheadLogging ? "on" : "off",
+                percentile(busy, 50), percentile(busy, 95), percentile(busy, 100),
+                replaces.get() / seconds));
+    }
+
+    private static double[] timeQueries(WeatherProvider provider) {
+        double[] millis = new double[MEASURED_QUERIES];
+        for (int i = 0; i < MEASURED_QUERIES; i++) {
+            long start = System.nanoTime();
+            int count = queryForecast(provider);
+            millis[i] = (System.nanoTime() - start) / 1e6;
+
+            /* Each replace is one transaction, a query never sees half of one */
+            assertEquals(DAYS, count);
+        }
+        return millis;
+    }
+
+    /* Runs the query and fills the cursor window, as the loader does before delivering */
+    private static int queryForecast(WeatherProvider provider) {
+        Cursor cursor = provider.query(WeatherEntry.CONTENT_URI, FORECAST_PROJECTION,
+                WeatherEntry.getSqlSelectForTodayOnwards(), null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void replaceForecast(WeatherProvider provider, ForecastBatch batch) {
+        Bundle extras = new Bundle();
+        batch.writeToBundle(extras);
+        provider.call(WeatherContract.METHOD_REPLACE_FORECAST,
+                Long.toString(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID), extras);
+    }
+
+    private static double percentile(double[] millis, int percent) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    /* A year of days starting today, every value of which differs between the two variants */
+    private static ForecastBatch buildBatch(int variant) {
+        ForecastBatch batch = new ForecastBatch(DAYS);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(today + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + (i + variant) % 5,
+                    8 + (i + variant) % 7, 17 + (i + variant) % 11, 60 + (i + variant) % 30,
+                    1010 + (i + variant) % 20, 1.5 + (i + variant) % 3, (i + variant) * 25 % 360);
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import tech.rithm.udacitysunwearable.data.WeatherContract.WeatherEntry;
+import tech.rithm.udacitysunwearable.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Inserts 14, 365 and 10,000 days through {@link WeatherProvider#bulkInsert}, which inserts
+ * ContentValues one db.insert at a time, and through {@link WeatherContract#METHOD_INSERT_BATCH},
+ * which binds a {@link ForecastBatch} to one compiled statement. The median time of each is
+ * printed.
+ * <p>
+ * Both paths write every day to the weather table and to the daily history, and both start
+ * from empty tables, so they do the same work. The provider runs on a database of its own,
+ * renamed by a RenamingDelegatingContext, so the weather of the app under test is left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+@SuppressWarnings("deprecation")
+public class WeatherProviderInsertBenchmarkTest {
+
+    private static final String DATABASE_PREFIX = "benchmark.";
+
+    private static final int[] DAYS = {14, 365, 10000};
+
+    /* Enough inserts of each size for the median to mean something, without taking all day */
+    private static final int TOTAL_DAYS_PER_SIZE = 20000;
+    private static final int MIN_RUNS = 5;
+
+    private Context mContext;
+    private WeatherProvider mProvider;
+    /* The provider can't delete history, so we clear it through a connection of our own */
+    private WeatherDbHelper mDbHelper;
+
+    @Before
+    public void createProvider() {
+        mContext = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mProvider = new WeatherProvider();
+        mProvider.attachInfo(mContext, null);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @After
+    public void deleteDatabase() {
+        mProvider.shutdown();
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmark() {
+        for (int days : DAYS) {
+            ForecastBatch batch = buildBatch(days);
+            ContentValues[] values = toContentValues(batch);
+            int runs = Math.max(MIN_RUNS, TOTAL_DAYS_PER_SIZE / days);
+
+            /* One of each before measuring, so both statements are compiled and cached */
+            bulkInsert(values);
+            insertBatch(batch);
+
+            double[] bulkInsertMillis = new double[runs];
+            double[] insertBatchMillis = new double[runs];
+            for (int i = 0; i < runs; i++) {
+                bulkInsertMillis[i] = bulkInsert(values);
+                insertBatchMillis[i] = insertBatch(batch);
+            }
+
+            System.out.println(String.format("%5d days: bulkInsert %8.2f ms, insert_batch "
+                            + "%8.2f ms, median of %d", days, median(bulkInsertMillis),
+                    median(insertBatchMillis), runs));
+        }
+    }
+
+    /* Both paths insert the same rows into empty tables */
+    private double bulkInsert(ContentValues[] values) {
+        clearWeather();
+        long start = System.nanoTime();
+        int inserted = mProvider.bulkInsert(WeatherEntry.CONTENT_URI, values);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        assertEquals(values.length, inserted);
+        assertEquals(values.length, countWeather());
+        return millis;
+    }
+
+    private double insertBatch(ForecastBatch batch) {
+        clearWeather();
+        Bundle extras = new Bundle();
+        batch.writeToBundle(extras);
+        long start = System.nanoTime();
+        Bundle result = mProvider.call(WeatherContract.METHOD_INSERT_BATCH,
+                Long.toString(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID), extras);
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        assertEquals(batch.size(), result.getInt(WeatherContract.EXTRA_ROWS_CHANGED));
+        assertEquals(batch.size(), countWeather());
+        return millis;
+    }
+
+    private void clearWeather() {
+        mProvider.delete(WeatherEntry.CONTENT_URI, null, null);
+        mDbHelper.getWritableDatabase().delete(WeatherContract.HistoryEntry.TABLE_NAME, null, null);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mProvider.query(WeatherEntry.CONTENT_URI, new String[]{WeatherEntry._ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double median(double[] millis) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static ForecastBatch buildBatch(int days) {
+        ForecastBatch batch = new ForecastBatch(days);
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        for (int i = 0; i < days; i++) {
+            batch.add(today + i * SunshineDateUtils.DAY_IN_MILLIS, 800 + i % 5, 8 + i % 7,
+                    17 + i % 11, 60 + i % 30, 1010 + i % 20, 1.5 + i % 3, i * 25 % 360);
+        }
+        return batch;
+    }
+
+    private static ContentValues[] toContentValues(ForecastBatch batch) {
+        ContentValues[] values = new ContentValues[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            ContentValues value = new ContentValues();
+            value.put(WeatherEntry.COLUMN_DATE, batch.getDate(i));
+            value.put(WeatherEntry.COLUMN_WEATHER_ID, batch.getWeatherId(i));
+            value.put(WeatherEntry.COLUMN_MIN_TEMP, batch.getMinTemp(i));
+            value.put(WeatherEntry.COLUMN_MAX_TEMP, batch.getMaxTemp(i));
+            value.put(WeatherEntry.COLUMN_HUMIDITY, batch.getHumidity(i));
+            value.put(WeatherEntry.COLUMN_PRESSURE, batch.getPressure(i));
+            value.put(WeatherEntry.COLUMN_WIND_SPEED, batch.getWindSpeed(i));
+            value.put(WeatherEntry.COLUMN_DEGREES, batch.getDegrees(i));
+            values[i] = value;
+        }
+        return values;
+    }
+}
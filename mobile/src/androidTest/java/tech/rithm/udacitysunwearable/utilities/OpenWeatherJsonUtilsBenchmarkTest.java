@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import tech.rithm.udacitysunwearable.data.ForecastBatch;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses the same forecasts with the JSONObject tree parser and with the streaming JsonReader
+ * parser, side by side, and prints the time and the bytes allocated per parse of each.
+ * <p>
+ * The 14 day forecast is the fixture in the assets, in the format the weather server answers
+ * with. The longer ones repeat its days, for when we ask for more of them. The tree parser is
+ * timed from the bytes, like the sync used to run it, so its String is counted too.
+ * <p>
+ * Runs on a device, the parsers need android.util.JsonReader and org.json. Note that the tree
+ * parser saves the coordinates of the city in the preferences of the app under test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OpenWeatherJsonUtilsBenchmarkTest {
+
+    private static final String FIXTURE = "forecast_14_days.json";
+
+    private static final int[] DAYS = {14, 365, 3650};
+
+    /* Enough runs for the JIT to settle before we measure */
+    private static final int WARM_UP_PARSES = 20;
+    private static final int MEASURED_PARSES = 50;
+
+    private static JSONObject sFixture;
+
+    @BeforeClass
+    public static void loadFixture() throws Exception {
+        Context testContext = InstrumentationRegistry.getContext();
+        InputStream in = testContext.getAssets().open(FIXTURE);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            sFixture = new JSONObject(out.toString("UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void parsersAgree() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        for (int days : DAYS) {
+            byte[] payload = buildPayload(days);
+
+            ContentValues[] tree = OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                    context, new String(payload, "UTF-8"));
+            ForecastBatch streamed = OpenWeatherJsonUtils.getForecastBatchFromStream(
+                    new ByteArrayInputStream(payload));
+
+            assertNotNull(tree);
+            assertNotNull(streamed);
+            assertEquals(tree.length, streamed.size());
+            ForecastBatch fromTree = ForecastBatch.fromContentValues(tree);
+            for (int i = 0; i < tree.length; i++) {
+                assertTrue("Day " + i, fromTree.sameValues(i, streamed, i));
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        for (int days : DAYS) {
+            final byte[] payload = buildPayload(days);
+
+            Measurement tree = measure(new Parse() {
+                @Override
+                public void run() throws Exception {
+                    OpenWeatherJsonUtils.getWeatherContentValuesFromJson(
+                            context, new String(payload, "UTF-8"));
+                }
+            });
+            Measurement streamed = measure(new Parse() {
+                @Override
+                public void run() throws Exception {
+                    OpenWeatherJsonUtils.getForecastBatchFromStream(
+                            new ByteArrayInputStream(payload));
+                }
+            });
+
+            System.out.println(String.format("%4d days, %7d bytes: tree %s, streaming %s",
+                    days, payload.length, tree, streamed));
+        }
+    }
+
+    private interface Parse {
+        void run() throws Exception;
+    }
+
+    /* The median time of a parse, and the bytes it allocated on average */
+    private static final class Measurement {
+        final double mMedianMillis;
+        final long mBytesAllocated;
+
+        Measurement(double medianMillis, long bytesAllocated) {
+            mMedianMillis = medianMillis;
+            mBytesAllocated = bytesAllocated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%7.2f ms %9d bytes", mMedianMillis, mBytesAllocated);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Measurement measure(Parse parse) throws Exception {
+        for (int i = 0; i < WARM_UP_PARSES; i++) {
+            parse.run();
+        }
+
+        double[] millis = new double[MEASURED_PARSES];
+        for (int i = 0; i < MEASURED_PARSES; i++) {
+            long start = System.nanoTime();
+            parse.run();
+            millis[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(millis);
+
+        /* Counted apart from the timing, counting allocations slows them down */
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < MEASURED_PARSES; i++) {
+                parse.run();
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        long bytes = Debug.getThreadAllocSize() / MEASURED_PARSES;
+
+        return new Measurement(millis[MEASURED_PARSES / 2], bytes);
+    }
+
+    /* The fixture, with its days repeated until there are as many as asked for */
+    private static byte[] buildPayload(int days) throws Exception {
+        JSONObject payload = new JSONObject(sFixture.toString());
+        JSONArray fixtureDays = sFixture.getJSONArray("list");
+        JSONArray list = new JSONArray();
+        long firstDate = fixtureDays.getJSONObject(0).getLong("dt");
+        for (int i = 0; i < days; i++) {
+            JSONObject day = new JSONObject(
+                    fixtureDays.getJSONObject(i % fixtureDays.length()).toString());
+            day.put("dt", firstDate + i * 86400L);
+            list.put(day);
+        }
+        payload.put("cnt", days);
+        payload.put("list", list);
+        return payload.toString().getBytes("UTF-8");
+    }
+}
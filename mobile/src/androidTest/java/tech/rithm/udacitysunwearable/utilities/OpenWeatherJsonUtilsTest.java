@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import tech.rithm.udacitysunwearable.data.ForecastBatch;
+
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the streaming parser refuses days that lack a value we store, as the JSONObject tree
+ * parser did, rather than storing them as 0° with condition 0.
+ * <p>
+ * Runs on a device, the parser needs android.util.JsonReader.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OpenWeatherJsonUtilsTest {
+
+    private static final String DAY = "{\"dt\":1484985600,"
+            + "\"temp\":{\"day\":8.5,\"min\":2.5,\"max\":9.0,\"night\":3.0},"
+            + "\"pressure\":1021.5,\"humidity\":80,"
+            + "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\"}],"
+            + "\"speed\":3.5,\"deg\":270}";
+
+    @Test
+    public void wholeDaysAreParsed() throws Exception {
+        ForecastBatch forecast = parse(DAY + "," + DAY);
+
+        assertEquals(2, forecast.size());
+        assertEquals(500, forecast.getWeatherId(1));
+        assertEquals(9.0, forecast.getMaxTemp(1), 0);
+        assertEquals(2.5, forecast.getMinTemp(1), 0);
+    }
+
+    @Test
+    public void truncatedDayIsRejected() throws Exception {
+        /* The second day was cut short after its temperatures, as by a proxy or a bad cache */
+        String truncated = "{\"dt\":1485072000,\"temp\":{\"min\":2.5,\"max\":9.0}}";
+        assertRejected(DAY + "," + truncated, "pressure");
+    }
+
+    @Test
+    public void dayWithoutTemperatureOrConditionIsRejected() throws Exception {
+        assertRejected(DAY.replace("\"max\":9.0,", ""), "temp.max");
+        assertRejected(DAY.replace("\"min\":2.5,", ""), "temp.min");
+        assertRejected(DAY.replace("\"id\":500,", ""), "weather[0].id");
+        assertRejected(DAY.replace("\"weather\":[{\"id\":500,\"main\":\"Rain\","
+                + "\"description\":\"light rain\"}],", ""), "weather[0].id");
+    }
+
+    private static ForecastBatch parse(String days) throws Exception {
+        String json = "{\"cod\":\"200\",\"list\":[" + days + "]}";
+        return OpenWeatherJsonUtils.getForecastBatchFromStream(
+                new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+    private static void assertRejected(String days, String missing) throws Exception {
+        try {
+            parse(days);
+            fail("Parsed a day without " + missing);
+        } catch (JSONException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(missing));
+        }
+    }
+}
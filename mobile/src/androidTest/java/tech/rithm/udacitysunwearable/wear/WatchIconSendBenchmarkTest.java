@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.google.android.gms.wearable.Asset;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Builds the icon asset of a send to the watch on the main thread, where putForecast runs, the
+ * way it used to be built and the way it is now, and prints the median main thread time and
+ * the bytes allocated per send of each.
+ * <p>
+ * It used to decode the icon's resource and compress it back to a PNG for every send. Now the
+ * PNG bytes come from {@link WatchIconCache}, loaded once, here before measuring as the prewarm
+ * does at startup. Each send takes the next of the eight icons.
+ * <p>
+ * Runs on a device, it needs the app's resources and a real BitmapFactory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class WatchIconSendBenchmarkTest {
+
+    private static final int WARM_UP_SENDS = 20;
+    private static final int MEASURED_SENDS = 200;
+
+    private interface Send {
+        Asset run(int resId) throws Exception;
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        final Resources resources = InstrumentationRegistry.getTargetContext().getResources();
+
+        Send decodeAndCompress = new Send() {
+            @Override
+            public Asset run(int resId) {
+                Bitmap bitmap = BitmapFactory.decodeResource(resources, resId);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                return Asset.createFromBytes(out.toByteArray());
+            }
+        };
+
+        final WatchIconCache cache = WatchIconCache.getInstance(resources);
+        cache.prewarm();
+        Send fromCache = new Send() {
+            @Override
+            public Asset run(int resId) throws Exception {
+                return cache.getAsset(resId);
+            }
+        };
+
+        System.out.println(String.format("Icon asset per send on the main thread: decode and "
+                        + "compress %s, from the cache %s", measureOnMainThread(decodeAndCompress),
+                measureOnMainThread(fromCache)));
+    }
+
+    /* The median time of a send, and the bytes it allocated on average */
+    @SuppressWarnings("deprecation")
+    private static String measureOnMainThread(final Send send) throws Exception {
+        final int[] icons = WatchIconCache.getIconResIds();
+        final double[] millis = new double[MEASURED_SENDS];
+        final long[] bytes = new long[1];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < WARM_UP_SENDS; i++) {
+                        assertNotNull(send.run(icons[i % icons.length]));
+                    }
+                    for (int i = 0; i < MEASURED_SENDS; i++) {
+                        long start = System.nanoTime();
+                        send.run(icons[i % icons.length]);
+                        millis[i] = (System.nanoTime() - start) / 1e6;
+                    }
+
+                    /* Counted apart from the timing, counting allocations slows them down */
+                    Debug.resetThreadAllocSize();
+                    Debug.startAllocCounting();
+                    try {
+                        for (int i = 0; i < MEASURED_SENDS; i++) {
+                            send.run(icons[i % icons.length]);
+                        }
+                    } finally {
+                        Debug.stopAllocCounting();
+                    }
+                    bytes[0] = Debug.getThreadAllocSize() / MEASURED_SENDS;
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        assertNull(failure.get());
+
+        Arrays.sort(millis);
+        return String.format("%6.2f ms %8d bytes", millis[MEASURED_SENDS / 2], bytes[0]);
+    }
+}
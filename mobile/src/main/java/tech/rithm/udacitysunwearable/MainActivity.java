@@ -17,8 +17,6 @@ package tech.rithm.udacitysunwearable;
 
 import android.content.Intent;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
@@ -40,10 +38,18 @@ import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import tech.rithm.udacitysunwearable.data.ForecastBatch;
 import tech.rithm.udacitysunwearable.data.SunshinePreferences;
 import tech.rithm.udacitysunwearable.data.WeatherContract;
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+import tech.rithm.udacitysunwearable.shared.Forecast;
+import tech.rithm.udacitysunwearable.shared.ForecastPayload;
 import tech.rithm.udacitysunwearable.sync.SunshineSyncUtils;
 import tech.rithm.udacitysunwearable.utilities.SunshineWeatherUtils;
+import tech.rithm.udacitysunwearable.wear.WatchIconCache;
+import tech.rithm.udacitysunwearable.wear.WatchForecast;
+import tech.rithm.udacitysunwearable.wear.WearPublisherPreferences;
+import tech.rithm.udacitysunwearable.wear.WearWeatherPublisher;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -61,8 +67,8 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.ByteArrayOutputStream;
-import java.util.Calendar;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -73,7 +79,8 @@ public class MainActivity extends AppCompatActivity implements
         ForecastAdapter.ForecastAdapterOnClickHandler,
         MessageApi.MessageListener,
         GoogleApiClient.ConnectionCallbacks,
-        GoogleApiClient.OnConnectionFailedListener
+        GoogleApiClient.OnConnectionFailedListener,
+        WearWeatherPublisher.Sink
 {
 
     private final String TAG = MainActivity.class.getSimpleName();
@@ -123,21 +130,14 @@ public class MainActivity extends AppCompatActivity implements
     private static final String COUNT_KEY = "com.blab.key.count";
     private static final String PATH_WEATHER = "/weather";
     private static final String PATH_WEATHER_REQUEST = "/weather-request";
-    private static final String KEY_MAX_TEMP = "com.sunshine.key.max_temp";
-    private static final String KEY_MIN_TEMP = "com.sunshine.key.min_temp";
-    private static final String KEY_TIME_STAMP = "com.sunshine.key.stamp";
-    private static final String KEY_ASSET_IMAGE = "com.sunshine.key.asset_image";
-    private static final String KEY_WEATHER_DESC = "com.sunshine.key.weather_desc";
-    private String maxTemp;
-    private String minTemp;
-    private int weatherId;
-    private int weatherImageId;
-    private String weatherDescription;
-    private long TIME_STAMP;
+    private WearWeatherPublisher mWearPublisher;
     private int CONNECTION_TIME_OUT_MS = 15000;
     private GoogleApiClient googleApiClient;
     private int count = 0;
 
+    /* Forecast currently shown in the list, reused across loads for the wear publisher */
+    private final ForecastBatch mForecastBatch = new ForecastBatch();
+
 
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -161,6 +161,10 @@ public class MainActivity extends AppCompatActivity implements
                 .addOnConnectionFailedListener(this)
                 .build();
 
+        /* Remember what the watch already has, so reopening the app doesn't send it again */
+        mWearPublisher = new WearWeatherPublisher(this);
+        WearPublisherPreferences.restore(this, mWearPublisher);
+
 
         /*
          * Using findViewById, we get a reference to our RecyclerView from xml. This allows us to
@@ -230,6 +234,9 @@ public class MainActivity extends AppCompatActivity implements
 
         SunshineSyncUtils.initialize(this);
 
+        /* Encode the watch icons up front, so sending the weather never waits for it */
+        WatchIconCache.prewarmInBackground(getApplicationContext().getResources());
+
     }
 
     @Override
@@ -262,55 +269,111 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onMessageReceived(MessageEvent event){
         if (PATH_WEATHER_REQUEST.equals(event.getPath())){
-            sendWeather();
+            /* The watch only asks when it has no forecast, whatever we think we sent it */
+            sendWeather(true);
         }
 
         Log.i("MSG", "MSG recieved!!");
     }
 
-    private void sendWeather(){
+    /*
+     * Called whenever the forecast reloads and whenever the watch asks for the weather. The
+     * publisher only lets it through to putForecast when the watch doesn't have it yet, unless
+     * forced to.
+     */
+    private void sendWeather(boolean force){
 
+        if (mForecastBatch.size() == 0){
+            return;
+        }
 
-        Calendar calendar = Calendar.getInstance();
-        TIME_STAMP = calendar.getTimeInMillis();
+        /*
+         * All days of the batch, starting today, so the watch can roll over to the next day at
+         * midnight without waiting for the phone. The temperatures go in the user's unit, cut
+         * off to tenths, so the watch shows the same degrees as formatTemperature would.
+         */
+        List<DayForecast> days = new ArrayList<>(mForecastBatch.size());
+        for (int i = 0; i < mForecastBatch.size(); i++) {
+            days.add(new DayForecast(
+                    mForecastBatch.getDate(i),
+                    Forecast.toTenths(SunshineWeatherUtils.toPreferredUnit(
+                            this, mForecastBatch.getMaxTemp(i))),
+                    Forecast.toTenths(SunshineWeatherUtils.toPreferredUnit(
+                            this, mForecastBatch.getMinTemp(i))),
+                    mForecastBatch.getWeatherId(i)));
+        }
 
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
-        putDataMapRequest.setUrgent();
+        Forecast forecast = new Forecast(days, !SunshinePreferences.isMetric(this));
+        mWearPublisher.publish(new WatchForecast(forecast), force);
+    }
 
-        DataMap countToPut = putDataMapRequest.getDataMap();
-        countToPut.putString(KEY_MAX_TEMP, maxTemp);
-        countToPut.putString(KEY_MIN_TEMP, minTemp);
-        countToPut.putLong(KEY_TIME_STAMP, TIME_STAMP);
+    /**
+     * Puts the forecast into the Data Layer, from where it is synced to the watch.
+     *
+     * @param forecast The forecast to send
+     * @param urgent   Whether the watch should be woken up to receive it right away
+     */
+    @Override
+    public void putForecast(WatchForecast forecast, boolean urgent){
 
-        Bitmap bitmap = BitmapFactory.decodeResource(getResources(), weatherImageId);
-        Asset asset = createAssetFromBitmap(bitmap);
-        countToPut.putAsset(KEY_ASSET_IMAGE, asset);
+        long startNanos = System.nanoTime();
 
-        countToPut.putString(KEY_WEATHER_DESC, weatherDescription);
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_WEATHER);
+        if (urgent){
+            putDataMapRequest.setUrgent();
+        }
+
+        /*
+         * The days go in one byte array. The description and icon go in once for each kind of
+         * weather, however many days have it. The icons come encoded from a cache, the same bytes
+         * for every send. Their assets then have the same digest too, and the Data Layer doesn't
+         * transfer them again.
+         */
+        DataMap countToPut = putDataMapRequest.getDataMap();
+        countToPut.putByteArray(ForecastPayload.KEY_FORECAST,
+                ForecastPayload.encode(forecast.getForecast()));
+
+        WatchIconCache iconCache = WatchIconCache.getInstance(getResources());
+        for (DayForecast day : forecast.getForecast().getDays()) {
+            int weatherId = day.getWeatherId();
+            String iconKey = ForecastPayload.iconKey(weatherId);
+            if (countToPut.containsKey(iconKey)) {
+                continue;
+            }
+            try {
+                countToPut.putAsset(iconKey, iconCache.getAsset(
+                        SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId)));
+            } catch (IOException e) {
+                Log.e(TAG, "Couldn't load the icon for the watch", e);
+                mWearPublisher.onPublishFailed();
+                return;
+            }
+            countToPut.putString(ForecastPayload.descriptionKey(weatherId),
+                    SunshineWeatherUtils.getStringForWeatherCondition(this, weatherId));
+        }
 
         PutDataRequest putDataRequest = putDataMapRequest.asPutDataRequest();
 
         PendingResult<DataApi.DataItemResult> pendingResult =
                 Wearable.DataApi.putDataItem(googleApiClient, putDataRequest);
 
+        Log.d(TAG, "Sending the forecast took " + TimeUnit.NANOSECONDS.toMicros(
+                System.nanoTime() - startNanos) + " us on the main thread");
+
         pendingResult.setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
             @Override
             public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
                 if (dataItemResult.getStatus().isSuccess()){
-                    Log.i("***","*****:: _>>  message SUCCESS ");
+                    WearPublisherPreferences.save(MainActivity.this, mWearPublisher);
                 } else {
-                    Log.i("***","*****:: _>>  message FAILED ");
+                    Log.w(TAG, "Sending the forecast to the watch failed");
+                    mWearPublisher.onPublishFailed();
+                    WearPublisherPreferences.save(MainActivity.this, mWearPublisher);
                 }
             }
         });
     }
 
-    private static Asset createAssetFromBitmap(Bitmap bitmap){
-        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
-        return Asset.createFromBytes(byteStream.toByteArray());
-    }
-
     @Override
     public void onConnectionSuspended(int i){
         // nodeConnected = false;
@@ -400,23 +463,22 @@ public class MainActivity extends AppCompatActivity implements
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
 
-        double max_temp;
-        double min_temp;
-
         if (data != null && data.moveToFirst()){
-            max_temp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-            min_temp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-            weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-
-
-            maxTemp = SunshineWeatherUtils.formatTemperature(this, max_temp);
-            minTemp = SunshineWeatherUtils.formatTemperature(this, min_temp);
-            weatherImageId = SunshineWeatherUtils.getSmallArtResourceIdForWeatherCondition(weatherId);
-
-            weatherDescription = SunshineWeatherUtils.getStringForWeatherCondition(this, weatherId);
-
-
-            sendWeather();
+            /*
+             * Collect the forecast into a batch for the wear publisher. Our projection only holds
+             * the date, temperatures and condition, so the remaining columns are left at 0.
+             */
+            mForecastBatch.clear();
+            do {
+                mForecastBatch.add(
+                        data.getLong(INDEX_WEATHER_DATE),
+                        data.getInt(INDEX_WEATHER_CONDITION_ID),
+                        data.getDouble(INDEX_WEATHER_MIN_TEMP),
+                        data.getDouble(INDEX_WEATHER_MAX_TEMP),
+                        0, 0, 0, 0);
+            } while (data.moveToNext());
+
+            sendWeather(false);
         }
 
 
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import java.util.Arrays;
+
+/**
+ * A batch of daily forecasts stored column by column in parallel primitive arrays. Unlike a
+ * ContentValues[], which holds a HashMap of boxed values for every day, a batch costs a fixed
+ * handful of arrays no matter how many days it holds, and can be bound straight into a compiled
+ * SQLiteStatement.
+ * <p>
+ * Days are appended with {@link #add}, and the column of day i can be read with the matching
+ * getter (for instance {@link #getDate(int)}).
+ */
+public final class ForecastBatch {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /* Keys used to pass a batch to WeatherProvider#call inside a Bundle */
+    private static final String EXTRA_SIZE = "batch_size";
+    private static final String EXTRA_DATES = "batch_dates";
+    private static final String EXTRA_WEATHER_IDS = "batch_weather_ids";
+    private static final String EXTRA_MIN_TEMPS = "batch_min_temps";
+    private static final String EXTRA_MAX_TEMPS = "batch_max_temps";
+    private static final String EXTRA_HUMIDITY = "batch_humidity";
+    private static final String EXTRA_PRESSURE = "batch_pressure";
+    private static final String EXTRA_WIND_SPEED = "batch_wind_speed";
+    private static final String EXTRA_DEGREES = "batch_degrees";
+
+    private int mSize;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+
+    /* Coordinates of the place the forecast is for, as reported by the server */
+    private boolean mHasCoordinates;
+    private double mLatitude;
+    private double mLongitude;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of days this batch can hold before its arrays need to grow
+     */
+    public ForecastBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends one day to the batch.
+     *
+     * @param date      Normalized UTC date of the day, see {@link WeatherContract.WeatherEntry#COLUMN_DATE}
+     * @param weatherId Weather condition id as returned by the API
+     * @param minTemp   Minimum temperature in °C
+     * @param maxTemp   Maximum temperature in °C
+     * @param humidity  Humidity in percent
+     * @param pressure  Pressure in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Meteorological wind direction
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow(mSize * 2);
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeed[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow(int capacity) {
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Empties the batch while keeping its arrays, so it can be filled again without allocating.
+     */
+    public void clear() {
+        mSize = 0;
+        mHasCoordinates = false;
+    }
+
+    /**
+     * Records the coordinates of the place this forecast is for. These aren't stored with the
+     * days; it's up to the caller to decide what to do with them.
+     */
+    public void setCoordinates(double latitude, double longitude) {
+        mHasCoordinates = true;
+        mLatitude = latitude;
+        mLongitude = longitude;
+    }
+
+    public boolean hasCoordinates() {
+        return mHasCoordinates;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidity[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressure[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeed[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    /**
+     * Returns the index of the given date in this batch, assuming the batch is sorted by date.
+     *
+     * @param date The normalized date to look for
+     * @return The index of the day, or a negative number if the batch doesn't contain it
+     */
+    public int indexOfDate(long date) {
+        return Arrays.binarySearch(mDates, 0, mSize, date);
+    }
+
+    /**
+     * Returns true if day i of this batch holds exactly the same values as day j of other.
+     */
+    public boolean sameValues(int i, ForecastBatch other, int j) {
+        return mDates[i] == other.mDates[j]
+                && mWeatherIds[i] == other.mWeatherIds[j]
+                && mMinTemps[i] == other.mMinTemps[j]
+                && mMaxTemps[i] == other.mMaxTemps[j]
+                && mHumidity[i] == other.mHumidity[j]
+                && mPressure[i] == other.mPressure[j]
+                && mWindSpeed[i] == other.mWindSpeed[j]
+                && mDegrees[i] == other.mDegrees[j];
+    }
+
+    /**
+     * Stores this batch in a Bundle so it can be passed to WeatherProvider#call. The arrays are
+     * shared with the Bundle, not copied.
+     *
+     * @param bundle The Bundle to write to
+     */
+    public void writeToBundle(Bundle bundle) {
+        bundle.putInt(EXTRA_SIZE, mSize);
+        bundle.putLongArray(EXTRA_DATES, mDates);
+        bundle.putIntArray(EXTRA_WEATHER_IDS, mWeatherIds);
+        bundle.putDoubleArray(EXTRA_MIN_TEMPS, mMinTemps);
+        bundle.putDoubleArray(EXTRA_MAX_TEMPS, mMaxTemps);
+        bundle.putDoubleArray(EXTRA_HUMIDITY, mHumidity);
+        bundle.putDoubleArray(EXTRA_PRESSURE, mPressure);
+        bundle.putDoubleArray(EXTRA_WIND_SPEED, mWindSpeed);
+        bundle.putDoubleArray(EXTRA_DEGREES, mDegrees);
+    }
+
+    /**
+     * Reads a batch previously stored with {@link #writeToBundle(Bundle)}.
+     *
+     * @param bundle The Bundle to read from
+     * @return The batch, or null if the Bundle doesn't hold one
+     */
+    public static ForecastBatch fromBundle(Bundle bundle) {
+        if (bundle == null || !bundle.containsKey(EXTRA_DATES)) {
+            return null;
+        }
+        ForecastBatch batch = new ForecastBatch(0);
+        batch.mSize = bundle.getInt(EXTRA_SIZE);
+        batch.mDates = bundle.getLongArray(EXTRA_DATES);
+        batch.mWeatherIds = bundle.getIntArray(EXTRA_WEATHER_IDS);
+        batch.mMinTemps = bundle.getDoubleArray(EXTRA_MIN_TEMPS);
+        batch.mMaxTemps = bundle.getDoubleArray(EXTRA_MAX_TEMPS);
+        batch.mHumidity = bundle.getDoubleArray(EXTRA_HUMIDITY);
+        batch.mPressure = bundle.getDoubleArray(EXTRA_PRESSURE);
+        batch.mWindSpeed = bundle.getDoubleArray(EXTRA_WIND_SPEED);
+        batch.mDegrees = bundle.getDoubleArray(EXTRA_DEGREES);
+        return batch;
+    }
+
+    /**
+     * Converts weather values in the ContentValues form used by
+     * {@link WeatherProvider#bulkInsert} into a batch.
+     *
+     * @param values One set of weather values per day
+     * @return A batch holding the same days, in the same order
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+        for (ContentValues value : values) {
+            batch.add(
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+}
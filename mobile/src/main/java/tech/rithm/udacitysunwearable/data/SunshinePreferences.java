@@ -31,6 +31,16 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * HTTP cache validators (ETag and Last-Modified) are kept per location, with the request
+     * URL the stored rows of the location came from, in their own preferences file, so they
+     * can be dropped all at once without touching user settings.
+     */
+    private static final String HTTP_VALIDATORS_FILE = "http_validators";
+    private static final String PREF_VALIDATED_URL_PREFIX = "url:";
+    private static final String PREF_ETAG_PREFIX = "etag:";
+    private static final String PREF_LAST_MODIFIED_PREFIX = "last_modified:";
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
@@ -242,4 +252,82 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the request URL the stored forecast of a location came from. The validators of
+     * the location are only worth sending to that URL.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param locationId The location the validators belong to
+     * @return The URL, or null if we don't have validators for the location
+     */
+    public static String getHttpValidatedUrl(Context context, long locationId) {
+        SharedPreferences sp = context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+        return sp.getString(PREF_VALIDATED_URL_PREFIX + locationId, null);
+    }
+
+    /**
+     * Returns the ETag the server sent with the last response we stored for this location.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param locationId The location the ETag belongs to
+     * @return The stored ETag, or null if we don't have one
+     */
+    public static String getHttpETag(Context context, long locationId) {
+        SharedPreferences sp = context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+        return sp.getString(PREF_ETAG_PREFIX + locationId, null);
+    }
+
+    /**
+     * Returns the Last-Modified date the server sent with the last response we stored for this
+     * location.
+     *
+     * @param context    Used to access SharedPreferences
+     * @param locationId The location the date belongs to
+     * @return The stored Last-Modified header value, or null if we don't have one
+     */
+    public static String getHttpLastModified(Context context, long locationId) {
+        SharedPreferences sp = context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+        return sp.getString(PREF_LAST_MODIFIED_PREFIX + locationId, null);
+    }
+
+    /**
+     * Saves the cache validators of a response. This should only be called once the response
+     * has been stored, otherwise a later 304 Not Modified would leave us without data.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param locationId   The location the response was stored for
+     * @param url          The request URL the response came from
+     * @param eTag         The ETag header of the response, may be null
+     * @param lastModified The Last-Modified header of the response, may be null
+     */
+    public static void saveHttpValidators(Context context, long locationId, String url,
+                                          String eTag, String lastModified) {
+        SharedPreferences sp = context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putString(PREF_VALIDATED_URL_PREFIX + locationId, url);
+        if (eTag != null) {
+            editor.putString(PREF_ETAG_PREFIX + locationId, eTag);
+        } else {
+            editor.remove(PREF_ETAG_PREFIX + locationId);
+        }
+        if (lastModified != null) {
+            editor.putString(PREF_LAST_MODIFIED_PREFIX + locationId, lastModified);
+        } else {
+            editor.remove(PREF_LAST_MODIFIED_PREFIX + locationId);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Forgets every stored cache validator, forcing the next request for each URL to download
+     * the full response.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    public static void clearHttpValidators(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(HTTP_VALIDATORS_FILE, Context.MODE_PRIVATE);
+        sp.edit().clear().apply();
+    }
+}
@@ -56,6 +56,67 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * Paths used to ask for a window of days, as in
+     *
+     *     content://com.example.android.sunshine/weather/from/1472169600000/to/1472774400000
+     */
+    public static final String PATH_FROM = "from";
+    public static final String PATH_TO = "to";
+
+    /*
+     * Paths for past weather. content://com.example.android.sunshine/history/ holds the last
+     * forecast we received for every day, and .../history/weekly/ holds weekly aggregates of
+     * days that have been compacted out of the daily history.
+     */
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_WEEKLY = "weekly";
+
+    /*
+     * Path for the extra locations whose weather we sync alongside the user's own, as in
+     * content://com.example.android.sunshine/location/. The weather of one of them is found at
+     * content://com.example.android.sunshine/location/3/weather/.
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * Name of the provider method (see ContentResolver#call) that replaces the stored forecast
+     * with a new one in a single transaction. Only days whose values actually changed are
+     * written, and days outside of the new forecast are removed. The new forecast is passed as a
+     * ForecastBatch (see ForecastBatch#writeToBundle), and the number of rows that were inserted,
+     * updated or removed is returned under EXTRA_ROWS_CHANGED. The arg of ContentResolver#call is
+     * the id of the location the forecast belongs to; null means the user's own location.
+     */
+    public static final String METHOD_REPLACE_FORECAST = "replace_forecast";
+
+    /*
+     * Name of the provider method that inserts every day of a ForecastBatch, replacing rows with
+     * the same date, in a single transaction. This is the columnar counterpart of bulkInsert and
+     * is meant for large imports. As with METHOD_REPLACE_FORECAST, the arg is the location id.
+     * The number of rows inserted is returned under EXTRA_ROWS_CHANGED.
+     */
+    public static final String METHOD_INSERT_BATCH = "insert_batch";
+
+    /*
+     * Name of the provider method that folds every day of the daily history before a cutoff
+     * date into weekly aggregates, then removes those days from the daily history. The cutoff is
+     * passed as the arg of ContentResolver#call, as a normalized date that starts a week (see
+     * WeeklyHistoryEntry#getWeekStart). The number of days compacted is returned under
+     * EXTRA_ROWS_CHANGED.
+     */
+    public static final String METHOD_COMPACT_HISTORY = "compact_history";
+
+    public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+
+    /*
+     * METHOD_REPLACE_FORECAST also reports how much the forecast moved, for days present in
+     * both the old and the new forecast: the largest change of a min or max temperature in °C,
+     * and the number of days whose weather changed to another kind (another hundred of the
+     * condition ids, for instance rain to snow).
+     */
+    public static final String EXTRA_MAX_TEMP_DELTA = "max_temp_delta";
+    public static final String EXTRA_CONDITION_CHANGES = "condition_changes";
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -67,6 +128,16 @@ public class WeatherContract {
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
+        /* Covering index for the forecast list query, see WeatherDbHelper */
+        public static final String INDEX_FORECAST_LIST = "weather_forecast_list_idx";
+
+        /*
+         * The location the row belongs to: PRIMARY_LOCATION_ID for the user's own location,
+         * otherwise the _ID of a row of the location table. The URIs under CONTENT_URI only ever
+         * see the user's own location; use buildWeatherUriForLocation for the others.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /*
          * The date column will store the UTC date that correlates to the local date for which
          * each particular weather row represents. For example, if you live in the Eastern
@@ -123,6 +194,35 @@ public class WeatherContract {
                     .build();
         }
 
+        /**
+         * Builds a URI for the days between two normalized dates, both included. Rows are
+         * returned in ascending date order unless the query asks for another order.
+         *
+         * @param fromDate Normalized date of the first day of the window, in milliseconds
+         * @param toDate   Normalized date of the last day of the window, in milliseconds
+         * @return Uri to query the weather for a window of days
+         */
+        public static Uri buildWeatherUriForRange(long fromDate, long toDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_FROM)
+                    .appendPath(Long.toString(fromDate))
+                    .appendPath(PATH_TO)
+                    .appendPath(Long.toString(toDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for every day of weather we have for one location.
+         *
+         * @param locationId PRIMARY_LOCATION_ID, or the _ID of a row of the location table
+         * @return Uri to query the weather of that location
+         */
+        public static Uri buildWeatherUriForLocation(long locationId) {
+            return LocationEntry.buildLocationUri(locationId).buildUpon()
+                    .appendPath(PATH_WEATHER)
+                    .build();
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
@@ -135,4 +235,168 @@ public class WeatherContract {
             return WeatherContract.WeatherEntry.COLUMN_DATE + " >= " + normalizedUtcNow;
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Inner class that defines the table contents of the location table. The user's own location
+     * comes from SunshinePreferences and isn't stored here; this table lists the extra sites
+     * whose forecast is synced along with it.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query and edit the location table */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * Id under which the weather of the user's own location is stored. AUTOINCREMENT ids
+         * start at 1, so it never clashes with a row of this table.
+         */
+        public static final long PRIMARY_LOCATION_ID = 0;
+
+        /* The location as the weather server understands it, for instance "94043,USA" */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /*
+         * Latitude and longitude of the location. Both are optional; when they are present the
+         * weather is requested by coordinates rather than by the location setting.
+         */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /**
+         * Builds a URI for a single location.
+         *
+         * @param locationId The _ID of the location
+         * @return Uri of that location
+         */
+        public static Uri buildLocationUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(locationId))
+                    .build();
+        }
+    }
+
+    /*
+     * Inner class that defines the table contents of the daily history table. Every forecast
+     * the weather table receives is also written here, but unlike the weather table, days are
+     * kept after they pass. Each day therefore holds the last forecast we had for it. It uses the
+     * same column names as WeatherEntry, including WeatherEntry.COLUMN_LOCATION_ID.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the daily history from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HISTORY)
+                .build();
+
+        /* Used internally as the name of our daily history table. */
+        public static final String TABLE_NAME = "weather_history";
+    }
+
+    /* Inner class that defines the table contents of the weekly history table */
+    public static final class WeeklyHistoryEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the weekly history from the content provider */
+        public static final Uri CONTENT_URI = HistoryEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_WEEKLY)
+                .build();
+
+        /* Used internally as the name of our weekly history table. */
+        public static final String TABLE_NAME = "weather_history_weekly";
+
+        /* The location the week belongs to, see WeatherEntry.COLUMN_LOCATION_ID */
+        public static final String COLUMN_LOCATION_ID = WeatherEntry.COLUMN_LOCATION_ID;
+
+        /* Normalized date of the Monday that starts the week */
+        public static final String COLUMN_WEEK_START = "week_start";
+
+        /* Number of days of the week that were folded into this row */
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        /* Lowest minimum and highest maximum temperature of the week, in °C */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        /* Average daily minimum and maximum temperature of the week, in °C */
+        public static final String COLUMN_AVG_MIN_TEMP = "avg_min";
+        public static final String COLUMN_AVG_MAX_TEMP = "avg_max";
+
+        /* Averages of the daily humidity, pressure and wind speed */
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        /*
+         * The most severe condition of the week, see SEVERITIES. Among conditions of the same
+         * severity, the larger id wins, which within a group is mostly the heavier weather.
+         */
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        /* The epoch was a Thursday, so Monday-based weeks are offset by three days */
+        private static final long WEEK_IN_MILLIS = 7 * SunshineDateUtils.DAY_IN_MILLIS;
+        private static final long WEEK_OFFSET_MILLIS = 3 * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /**
+         * Returns the normalized date of the Monday that starts the week containing the given
+         * normalized date.
+         *
+         * @param normalizedDate Normalized date in milliseconds
+         * @return Normalized date of the first day of the week
+         */
+        public static long getWeekStart(long normalizedDate) {
+            return normalizedDate - ((normalizedDate + WEEK_OFFSET_MILLIS) % WEEK_IN_MILLIS);
+        }
+
+        /**
+         * The same computation as {@link #getWeekStart(long)}, as an SQL expression over the
+         * given date column.
+         */
+        static String getSqlWeekStart(String dateColumn) {
+            return "(" + dateColumn + " - ((" + dateColumn + " + " + WEEK_OFFSET_MILLIS + ") % "
+                    + WEEK_IN_MILLIS + "))";
+        }
+
+        /*
+         * Severity of the OpenWeatherMap condition ids, as {first id, last id, severity}, from 0
+         * for clear skies up to 8 for extreme weather such as hurricanes. The ids don't sort by
+         * severity: extreme weather (90x) and strong winds (957 and up) come after clear skies
+         * (800), and light winds (951 to 956) are as harmless as clear skies. Ids that aren't
+         * listed are as severe as clear skies.
+         */
+        private static final int[][] SEVERITIES = {
+                {800, 800, 0},
+                {951, 956, 0},
+                {801, 804, 1},
+                {700, 799, 2},
+                {300, 399, 3},
+                {500, 599, 4},
+                {600, 699, 5},
+                {200, 299, 6},
+                {957, 962, 7},
+                {900, 906, 8}
+        };
+
+        /* Condition ids are below this, so a severity score keeps the id in its low digits */
+        static final int SEVERITY_SCALE = 1000;
+
+        /**
+         * An SQL expression over the given condition id column that orders by severity, ties
+         * broken by the larger id. The id is the score modulo {@link #SEVERITY_SCALE}, so the
+         * MAX of the scores gives the most severe id.
+         */
+        static String getSqlSeverityScore(String weatherIdColumn) {
+            StringBuilder sql = new StringBuilder("(CASE");
+            for (int[] severity : SEVERITIES) {
+                sql.append(" WHEN ").append(weatherIdColumn).append(" BETWEEN ")
+                        .append(severity[0]).append(" AND ").append(severity[1])
+                        .append(" THEN ").append(severity[2]);
+            }
+            return sql.append(" ELSE 0 END * ").append(SEVERITY_SCALE).append(" + ")
+                    .append(weatherIdColumn).append(")").toString();
+        }
+    }
+}
@@ -16,10 +16,15 @@
 package tech.rithm.udacitysunwearable.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
 
+import tech.rithm.udacitysunwearable.data.WeatherContract.HistoryEntry;
+import tech.rithm.udacitysunwearable.data.WeatherContract.LocationEntry;
 import tech.rithm.udacitysunwearable.data.WeatherContract.WeatherEntry;
+import tech.rithm.udacitysunwearable.data.WeatherContract.WeeklyHistoryEntry;
 
 /**
  * Manages a local database for weather data.
@@ -43,10 +48,116 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 6;
+
+    /*
+     * Connection tuning, applied once when the helper opens the database (see onConfigure).
+     *
+     * These pragmas only last as long as the connection they're run on, and onConfigure only
+     * gets the primary connection, the one every write goes through. With write-ahead logging,
+     * SQLiteDatabase opens extra connections for readers on its own, and those keep SQLite's
+     * and Android's defaults. So we only tune writing: the sync's inserts and compactions get
+     * the cache, the in-memory temporary storage and the cheaper commits. There is no way to
+     * reach the reader connections from here, so nothing is set for reading alone.
+     *
+     * SYNCHRONOUS_NORMAL is safe with write-ahead logging: a commit may be lost if the device
+     * loses power, but the database can't be corrupted, and each commit no longer waits for an
+     * fsync. A negative cache size is a size in KiB rather than in pages.
+     */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    public static final String TEMP_STORE_DEFAULT = "DEFAULT";
+    public static final String TEMP_STORE_FILE = "FILE";
+    public static final String TEMP_STORE_MEMORY = "MEMORY";
+
+    private static final boolean DEFAULT_WRITE_AHEAD_LOGGING = true;
+    private static final String DEFAULT_SYNCHRONOUS = SYNCHRONOUS_NORMAL;
+    private static final int DEFAULT_CACHE_SIZE_KB = 2 * 1024;
+    private static final String DEFAULT_TEMP_STORE = TEMP_STORE_MEMORY;
+
+    /* Columns that every schema version of the daily tables has, used when copying rows */
+    private static final String DAY_COLUMNS = WeatherEntry.COLUMN_DATE + ", "
+            + WeatherEntry.COLUMN_WEATHER_ID + ", "
+            + WeatherEntry.COLUMN_MIN_TEMP + ", "
+            + WeatherEntry.COLUMN_MAX_TEMP + ", "
+            + WeatherEntry.COLUMN_HUMIDITY + ", "
+            + WeatherEntry.COLUMN_PRESSURE + ", "
+            + WeatherEntry.COLUMN_WIND_SPEED + ", "
+            + WeatherEntry.COLUMN_DEGREES;
+
+    /* Columns of the weekly history table before locations were added */
+    private static final String WEEK_COLUMNS = WeeklyHistoryEntry.COLUMN_WEEK_START + ", "
+            + WeeklyHistoryEntry.COLUMN_DAY_COUNT + ", "
+            + WeeklyHistoryEntry.COLUMN_MIN_TEMP + ", "
+            + WeeklyHistoryEntry.COLUMN_MAX_TEMP + ", "
+            + WeeklyHistoryEntry.COLUMN_AVG_MIN_TEMP + ", "
+            + WeeklyHistoryEntry.COLUMN_AVG_MAX_TEMP + ", "
+            + WeeklyHistoryEntry.COLUMN_HUMIDITY + ", "
+            + WeeklyHistoryEntry.COLUMN_PRESSURE + ", "
+            + WeeklyHistoryEntry.COLUMN_WIND_SPEED + ", "
+            + WeeklyHistoryEntry.COLUMN_WEATHER_ID;
+
+    private final String mSynchronous;
+    private final int mCacheSizeKb;
+    private final String mTempStore;
 
     public WeatherDbHelper(Context context) {
+        this(context, DEFAULT_WRITE_AHEAD_LOGGING, DEFAULT_SYNCHRONOUS, DEFAULT_CACHE_SIZE_KB,
+                DEFAULT_TEMP_STORE);
+    }
+
+    /**
+     * Creates a helper with explicit connection settings, for benchmarks comparing them (see
+     * WeatherProviderConcurrencyBenchmarkTest). The app uses {@link #WeatherDbHelper(Context)},
+     * whose settings suit Sunshine's workload of loaders reading while a sync writes.
+     *
+     * @param context           Used to open or create the database
+     * @param writeAheadLogging Whether to use write-ahead logging, letting readers proceed
+     *                          while a writer's transaction is open
+     * @param synchronous       One of the SYNCHRONOUS_* constants
+     * @param cacheSizeKb       Size of the page cache of the primary connection, in KiB
+     * @param tempStore         One of the TEMP_STORE_* constants
+     */
+    @VisibleForTesting
+    WeatherDbHelper(Context context, boolean writeAheadLogging, String synchronous,
+                    int cacheSizeKb, String tempStore) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mSynchronous = synchronous;
+        mCacheSizeKb = cacheSizeKb;
+        mTempStore = tempStore;
+        setWriteAheadLoggingEnabled(writeAheadLogging);
+    }
+
+    /**
+     * Called when the database connection is being configured, before onCreate, onUpgrade or
+     * onOpen. This is where we apply the connection settings passed to the constructor. It runs
+     * once, on the primary connection only; the reader connections write-ahead logging adds
+     * don't get these settings. Write-ahead logging itself is switched on by
+     * setWriteAheadLoggingEnabled in the constructor, and does apply to every connection.
+     *
+     * @param db The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        runPragma(db, "synchronous = " + mSynchronous);
+        runPragma(db, "cache_size = " + (-mCacheSizeKb));
+        runPragma(db, "temp_store = " + mTempStore);
+    }
+
+    /*
+     * Some pragmas return the new value as a row, which execSQL refuses to run, so every pragma
+     * goes through rawQuery instead.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -58,6 +169,17 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
+        createWeatherTable(sqLiteDatabase);
+
+        createForecastListIndex(sqLiteDatabase);
+
+        createHistoryTables(sqLiteDatabase);
+
+        createLocationTable(sqLiteDatabase);
+    }
+
+    private static void createWeatherTable(SQLiteDatabase sqLiteDatabase) {
+
         /*
          * This String will contain a simple SQL statement that will create a table that will
          * cache our weather data.
@@ -71,7 +193,11 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                  * WeatherEntry implements the interface, "BaseColumns", which does have a field
                  * named "_ID". We use that here to designate our table's primary key.
                  */
-                        WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        WeatherEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+                /* Rows of the user's own location have location id 0, see LocationEntry */
+                        WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT "
+                                + LocationEntry.PRIMARY_LOCATION_ID + ", "                     +
 
                         WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
@@ -87,12 +213,13 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                         WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * To ensure this table can only contain one weather entry per date and location,
+                 * we declare that pair to be unique. We also specify "ON CONFLICT REPLACE". This
+                 * tells SQLite that if we have a weather entry for a certain date and location
+                 * and we attempt to insert another one, we replace the old weather entry.
                  */
-                        " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                        " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                                + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
@@ -101,13 +228,80 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
+    /*
+     * The daily history table mirrors the weather table, one row per location and date. The
+     * weekly table holds one row of aggregates per location and week that has been compacted
+     * out of the daily history. Their UNIQUE constraints index them by location, then date.
+     */
+    private static void createHistoryTables(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL DEFAULT "
+                        + LocationEntry.PRIMARY_LOCATION_ID + ", "                     +
+                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
+                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+                " UNIQUE (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);");
+
+        sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + WeeklyHistoryEntry.TABLE_NAME + " (" +
+                WeeklyHistoryEntry._ID                 + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                WeeklyHistoryEntry.COLUMN_LOCATION_ID  + " INTEGER NOT NULL DEFAULT "
+                        + LocationEntry.PRIMARY_LOCATION_ID + ", "                            +
+                WeeklyHistoryEntry.COLUMN_WEEK_START   + " INTEGER NOT NULL, "                 +
+                WeeklyHistoryEntry.COLUMN_DAY_COUNT    + " INTEGER NOT NULL, "                 +
+                WeeklyHistoryEntry.COLUMN_MIN_TEMP     + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_MAX_TEMP     + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_AVG_MIN_TEMP + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_AVG_MAX_TEMP + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_HUMIDITY     + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_PRESSURE     + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_WIND_SPEED   + " REAL NOT NULL, "                    +
+                WeeklyHistoryEntry.COLUMN_WEATHER_ID   + " INTEGER NOT NULL, "                 +
+                " UNIQUE (" + WeeklyHistoryEntry.COLUMN_LOCATION_ID + ", "
+                        + WeeklyHistoryEntry.COLUMN_WEEK_START + ") ON CONFLICT REPLACE);");
+    }
+
+    /* The extra locations to sync. The user's own location lives in SunshinePreferences. */
+    private static void createLocationTable(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE IF NOT EXISTS " + LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT, "                              +
+                LocationEntry.COLUMN_COORD_LAT        + " REAL, "                              +
+                LocationEntry.COLUMN_COORD_LONG       + " REAL);");
+    }
+
+    /*
+     * The forecast list asks for date, max, min and weather_id of every day from today onwards,
+     * ordered by date, for one location. An index holding exactly those columns, led by location
+     * and date, lets SQLite answer that query (and range queries over dates) from the index
+     * alone: it seeks to the first day of the window and reads forward, without looking up each
+     * row in the table. The cost of the query then depends on the size of the window rather than
+     * on how many days or locations are stored.
+     */
+    private static void createForecastListIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + WeatherEntry.INDEX_FORECAST_LIST
+                + " ON " + WeatherEntry.TABLE_NAME + " ("
+                + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                + WeatherEntry.COLUMN_DATE + ", "
+                + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                + WeatherEntry.COLUMN_WEATHER_ID + ");");
+    }
+
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Migrates the database from oldVersion to newVersion one step at a time, keeping the data
+     * we already have. Each schema change gets its own step below, guarded by the version that
+     * introduced it, so a database that is several versions behind runs every step it missed.
+     * <p>
+     * Note that this only fires if you change the version number for your database (in our case,
+     * DATABASE_VERSION). It does NOT depend on the version number for your application found in
+     * your app/build.gradle file.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +309,68 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < 3) {
+            /*
+             * Versions before 3 come from old releases of Sunshine whose schema we don't know how
+             * to migrate. Their data is only a cache for online data, so we start over.
+             */
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        if (oldVersion < 4) {
+            /* Version 4 adds the covering index for the forecast list */
+            createForecastListIndex(sqLiteDatabase);
+        }
+
+        if (oldVersion < 5) {
+            /*
+             * Version 5 adds the history tables, seeded with the forecast we already have. They
+             * are created with the current schema, so step 6 below leaves them alone.
+             */
+            createHistoryTables(sqLiteDatabase);
+            sqLiteDatabase.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME
+                    + " (" + DAY_COLUMNS + ") SELECT " + DAY_COLUMNS
+                    + " FROM " + WeatherEntry.TABLE_NAME);
+        }
+
+        if (oldVersion < 6) {
+            /*
+             * Version 6 adds locations. Every existing row belongs to the user's own location,
+             * which the column default takes care of, but the UNIQUE constraints now cover the
+             * location too and SQLite can't alter a constraint, so the tables are rebuilt. The
+             * old forecast list index goes with the old weather table and is created again.
+             */
+            createLocationTable(sqLiteDatabase);
+
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + WeatherEntry.INDEX_FORECAST_LIST);
+            rebuildTable(sqLiteDatabase, WeatherEntry.TABLE_NAME, DAY_COLUMNS);
+            createForecastListIndex(sqLiteDatabase);
+
+            if (oldVersion == 5) {
+                rebuildTable(sqLiteDatabase, HistoryEntry.TABLE_NAME, DAY_COLUMNS);
+                rebuildTable(sqLiteDatabase, WeeklyHistoryEntry.TABLE_NAME, WEEK_COLUMNS);
+            }
+        }
+    }
+
+    /*
+     * Recreates a table with the current schema, keeping the given columns of its rows. Only
+     * used during upgrades, where it runs inside the upgrade transaction.
+     */
+    private static void rebuildTable(SQLiteDatabase sqLiteDatabase, String table, String columns) {
+        String oldTable = table + "_old";
+        sqLiteDatabase.execSQL("ALTER TABLE " + table + " RENAME TO " + oldTable);
+
+        if (WeatherEntry.TABLE_NAME.equals(table)) {
+            createWeatherTable(sqLiteDatabase);
+        } else {
+            createHistoryTables(sqLiteDatabase);
+        }
+
+        sqLiteDatabase.execSQL("INSERT INTO " + table + " (" + columns + ") SELECT " + columns
+                + " FROM " + oldTable);
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTable);
     }
-}
\ No newline at end of file
+}
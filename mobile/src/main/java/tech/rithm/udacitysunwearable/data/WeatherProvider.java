@@ -17,15 +17,23 @@ package tech.rithm.udacitysunwearable.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 
 import tech.rithm.udacitysunwearable.utilities.SunshineDateUtils;
 
+import java.util.List;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
  * bulkInsert data, query data, and delete data.
@@ -45,6 +53,12 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_RANGE = 102;
+    public static final int CODE_HISTORY = 200;
+    public static final int CODE_HISTORY_WEEKLY = 201;
+    public static final int CODE_LOCATION = 300;
+    public static final int CODE_LOCATION_WITH_ID = 301;
+    public static final int CODE_WEATHER_FOR_LOCATION = 302;
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -52,8 +66,138 @@ public class WeatherProvider extends ContentProvider {
      * common convention in Android programming.
      */
     private static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    /*
+     * The columns of a ForecastBatch, in the order they are bound in SQL_UPSERT_WEATHER and read
+     * back when we compare stored rows with a new batch.
+     */
+    private static final String[] BATCH_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    /*
+     * Insert one day of one location into the weather table and the daily history, replacing any
+     * row with the same location and date. Compiled once per transaction and bound with
+     * primitives for every row; the location id is the first argument, see bindAndInsert.
+     */
+    private static final String SQL_UPSERT_WEATHER =
+            buildUpsertSql(WeatherContract.WeatherEntry.TABLE_NAME);
+    private static final String SQL_UPSERT_HISTORY =
+            buildUpsertSql(WeatherContract.HistoryEntry.TABLE_NAME);
+
+    /*
+     * Folds the daily history before a cutoff into weekly rows, per location. Weeks that already
+     * have a weekly row (for instance because old days were imported after a compaction) are
+     * merged with it, weighting the averages by the number of days on each side. The condition
+     * of the week is the most severe one, see WeeklyHistoryEntry#getSqlSeverityScore. Both ? are
+     * the cutoff date.
+     */
+    private static final String SQL_COMPACT_HISTORY;
+
+    static {
+        String history = WeatherContract.HistoryEntry.TABLE_NAME;
+        String date = WeatherContract.WeatherEntry.COLUMN_DATE;
+        String location = WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
+        String weatherId = WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+        String minTemp = WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+        String maxTemp = WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+        String humidity = WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+        String pressure = WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+        String wind = WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+
+        String weekly = WeatherContract.WeeklyHistoryEntry.TABLE_NAME;
+        String weeklyLocation = WeatherContract.WeeklyHistoryEntry.COLUMN_LOCATION_ID;
+        String weekStart = WeatherContract.WeeklyHistoryEntry.COLUMN_WEEK_START;
+        String dayCount = WeatherContract.WeeklyHistoryEntry.COLUMN_DAY_COUNT;
+        String weeklyMinTemp = WeatherContract.WeeklyHistoryEntry.COLUMN_MIN_TEMP;
+        String weeklyMaxTemp = WeatherContract.WeeklyHistoryEntry.COLUMN_MAX_TEMP;
+        String avgMinTemp = WeatherContract.WeeklyHistoryEntry.COLUMN_AVG_MIN_TEMP;
+        String avgMaxTemp = WeatherContract.WeeklyHistoryEntry.COLUMN_AVG_MAX_TEMP;
+        String weeklyHumidity = WeatherContract.WeeklyHistoryEntry.COLUMN_HUMIDITY;
+        String weeklyPressure = WeatherContract.WeeklyHistoryEntry.COLUMN_PRESSURE;
+        String weeklyWind = WeatherContract.WeeklyHistoryEntry.COLUMN_WIND_SPEED;
+        String weeklyWeatherId = WeatherContract.WeeklyHistoryEntry.COLUMN_WEATHER_ID;
+
+        String week = WeatherContract.WeeklyHistoryEntry.getSqlWeekStart(date);
+
+        SQL_COMPACT_HISTORY = "INSERT OR REPLACE INTO " + weekly + " ("
+                + weeklyLocation + ", "
+                + weekStart + ", "
+                + dayCount + ", "
+                + weeklyMinTemp + ", "
+                + weeklyMaxTemp + ", "
+                + avgMinTemp + ", "
+                + avgMaxTemp + ", "
+                + weeklyHumidity + ", "
+                + weeklyPressure + ", "
+                + weeklyWind + ", "
+                + weeklyWeatherId + ")"
+                + " SELECT loc, ws, SUM(n), MIN(mn), MAX(mx),"
+                + " SUM(amn * n) / SUM(n), SUM(amx * n) / SUM(n),"
+                + " SUM(h * n) / SUM(n), SUM(p * n) / SUM(n), SUM(w * n) / SUM(n),"
+                + " MAX(sev) % " + WeatherContract.WeeklyHistoryEntry.SEVERITY_SCALE
+                + " FROM ("
+                + "SELECT " + location + " AS loc, " + week + " AS ws, COUNT(*) AS n,"
+                + " MIN(" + minTemp + ") AS mn, MAX(" + maxTemp + ") AS mx,"
+                + " AVG(" + minTemp + ") AS amn, AVG(" + maxTemp + ") AS amx,"
+                + " AVG(" + humidity + ") AS h, AVG(" + pressure + ") AS p,"
+                + " AVG(" + wind + ") AS w,"
+                + " MAX(" + WeatherContract.WeeklyHistoryEntry.getSqlSeverityScore(weatherId)
+                + ") AS sev"
+                + " FROM " + history + " WHERE " + date + " < ? GROUP BY loc, ws"
+                + " UNION ALL "
+                + "SELECT " + weeklyLocation + ", " + weekStart + ", " + dayCount + ", "
+                + weeklyMinTemp + ", " + weeklyMaxTemp + ", " + avgMinTemp + ", "
+                + avgMaxTemp + ", " + weeklyHumidity + ", " + weeklyPressure + ", "
+                + weeklyWind + ", "
+                + WeatherContract.WeeklyHistoryEntry.getSqlSeverityScore(weeklyWeatherId)
+                + " FROM " + weekly + " AS wk WHERE EXISTS"
+                + " (SELECT 1 FROM " + history + " WHERE " + location + " = wk." + weeklyLocation
+                + " AND " + date + " < ? AND " + week + " = wk." + weekStart + ")"
+                + ") GROUP BY loc, ws";
+    }
+
     private WeatherDbHelper mOpenHelper;
 
+    public WeatherProvider() {
+    }
+
+    /**
+     * Creates a provider on a database opened with the given helper, for benchmarks comparing
+     * connection settings. onCreate keeps it rather than creating the default one.
+     */
+    @VisibleForTesting
+    WeatherProvider(WeatherDbHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    private static String buildUpsertSql(String table) {
+        return "INSERT OR REPLACE INTO " + table
+                + " (" + WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + ", "
+                + TextUtils.join(", ", BATCH_COLUMNS) + ")"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    }
+
+    /*
+     * Restricts a selection to the rows of one location. The id is always a number we parsed
+     * ourselves, so it is safe to put it in the SQL directly.
+     */
+    private static String selectLocation(long locationId, String selection) {
+        String locationSelection =
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = " + locationId;
+        if (selection == null) {
+            return locationSelection;
+        }
+        return locationSelection + " AND (" + selection + ")";
+    }
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +240,29 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /*
+         * This URI would look something like
+         * content://com.example.android.sunshine/weather/from/1472169600000/to/1472774400000
+         * and returns the code for a bounded window of days, CODE_WEATHER_RANGE
+         */
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/"
+                + WeatherContract.PATH_FROM + "/#/"
+                + WeatherContract.PATH_TO + "/#", CODE_WEATHER_RANGE);
+
+        /* These URIs are content://com.example.android.sunshine/history/ and .../history/weekly/ */
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, CODE_HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/"
+                + WeatherContract.PATH_WEEKLY, CODE_HISTORY_WEEKLY);
+
+        /*
+         * These URIs are content://com.example.android.sunshine/location/, .../location/3 and
+         * .../location/3/weather/, the weather of a single location
+         */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#/"
+                + WeatherContract.PATH_WEATHER, CODE_WEATHER_FOR_LOCATION);
+
         return matcher;
     }
 
@@ -121,7 +288,9 @@ public class WeatherProvider extends ContentProvider {
          * lengthy operations will cause lag in your app. Since WeatherDbHelper's constructor is
          * very lightweight, we are safe to perform that initialization here.
          */
-        mOpenHelper = new WeatherDbHelper(getContext());
+        if (mOpenHelper == null) {
+            mOpenHelper = new WeatherDbHelper(getContext());
+        }
         return true;
     }
 
@@ -131,6 +300,9 @@ public class WeatherProvider extends ContentProvider {
      * for inserting a single row of data into our ContentProvider, and so we are only going to
      * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
      * to provide proper functionality for the insert method as well.
+     * <p>
+     * Like {@link WeatherContract#METHOD_INSERT_BATCH}, every day inserted also goes into the
+     * daily history, so days reach the history whichever way they were inserted.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -159,6 +331,8 @@ public class WeatherProvider extends ContentProvider {
                         if (_id != -1) {
                             rowsInserted++;
                         }
+                        db.insertWithOnConflict(WeatherContract.HistoryEntry.TABLE_NAME, null,
+                                value, SQLiteDatabase.CONFLICT_REPLACE);
                     }
                     db.setTransactionSuccessful();
                 } finally {
@@ -176,6 +350,282 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /**
+     * Handles provider specific methods. Sunshine uses these to write a whole
+     * {@link ForecastBatch} at once, see {@link WeatherContract#METHOD_REPLACE_FORECAST} and
+     * {@link WeatherContract#METHOD_INSERT_BATCH}.
+     *
+     * @param method The method name to call
+     * @param arg    The location id for the batch methods, the cutoff date for compaction
+     * @param extras Arguments of the method
+     * @return The result of the method
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        int rowsChanged;
+        long locationId = WeatherContract.LocationEntry.PRIMARY_LOCATION_ID;
+        Bundle result = new Bundle();
+
+        switch (method) {
+            case WeatherContract.METHOD_REPLACE_FORECAST:
+                locationId = parseLocationId(arg);
+                rowsChanged = replaceForecast(locationId, requireBatch(extras), result);
+                break;
+
+            case WeatherContract.METHOD_INSERT_BATCH:
+                locationId = parseLocationId(arg);
+                rowsChanged = insertBatch(locationId, requireBatch(extras));
+                break;
+
+            case WeatherContract.METHOD_COMPACT_HISTORY: {
+                long cutoff = Long.parseLong(arg);
+                if (WeatherContract.WeeklyHistoryEntry.getWeekStart(cutoff) != cutoff) {
+                    throw new IllegalArgumentException("Cutoff must be the start of a week");
+                }
+                rowsChanged = compactHistory(cutoff);
+                if (rowsChanged > 0) {
+                    getContext().getContentResolver()
+                            .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+                }
+                result.putInt(WeatherContract.EXTRA_ROWS_CHANGED, rowsChanged);
+                return result;
+            }
+
+            default:
+                return super.call(method, arg, extras);
+        }
+
+        if (rowsChanged > 0) {
+            getContext().getContentResolver()
+                    .notifyChange(getWeatherUri(locationId), null);
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.HistoryEntry.CONTENT_URI, null);
+        }
+
+        result.putInt(WeatherContract.EXTRA_ROWS_CHANGED, rowsChanged);
+        return result;
+    }
+
+    private static long parseLocationId(String arg) {
+        if (arg == null) {
+            return WeatherContract.LocationEntry.PRIMARY_LOCATION_ID;
+        }
+        return Long.parseLong(arg);
+    }
+
+    /* Observers of the user's own location watch CONTENT_URI, the others their location's URI */
+    private static Uri getWeatherUri(long locationId) {
+        if (locationId == WeatherContract.LocationEntry.PRIMARY_LOCATION_ID) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        return WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationId);
+    }
+
+    private static ForecastBatch requireBatch(Bundle extras) {
+        ForecastBatch batch = ForecastBatch.fromBundle(extras);
+        if (batch == null) {
+            throw new IllegalArgumentException("A ForecastBatch is required");
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (!SunshineDateUtils.isDateNormalized(batch.getDate(i))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Inserts every day of the batch in one transaction, using a single compiled statement whose
+     * arguments are bound straight from the batch's primitive arrays. Compared to
+     * {@link #bulkInsert}, no SQL is rebuilt and no ContentValues are read per row.
+     *
+     * @param locationId The location the days belong to
+     * @param batch      The days to insert
+     * @return The number of rows inserted
+     */
+    private int insertBatch(long locationId, ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        SQLiteStatement upsert = db.compileStatement(SQL_UPSERT_WEATHER);
+        SQLiteStatement upsertHistory = db.compileStatement(SQL_UPSERT_HISTORY);
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                if (bindAndInsert(upsert, locationId, batch, i) != -1) {
+                    rowsInserted++;
+                }
+                bindAndInsert(upsertHistory, locationId, batch, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            upsertHistory.close();
+            db.endTransaction();
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Makes the weather of one location match the given forecast within one transaction. Rows
+     * are only written for days that are new or whose values changed, and rows for days that
+     * are no longer part of the forecast (days that have passed, or days left over from a
+     * previous location setting) are removed. Other locations are left untouched. The caller
+     * notifies observers only if something changed, so loaders don't reload when a sync brought
+     * nothing new.
+     *
+     * @param locationId The location the forecast belongs to
+     * @param batch      The new forecast, sorted by date
+     * @param result     Receives how much the forecast moved, see
+     *                   {@link WeatherContract#EXTRA_MAX_TEMP_DELTA}
+     * @return The number of rows that were inserted, updated or deleted
+     * @throws OperationCanceledException If the calling thread is interrupted, in which case
+     *                                    nothing is written
+     */
+    private int replaceForecast(long locationId, ForecastBatch batch, Bundle result) {
+        if (batch.size() == 0) {
+            return 0;
+        }
+
+        String[] bounds = new String[]{
+                Long.toString(batch.getDate(0)),
+                Long.toString(batch.getDate(batch.size() - 1))};
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsChanged = 0;
+
+        db.beginTransaction();
+        SQLiteStatement upsert = db.compileStatement(SQL_UPSERT_WEATHER);
+        SQLiteStatement upsertHistory = db.compileStatement(SQL_UPSERT_HISTORY);
+        try {
+            /* Snapshot what we currently have for the days covered by the new forecast */
+            ForecastBatch existing = new ForecastBatch(batch.size());
+            Cursor cursor = db.query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    BATCH_COLUMNS,
+                    selectLocation(locationId,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?"),
+                    bounds,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                while (cursor.moveToNext()) {
+                    existing.add(
+                            cursor.getLong(0),
+                            cursor.getInt(1),
+                            cursor.getDouble(2),
+                            cursor.getDouble(3),
+                            cursor.getDouble(4),
+                            cursor.getDouble(5),
+                            cursor.getDouble(6),
+                            cursor.getDouble(7));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            double maxTempDelta = 0;
+            int conditionChanges = 0;
+
+            for (int i = 0; i < batch.size(); i++) {
+                throwIfInterrupted();
+                int current = existing.indexOfDate(batch.getDate(i));
+                if (current >= 0) {
+                    if (existing.sameValues(current, batch, i)) {
+                        continue;
+                    }
+                    maxTempDelta = Math.max(maxTempDelta, Math.max(
+                            Math.abs(batch.getMinTemp(i) - existing.getMinTemp(current)),
+                            Math.abs(batch.getMaxTemp(i) - existing.getMaxTemp(current))));
+                    if (batch.getWeatherId(i) / 100 != existing.getWeatherId(current) / 100) {
+                        conditionChanges++;
+                    }
+                }
+                if (bindAndInsert(upsert, locationId, batch, i) != -1) {
+                    rowsChanged++;
+                }
+                /* Keep the history in step, so each day retains the last forecast we had */
+                bindAndInsert(upsertHistory, locationId, batch, i);
+            }
+
+            /* Days that have passed leave the forecast, but live on in the history */
+            rowsChanged += db.delete(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    selectLocation(locationId,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " < ? OR "
+                                    + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?"),
+                    bounds);
+
+            result.putDouble(WeatherContract.EXTRA_MAX_TEMP_DELTA, maxTempDelta);
+            result.putInt(WeatherContract.EXTRA_CONDITION_CHANGES, conditionChanges);
+
+            /* Last chance to back out, once committed the new forecast is here to stay */
+            throwIfInterrupted();
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            upsertHistory.close();
+            db.endTransaction();
+        }
+
+        return rowsChanged;
+    }
+
+    /*
+     * A sync that is stopped interrupts the thread storing its forecast. Our callers are in our
+     * own process, so the call runs on their thread and sees the interrupt. Throwing from
+     * within the transaction rolls it back.
+     */
+    private static void throwIfInterrupted() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Folds every day of the daily history before the cutoff into weekly aggregates and removes
+     * those days from the daily history, in one transaction. This keeps the size of the history
+     * bounded: older weather costs one row per week instead of seven.
+     *
+     * @param cutoff Normalized date starting a week; days before it are compacted
+     * @return The number of days removed from the daily history
+     */
+    private int compactHistory(long cutoff) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        String cutoffArg = Long.toString(cutoff);
+        int daysCompacted;
+
+        db.beginTransaction();
+        try {
+            db.execSQL(SQL_COMPACT_HISTORY, new Object[]{cutoffArg, cutoffArg});
+            daysCompacted = db.delete(
+                    WeatherContract.HistoryEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                    new String[]{cutoffArg});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        return daysCompacted;
+    }
+
+    private static long bindAndInsert(SQLiteStatement upsert, long locationId,
+                                      ForecastBatch batch, int i) {
+        upsert.bindLong(1, locationId);
+        upsert.bindLong(2, batch.getDate(i));
+        upsert.bindLong(3, batch.getWeatherId(i));
+        upsert.bindDouble(4, batch.getMinTemp(i));
+        upsert.bindDouble(5, batch.getMaxTemp(i));
+        upsert.bindDouble(6, batch.getHumidity(i));
+        upsert.bindDouble(7, batch.getPressure(i));
+        upsert.bindDouble(8, batch.getWindSpeed(i));
+        upsert.bindDouble(9, batch.getDegrees(i));
+        return upsert.executeInsert();
+    }
+
     /**
      * Handles query requests from clients. We will use this method in Sunshine to query for all
      * of our weather data as well as to query for the weather on a particular day.
@@ -252,7 +702,8 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        selectLocation(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID,
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " = ? "),
                         selectionArguments,
                         null,
                         null,
@@ -261,6 +712,81 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * When sUriMatcher's match method is called with a URI that looks something like this
+             *
+             *      content://com.example.android.sunshine/weather/from/1472169600000/to/1472774400000
+             *
+             * we return the weather for every day in that window, both ends included. The date
+             * range is answered from the covering index on date, so only the rows of the window
+             * are visited no matter how many days are stored. Any selection passed in is applied
+             * on top of the range.
+             */
+            case CODE_WEATHER_RANGE: {
+                List<String> segments = uri.getPathSegments();
+                String fromDate = segments.get(2);
+                String toDate = segments.get(4);
+
+                String rangeSelection = WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?";
+                String[] rangeArgs;
+                if (selection != null) {
+                    rangeSelection = rangeSelection + " AND (" + selection + ")";
+                    int extraArgs = selectionArgs != null ? selectionArgs.length : 0;
+                    rangeArgs = new String[2 + extraArgs];
+                    if (extraArgs > 0) {
+                        System.arraycopy(selectionArgs, 0, rangeArgs, 2, extraArgs);
+                    }
+                } else {
+                    rangeArgs = new String[2];
+                }
+                rangeArgs[0] = fromDate;
+                rangeArgs[1] = toDate;
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        selectLocation(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID,
+                                rangeSelection),
+                        rangeArgs,
+                        null,
+                        null,
+                        sortOrder != null
+                                ? sortOrder
+                                : WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+                break;
+            }
+
+            /*
+             * content://com.example.android.sunshine/history/ returns the daily history, and
+             * content://com.example.android.sunshine/history/weekly/ the weekly aggregates.
+             */
+            case CODE_HISTORY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            case CODE_HISTORY_WEEKLY: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeeklyHistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
             /*
              * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
              *
@@ -271,11 +797,45 @@ public class WeatherProvider extends ContentProvider {
              *
              * In this case, we want to return a cursor that contains every row of weather data
              * in our weather table.
+             *
+             * Now that there are several locations, that means every row of the user's own one.
+             * The weather of the other locations is found at
+             * content://com.example.android.sunshine/location/3/weather/.
              */
             case CODE_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
+                        selectLocation(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID,
+                                selection),
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder);
+
+                break;
+            }
+
+            case CODE_WEATHER_FOR_LOCATION: {
+                long locationId = Long.parseLong(uri.getPathSegments().get(1));
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        selectLocation(locationId, selection),
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder != null
+                                ? sortOrder
+                                : WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+                break;
+            }
+
+            case CODE_LOCATION: {
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        projection,
                         selection,
                         selectionArgs,
                         null,
@@ -321,11 +881,44 @@ public class WeatherProvider extends ContentProvider {
             case CODE_WEATHER:
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
                         WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
+                        selectLocation(WeatherContract.LocationEntry.PRIMARY_LOCATION_ID,
+                                selection),
                         selectionArgs);
 
                 break;
 
+            /*
+             * Removing a location also removes its forecast. Its history is kept, like the
+             * history of days that have passed.
+             */
+            case CODE_LOCATION_WITH_ID: {
+                long locationId = ContentUris.parseId(uri);
+                final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+                db.beginTransaction();
+                try {
+                    numRowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME,
+                            WeatherContract.LocationEntry._ID + " = " + locationId,
+                            null);
+                    db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            selectLocation(locationId, null),
+                            null);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (numRowsDeleted != 0) {
+                    getContext().getContentResolver().notifyChange(
+                            WeatherContract.WeatherEntry.buildWeatherUriForLocation(locationId),
+                            null);
+                }
+
+                break;
+            }
+
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -354,20 +947,32 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Adds a location to sync. Weather itself is never inserted one row at a time, see
+     * {@link WeatherProvider#bulkInsert} and {@link #call} for that.
      *
      * @param uri    The URI of the insertion request. This must not be null.
      * @param values A set of column_name/value pairs to add to the database.
      *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @return The URI of the new location
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        switch (sUriMatcher.match(uri)) {
+
+            case CODE_LOCATION: {
+                long _id = mOpenHelper.getWritableDatabase()
+                        .insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                if (_id == -1) {
+                    return null;
+                }
+                getContext().getContentResolver().notifyChange(uri, null);
+                return WeatherContract.LocationEntry.buildLocationUri(_id);
+            }
+
+            default:
+                throw new RuntimeException(
+                        "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        }
     }
 
     @Override
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how often Sunshine syncs, based on how much the forecast has been changing.
+ * <p>
+ * The interval starts at the base interval. When a sync finds a large change (a temperature
+ * moving by several degrees, or a day switching to a different kind of weather), the interval is
+ * halved, down to the minimum, since more changes are likely to follow. A small change brings it
+ * back to the base interval. When the forecast comes back identical, or the sync fails, the
+ * interval doubles, up to the maximum.
+ * <p>
+ * On top of that, at most {@link Config#dailySyncBudget} scheduled syncs run per day, to bound the
+ * radio and battery time spent on weather. The syncs left in the day are spread over the rest of
+ * it, so a volatile morning can't use up the budget and leave the evening without updates. Syncs
+ * the user asks for aren't limited.
+ * <p>
+ * Times are passed in by the caller, in milliseconds, so the policy can be driven by a simulated
+ * clock. It isn't thread safe; Sunshine only uses it from within a sync.
+ */
+public final class AdaptiveSyncPolicy {
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Tuning of an {@link AdaptiveSyncPolicy}. */
+    public static final class Config {
+        final long baseIntervalMillis;
+        final long minIntervalMillis;
+        final long maxIntervalMillis;
+        final int dailySyncBudget;
+        final double volatileTempDelta;
+
+        /**
+         * @param baseInterval      Interval used while the forecast changes a little
+         * @param minInterval       Shortest interval, used while it changes a lot
+         * @param maxInterval       Longest interval, reached while it doesn't change
+         * @param unit              Unit of the three intervals
+         * @param dailySyncBudget   Most scheduled syncs to run in a day
+         * @param volatileTempDelta Change of a day's min or max, in °C, considered large
+         */
+        public Config(long baseInterval, long minInterval, long maxInterval, TimeUnit unit,
+                      int dailySyncBudget, double volatileTempDelta) {
+            this.baseIntervalMillis = unit.toMillis(baseInterval);
+            this.minIntervalMillis = unit.toMillis(minInterval);
+            this.maxIntervalMillis = unit.toMillis(maxInterval);
+            this.dailySyncBudget = dailySyncBudget;
+            this.volatileTempDelta = volatileTempDelta;
+        }
+    }
+
+    private final Config mConfig;
+
+    private long mIntervalMillis;
+
+    /* Start of the current budget day and the scheduled syncs run in it */
+    private long mBudgetDayStart;
+    private int mSyncsToday;
+
+    /* Metrics, counted since mTrackingSince */
+    private long mTrackingSince;
+    private long mSyncsRun;
+    private long mSyncsUnchanged;
+    private long mSyncsSkipped;
+    private long mLastFreshSync;
+
+    public AdaptiveSyncPolicy(Config config, long now) {
+        mConfig = config;
+        mIntervalMillis = config.baseIntervalMillis;
+        mBudgetDayStart = now;
+        mTrackingSince = now;
+    }
+
+    /**
+     * Restores the state saved from {@link #getIntervalMillis()} and the other getters.
+     */
+    public void restore(long intervalMillis, long budgetDayStart, int syncsToday,
+                        long trackingSince, long syncsRun, long syncsUnchanged, long syncsSkipped,
+                        long lastFreshSync) {
+        mIntervalMillis = clampInterval(intervalMillis);
+        mBudgetDayStart = budgetDayStart;
+        mSyncsToday = syncsToday;
+        mTrackingSince = trackingSince;
+        mSyncsRun = syncsRun;
+        mSyncsUnchanged = syncsUnchanged;
+        mSyncsSkipped = syncsSkipped;
+        mLastFreshSync = lastFreshSync;
+    }
+
+    /**
+     * Called when a scheduled sync is due. Returns false if today's budget is spent, in which
+     * case the sync should be skipped.
+     */
+    public boolean onScheduledSync(long now) {
+        if (now - mBudgetDayStart >= DAY_IN_MILLIS) {
+            mBudgetDayStart = now;
+            mSyncsToday = 0;
+        }
+        if (mSyncsToday >= mConfig.dailySyncBudget) {
+            mSyncsSkipped++;
+            return false;
+        }
+        mSyncsToday++;
+        return true;
+    }
+
+    /**
+     * Called after a sync that stored a new forecast.
+     *
+     * @param now               Current time
+     * @param maxTempDelta      Largest change of a day's min or max temperature, in °C
+     * @param conditionChanges  Number of days whose kind of weather changed
+     */
+    public void onSyncChanged(long now, double maxTempDelta, int conditionChanges) {
+        mSyncsRun++;
+        mLastFreshSync = now;
+        if (maxTempDelta >= mConfig.volatileTempDelta || conditionChanges > 0) {
+            mIntervalMillis = clampInterval(mIntervalMillis / 2);
+        } else {
+            mIntervalMillis = mConfig.baseIntervalMillis;
+        }
+    }
+
+    /**
+     * Called after a sync that found the forecast unchanged, including a 304 Not Modified.
+     */
+    public void onSyncUnchanged(long now) {
+        mSyncsRun++;
+        mSyncsUnchanged++;
+        mLastFreshSync = now;
+        backOff();
+    }
+
+    /**
+     * Called after a sync that failed.
+     */
+    public void onSyncFailed(long now) {
+        mSyncsRun++;
+        backOff();
+    }
+
+    private void backOff() {
+        mIntervalMillis = clampInterval(mIntervalMillis * 2);
+    }
+
+    private long clampInterval(long intervalMillis) {
+        return Math.max(mConfig.minIntervalMillis,
+                Math.min(mConfig.maxIntervalMillis, intervalMillis));
+    }
+
+    /**
+     * Returns how long to wait before the next scheduled sync. This is the current interval,
+     * stretched if needed so the syncs left in today's budget last until the end of the day.
+     * When the budget is spent, it's the time until the next budget day.
+     */
+    public long getNextSyncDelayMillis(long now) {
+        long untilNextDay = Math.max(0, mBudgetDayStart + DAY_IN_MILLIS - now);
+        int syncsLeft = mConfig.dailySyncBudget - mSyncsToday;
+        if (syncsLeft <= 0) {
+            return Math.max(mIntervalMillis, untilNextDay);
+        }
+        return Math.max(mIntervalMillis, untilNextDay / syncsLeft);
+    }
+
+    public long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    public long getBudgetDayStart() {
+        return mBudgetDayStart;
+    }
+
+    public int getSyncsToday() {
+        return mSyncsToday;
+    }
+
+    public long getTrackingSince() {
+        return mTrackingSince;
+    }
+
+    /** Number of syncs that ran, whatever their outcome. */
+    public long getSyncsRun() {
+        return mSyncsRun;
+    }
+
+    /** Number of syncs that ran but brought nothing new. */
+    public long getSyncsUnchanged() {
+        return mSyncsUnchanged;
+    }
+
+    /** Number of scheduled syncs that were skipped because the budget was spent. */
+    public long getSyncsSkipped() {
+        return mSyncsSkipped;
+    }
+
+    /**
+     * Returns how many fewer syncs ran than a fixed schedule at the base interval would have
+     * run since tracking started.
+     */
+    public long getSyncsAvoided(long now) {
+        long fixedScheduleSyncs = (now - mTrackingSince) / mConfig.baseIntervalMillis;
+        return Math.max(0, fixedScheduleSyncs - mSyncsRun);
+    }
+
+    /** Time of the last sync that confirmed we have the server's latest forecast, 0 if none. */
+    public long getLastFreshSync() {
+        return mLastFreshSync;
+    }
+
+    /**
+     * Returns how old our knowledge of the forecast is: the time since a sync last confirmed we
+     * have the server's latest data.
+     */
+    public long getDataAgeMillis(long now) {
+        return mLastFreshSync == 0 ? now - mTrackingSince : now - mLastFreshSync;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges concurrent requests for the same piece of work into a single execution, and hands every
+ * caller the result of that one execution.
+ * <p>
+ * The first caller becomes the leader of a new flight. It waits for the debounce delay, during
+ * which every other caller joins the same flight, and then runs the work. Callers arriving while
+ * a flight is running join the next flight instead, because the running one may have started
+ * before whatever prompted their request. Only one flight runs at a time.
+ * <p>
+ * A request also carries the time it was made (see {@link #now()}). A request that was queued
+ * somewhere, for instance in an IntentService, is satisfied by any flight that started after it
+ * was made, so it doesn't cause another run.
+ *
+ * @param <T> The type of the result of the work
+ */
+public final class SingleFlight<T> {
+
+    private final long mDebounceNanos;
+
+    /* Guards mPending and mLastFlight */
+    private final Object mLock = new Object();
+
+    /* Held while a flight runs, so flights never overlap */
+    private final Object mRunLock = new Object();
+
+    /* The flight that is gathering callers and hasn't started yet, if any */
+    private Flight<T> mPending;
+
+    /* The flight that started most recently */
+    private Flight<T> mLastFlight;
+
+    /**
+     * @param debounce How long the leader of a flight waits for other callers before running
+     * @param unit     The unit of debounce
+     */
+    public SingleFlight(long debounce, TimeUnit unit) {
+        mDebounceNanos = unit.toNanos(debounce);
+    }
+
+    /**
+     * Returns the current time on the clock used to order requests and flights.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Requests the work now, see {@link #run(long, Callable)}.
+     */
+    public T run(Callable<T> work) throws InterruptedException, ExecutionException {
+        return run(now(), work);
+    }
+
+    /**
+     * Runs the work, or joins a flight that covers this request, and waits for its result.
+     *
+     * @param requestedAt When the request was made, as returned by {@link #now()}
+     * @param work        The work to run if this caller leads a new flight
+     * @return The result of the flight this request was served by
+     * @throws InterruptedException If the calling thread was interrupted while waiting
+     * @throws ExecutionException   If the work of the flight threw
+     */
+    public T run(long requestedAt, Callable<T> work)
+            throws InterruptedException, ExecutionException {
+
+        Flight<T> flight;
+        boolean leader = false;
+
+        synchronized (mLock) {
+            if (mLastFlight != null && mLastFlight.mStartedAt - requestedAt >= 0) {
+                /* A flight started after this request was made, so its result covers it */
+                flight = mLastFlight;
+            } else if (mPending != null) {
+                flight = mPending;
+            } else {
+                flight = new Flight<>();
+                mPending = flight;
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            lead(flight, work);
+        }
+
+        return flight.await();
+    }
+
+    private void lead(Flight<T> flight, Callable<T> work) {
+        /*
+         * The flight must run even if we are interrupted while debouncing, or the callers that
+         * joined it would wait forever. We just cut the delay short and restore the interrupt.
+         */
+        boolean interrupted = false;
+        if (mDebounceNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(mDebounceNanos);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        synchronized (mRunLock) {
+            /* From here on, new callers gather for the next flight */
+            synchronized (mLock) {
+                mPending = null;
+                flight.mStartedAt = now();
+                mLastFlight = flight;
+            }
+            flight.execute(work);
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Flight<T> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private long mStartedAt;
+        private T mResult;
+        private Throwable mError;
+
+        void execute(Callable<T> work) {
+            try {
+                mResult = work.call();
+            } catch (Throwable t) {
+                mError = t;
+            } finally {
+                mDone.countDown();
+            }
+        }
+
+        T await() throws InterruptedException, ExecutionException {
+            mDone.await();
+            if (mError != null) {
+                throw new ExecutionException(mError);
+            }
+            return mResult;
+        }
+    }
+}
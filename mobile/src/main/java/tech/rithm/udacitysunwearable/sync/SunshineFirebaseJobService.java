@@ -16,17 +16,36 @@
 package tech.rithm.udacitysunwearable.sync;
 
 import android.content.Context;
-import android.os.AsyncTask;
+
+import tech.rithm.udacitysunwearable.utilities.CancellationToken;
 
 import com.firebase.jobdispatcher.Job;
 import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.JobService;
 import com.firebase.jobdispatcher.RetryStrategy;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 
 public class SunshineFirebaseJobService extends JobService {
 
-    private AsyncTask<Void, Void, Void> mFetchWeatherTask;
+    /*
+     * A running sync job, so that onStopJob can cancel it. The future is only set and used on
+     * the main thread.
+     */
+    private static final class RunningSync {
+        final CancellationToken mCancellation = new CancellationToken();
+        Future<?> mFuture;
+    }
+
+    /*
+     * The running jobs by tag. The regular sync and its retry are separate jobs that can run at
+     * the same time, and the dispatcher stops them one by one. Guarded by itself, since the jobs
+     * remove themselves from their thread.
+     */
+    private final Map<String, RunningSync> mRunningSyncs = new HashMap<>();
 
     /**
      * The entry point to your Job. Implementations should offload work to another thread of
@@ -34,29 +53,56 @@ public class SunshineFirebaseJobService extends JobService {
      *
      * This is called by the Job Dispatcher to tell us we should start our job. Keep in mind this
      * method is run on the application's main thread, so we need to offload work to a background
-     * thread.
+     * thread. We use the dedicated sync executor rather than an AsyncTask, whose executor is
+     * shared with the rest of the app.
      *
      * @return whether there is more work remaining.
      */
     @Override
     public boolean onStartJob(final JobParameters jobParameters) {
 
-        mFetchWeatherTask = new AsyncTask<Void, Void, Void>(){
-            @Override
-            protected Void doInBackground(Void... voids) {
-                Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
-                jobFinished(jobParameters, false);
-                return null;
-            }
+        final RunningSync running = new RunningSync();
+        final CancellationToken cancel = running.mCancellation;
+        final Context context = getApplicationContext();
+        final String tag = jobParameters.getTag();
 
+        synchronized (mRunningSyncs) {
+            mRunningSyncs.put(tag, running);
+        }
+        Future<?> future = SyncExecutor.getJobExecutor().submit(new Runnable() {
             @Override
-            protected void onPostExecute(Void aVoid) {
-                jobFinished(jobParameters, false);
+            public void run() {
+                try {
+                    /*
+                     * Skip the sync if today's sync budget is spent, see AdaptiveSyncPolicy. A
+                     * retry of a failed sync doesn't count, the failed sync already did.
+                     */
+                    if (SunshineSyncUtils.isRetryJob(jobParameters)
+                            || SunshineSyncUtils.acquireScheduledSync(context)) {
+                        SunshineSyncTask.syncWeather(context, SingleFlight.now(), cancel);
+                    }
+                } finally {
+                    synchronized (mRunningSyncs) {
+                        if (mRunningSyncs.get(tag) == running) {
+                            mRunningSyncs.remove(tag);
+                        }
+                    }
+                    if (cancel.isCanceled()) {
+                        /* The dispatcher already knows, onStopJob told it to run us again */
+                        SyncExecutor.getJobExecutor().recordStopLatency(
+                                System.nanoTime() - cancel.getCanceledAtNanos());
+                    } else {
+                        /*
+                         * The job is finished exactly once, here. We never ask the dispatcher to
+                         * reschedule it: a failed sync has already scheduled its own retry, with
+                         * jitter and a circuit breaker, see SyncRetryPolicy.
+                         */
+                        jobFinished(jobParameters, false);
+                    }
+                }
             }
-        };
-
-        mFetchWeatherTask.execute();
+        });
+        running.mFuture = future;
         return true;
     }
 
@@ -64,15 +110,29 @@ public class SunshineFirebaseJobService extends JobService {
      * Called when the scheduling engine has decided to interrupt the execution of a running job,
      * most likely because the runtime constraints associated with the job are no longer satisfied.
      *
+     * The sync is canceled rather than left to run: its downloads are aborted, and a forecast
+     * being stored is rolled back. This method returns right away, the time the sync then takes
+     * to wind down is recorded by {@link SyncExecutor#recordStopLatency(long)}.
+     *
      * @return whether the job should be retried
      * @see Job.Builder#setRetryStrategy(RetryStrategy)
      * @see RetryStrategy
      */
     @Override
     public boolean onStopJob(JobParameters jobParameters) {
-        if (mFetchWeatherTask != null) {
-            mFetchWeatherTask.cancel(true);
+        RunningSync running;
+        synchronized (mRunningSyncs) {
+            running = mRunningSyncs.remove(jobParameters.getTag());
+        }
+        if (running == null) {
+            /* It finished already */
+            return false;
+        }
+        running.mCancellation.cancel();
+        if (running.mFuture != null) {
+            /* Also wakes the job up if it is only waiting on a sync someone else started */
+            running.mFuture.cancel(true);
         }
         return true;
     }
-}
\ No newline at end of file
+}
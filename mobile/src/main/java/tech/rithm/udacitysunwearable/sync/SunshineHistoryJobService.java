@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import android.content.Context;
+
+import tech.rithm.udacitysunwearable.utilities.CancellationToken;
+
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+/**
+ * Periodically compacts old days of the weather history into weekly aggregates, so the size of
+ * the database stays bounded however long the app has been collecting history.
+ */
+public class SunshineHistoryJobService extends JobService {
+
+    /*
+     * The running compaction, so that onStopJob can cancel it. Guarded by this, since the job
+     * clears it from its thread once it's over.
+     */
+    private CancellationToken mCancellation;
+    private Future<?> mFuture;
+
+    /**
+     * Called by the Job Dispatcher to start compacting. This runs on the application's main
+     * thread, so the work is offloaded to the sync executor, like the sync jobs.
+     *
+     * @return whether there is more work remaining.
+     */
+    @Override
+    public synchronized boolean onStartJob(final JobParameters jobParameters) {
+
+        final CancellationToken cancel = new CancellationToken();
+        final Context context = getApplicationContext();
+
+        mCancellation = cancel;
+        mFuture = SyncExecutor.getJobExecutor().submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SunshineHistoryTask.compactHistory(context, cancel);
+                } catch (CancellationException e) {
+                    /* The steps done so far are kept, the next run does the rest */
+                } finally {
+                    synchronized (SunshineHistoryJobService.this) {
+                        if (mCancellation == cancel) {
+                            mCancellation = null;
+                            mFuture = null;
+                        }
+                    }
+                    if (cancel.isCanceled()) {
+                        /* The dispatcher already knows, onStopJob told it to run us again */
+                        SyncExecutor.getJobExecutor().recordStopLatency(
+                                System.nanoTime() - cancel.getCanceledAtNanos());
+                    } else {
+                        jobFinished(jobParameters, false);
+                    }
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Compaction goes a year of history per transaction. Stopping it lets the year at hand
+     * finish and skips the rest, which the next run does. We simply ask to be run again.
+     *
+     * @return whether the job should be retried
+     */
+    @Override
+    public synchronized boolean onStopJob(JobParameters jobParameters) {
+        if (mCancellation == null) {
+            /* It finished already */
+            return false;
+        }
+        mCancellation.cancel();
+        mFuture.cancel(true);
+        mCancellation = null;
+        mFuture = null;
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import tech.rithm.udacitysunwearable.data.WeatherContract;
+import tech.rithm.udacitysunwearable.utilities.CancellationToken;
+import tech.rithm.udacitysunwearable.utilities.SunshineDateUtils;
+
+public class SunshineHistoryTask {
+
+    /*
+     * Number of days of daily history to keep. Days older than this are folded into weekly
+     * aggregates, so the history grows by about 52 rows a year once it's past this age.
+     */
+    static final int DAILY_HISTORY_RETENTION_DAYS = 365;
+
+    /*
+     * Weeks compacted in each transaction. A transaction can't be stopped once it runs, so the
+     * history is compacted a year at a time, and a canceled job stops after the year at hand.
+     */
+    private static final int WEEKS_PER_STEP = 52;
+
+    private static final long WEEK_IN_MILLIS = 7 * SunshineDateUtils.DAY_IN_MILLIS;
+
+    /**
+     * Compacts every week of the daily history that lies entirely beyond the retention period
+     * into weekly aggregates, oldest first, one step at a time.
+     *
+     * @param context Used to access the ContentResolver
+     * @param cancel  Checked between the steps of the compaction
+     * @return The number of days that were compacted
+     * @throws java.util.concurrent.CancellationException If the compaction was canceled. The
+     *                                                    steps done so far are kept.
+     */
+    synchronized public static int compactHistory(Context context, CancellationToken cancel) {
+        long retentionStart = SunshineDateUtils.getNormalizedUtcDateForToday()
+                - DAILY_HISTORY_RETENTION_DAYS * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Only compact whole weeks, so no week is ever split between the two tables */
+        long cutoff = WeatherContract.WeeklyHistoryEntry.getWeekStart(retentionStart);
+
+        long oldestDate = getOldestDateBefore(context, cutoff);
+        if (oldestDate < 0) {
+            return 0;
+        }
+
+        int daysCompacted = 0;
+        long stepCutoff = WeatherContract.WeeklyHistoryEntry.getWeekStart(oldestDate);
+        do {
+            cancel.throwIfCanceled();
+            stepCutoff = Math.min(stepCutoff + WEEKS_PER_STEP * WEEK_IN_MILLIS, cutoff);
+            daysCompacted += compactBefore(context, stepCutoff);
+        } while (stepCutoff < cutoff);
+
+        return daysCompacted;
+    }
+
+    /* The date of the oldest day of the daily history before the cutoff, or -1 if there's none */
+    private static long getOldestDateBefore(Context context, long cutoff) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                new String[]{Long.toString(cutoff)},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC LIMIT 1");
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static int compactBefore(Context context, long cutoff) {
+        Bundle result = context.getContentResolver().call(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_HISTORY,
+                Long.toString(cutoff),
+                null);
+
+        return result != null ? result.getInt(WeatherContract.EXTRA_ROWS_CHANGED) : 0;
+    }
+}
@@ -30,6 +30,13 @@ public class SunshineSyncIntentService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        /*
+         * Intents are handled one at a time, so a burst of requests queues up here. Each one
+         * carries the time it was made, and any request that a sync has started since is
+         * answered by that sync rather than downloading again.
+         */
+        long requestedAt = intent.getLongExtra(SunshineSyncUtils.EXTRA_REQUESTED_AT,
+                SingleFlight.now());
+        SunshineSyncTask.syncWeather(this, requestedAt);
     }
 }
\ No newline at end of file
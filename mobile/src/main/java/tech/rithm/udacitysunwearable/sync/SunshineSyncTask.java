@@ -16,101 +16,509 @@
 package tech.rithm.udacitysunwearable.sync;
 
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.OperationCanceledException;
+import android.os.Process;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import tech.rithm.udacitysunwearable.data.ForecastBatch;
 import tech.rithm.udacitysunwearable.data.SunshinePreferences;
 import tech.rithm.udacitysunwearable.data.WeatherContract;
+import tech.rithm.udacitysunwearable.utilities.CancellationToken;
 import tech.rithm.udacitysunwearable.utilities.NetworkUtils;
 import tech.rithm.udacitysunwearable.utilities.NotificationUtils;
 import tech.rithm.udacitysunwearable.utilities.OpenWeatherJsonUtils;
+import tech.rithm.udacitysunwearable.utilities.ResponseBuffer;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
+    /*
+     * Upper bound on the number of forecasts downloaded at the same time. A fetch spends nearly
+     * all of its time waiting on the server, so this is sized to let a full roster of field
+     * sites go out in a single wave, which makes a sync take about as long as its slowest
+     * request. The bound only keeps a runaway location table from opening hundreds of
+     * connections at once.
+     */
+    @VisibleForTesting
+    static final int MAX_CONCURRENT_FETCHES = 64;
+
+    /* The downloads of every sync share this pool, whose threads stop when a sync is over */
+    private static final SyncExecutor sFetchExecutor = new SyncExecutor("sunshine-fetch",
+            MAX_CONCURRENT_FETCHES, Process.THREAD_PRIORITY_BACKGROUND);
+
+    /*
+     * How long a sync waits for more requests before it starts. Changing a few settings in a
+     * row, or the periodic job firing just as the user edits a setting, then costs a single
+     * download.
+     */
+    private static final long SYNC_DEBOUNCE_MILLIS = 1000;
+
+    /* Every sync goes through here, see syncWeather */
+    private static final SingleFlight<SyncResult> sSyncFlight =
+            new SingleFlight<>(SYNC_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+
+    private static final String[] LOCATION_PROJECTION = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+    private static final int INDEX_COORD_LAT = 2;
+    private static final int INDEX_COORD_LONG = 3;
+
+    /*
+     * What a sync found, over all of its locations. Locations are synced concurrently, so every
+     * update is synchronized.
+     */
+    private static final class SyncSummary {
+        private SyncResult mResult = SyncResult.SUCCESS;
+        private boolean mAnySynced;
+        private boolean mChanged;
+        private double mMaxTempDelta;
+        private int mConditionChanges;
+
+        synchronized void onResult(SyncResult result) {
+            mResult = mResult.combine(result);
+            mAnySynced |= !result.isFailure();
+        }
+
+        /*
+         * A server error only says the server is failing if no location got through. Otherwise
+         * it's about the locations that failed, and shouldn't open the circuit for all of them.
+         */
+        synchronized SyncResult getResult() {
+            if (mResult == SyncResult.SERVER_ERROR && mAnySynced) {
+                return SyncResult.PARTIAL_SERVER_ERROR;
+            }
+            return mResult;
+        }
+
+        synchronized void onStored(Bundle result) {
+            if (result == null || result.getInt(WeatherContract.EXTRA_ROWS_CHANGED) == 0) {
+                return;
+            }
+            mChanged = true;
+            mMaxTempDelta = Math.max(mMaxTempDelta,
+                    result.getDouble(WeatherContract.EXTRA_MAX_TEMP_DELTA));
+            mConditionChanges += result.getInt(WeatherContract.EXTRA_CONDITION_CHANGES);
+        }
+    }
+
+    /* A location to sync and the URL its forecast is requested from */
+    private static final class SyncLocation {
+        final long id;
+        final URL url;
+
+        SyncLocation(long id, URL url) {
+            this.id = id;
+            this.url = url;
+        }
+    }
+
     /**
-     * Performs the network request for updated weather, parses the JSON from that request, and
-     * inserts the new weather information into our ContentProvider. Will notify the user that new
-     * weather has been loaded if the user hasn't been notified of the weather within the last day
-     * AND they haven't disabled notifications in the preferences screen.
+     * Performs the network requests for updated weather of the user's location and of every
+     * location in the location table, parses the JSON from those requests, and inserts the new
+     * weather information into our ContentProvider. Will notify the user that new weather has
+     * been loaded if the user hasn't been notified of the weather within the last day AND they
+     * haven't disabled notifications in the preferences screen.
+     * <p>
+     * The locations are fetched concurrently, and each one is stored in its own transaction as
+     * soon as it has been parsed, so one slow or failing location doesn't hold up the others.
+     * <p>
+     * Concurrent calls are merged into a single sync that every caller waits for, see
+     * {@link SingleFlight}. A sync that fails for a reason that may go away (no network, a
+     * server error, a locked database) schedules its own retry, see {@link SyncRetryPolicy}.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @return The outcome of the sync
      */
-    synchronized public static void syncWeather(Context context) {
+    public static SyncResult syncWeather(Context context) {
+        return syncWeather(context, SingleFlight.now(), new CancellationToken());
+    }
+
+    /**
+     * Syncs the weather unless a sync has started since the request was made, in which case
+     * this waits for that sync instead. This lets requests that were queued while a sync was
+     * under way be answered without downloading everything again.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param requestedAt When the sync was requested, as returned by {@link SingleFlight#now()}
+     * @return The outcome of the sync that served this request
+     */
+    public static SyncResult syncWeather(Context context, long requestedAt) {
+        return syncWeather(context, requestedAt, new CancellationToken());
+    }
 
+    /**
+     * Same as {@link #syncWeather(Context, long)}, but the sync can be stopped part way.
+     * <p>
+     * Canceling the token aborts the downloads under way and rolls back a forecast that is
+     * being stored, so the database is left as it was before. It only reaches the sync this
+     * caller started: a caller that joined a sync someone else started should interrupt its
+     * thread to stop waiting. Note that the callers who joined a sync that gets canceled get
+     * {@link SyncResult#CANCELED} as well.
+     *
+     * @param context     Used to access utility methods and the ContentResolver
+     * @param requestedAt When the sync was requested, as returned by {@link SingleFlight#now()}
+     * @param cancel      Stops the sync when canceled
+     * @return The outcome of the sync that served this request
+     */
+    public static SyncResult syncWeather(final Context context, long requestedAt,
+                                         final CancellationToken cancel) {
         try {
-            /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
-             */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            return sSyncFlight.run(requestedAt, new Callable<SyncResult>() {
+                @Override
+                public SyncResult call() {
+                    if (cancel.isCanceled()) {
+                        return SyncResult.CANCELED;
+                    }
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+                    /* Leave the server alone while it's known to be failing */
+                    if (!SunshineSyncUtils.isSyncAllowed(context)) {
+                        Log.w(TAG, "Sync skipped, the server has been failing");
+                        SunshineSyncUtils.onSyncResult(context, SyncResult.CIRCUIT_OPEN);
+                        return SyncResult.CIRCUIT_OPEN;
+                    }
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+                    SyncSummary summary = syncAllLocations(context, cancel);
 
-            /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
-             */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
-
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
-
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
-
-                /*
-                 * Finally, after we insert data into the ContentProvider, determine whether or not
-                 * we should notify the user that the weather has been refreshed.
-                 */
-                boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
-
-                /*
-                 * If the last notification was shown was more than 1 day ago, we want to send
-                 * another notification to the user that the weather has been updated. Remember,
-                 * it's important that you shouldn't spam your users with notifications.
-                 */
-                long timeSinceLastNotification = SunshinePreferences
-                        .getEllapsedTimeSinceLastNotification(context);
-
-                boolean oneDayPassedSinceLastNotification = false;
-
-                if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
-                    oneDayPassedSinceLastNotification = true;
+                    /*
+                     * A canceled sync says nothing about the server or the forecast, so it
+                     * leaves both policies alone. The job that was stopped gets run again.
+                     */
+                    if (cancel.isCanceled()) {
+                        return SyncResult.CANCELED;
+                    }
+
+                    /* Let the schedule adapt to how much the forecast is moving */
+                    SyncResult result = summary.getResult();
+                    SunshineSyncUtils.onSyncFinished(context, result.isFailure(),
+                            summary.mChanged, summary.mMaxTempDelta, summary.mConditionChanges);
+
+                    /* Schedule a retry if the sync failed in a way that may go away */
+                    SunshineSyncUtils.onSyncResult(context, result);
+                    return result;
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return SyncResult.CANCELED;
+        } catch (ExecutionException e) {
+            /* Every failure is classified below, so this is a bug rather than bad weather */
+            Log.e(TAG, "Sync failed", e.getCause());
+            return SyncResult.INTERNAL_ERROR;
+        }
+    }
+
+    private static SyncSummary syncAllLocations(final Context context,
+                                                final CancellationToken cancel) {
+
+        final SyncSummary summary = new SyncSummary();
+        List<SyncLocation> locations = getLocationsToSync(context);
+
+        /* Most users only follow their own location, which needs no extra threads */
+        if (locations.size() == 1) {
+            syncLocation(context, locations.get(0), summary, cancel);
+            return summary;
+        }
+
+        List<Runnable> syncs = new ArrayList<>(locations.size());
+        for (final SyncLocation location : locations) {
+            syncs.add(new Runnable() {
+                @Override
+                public void run() {
+                    syncLocation(context, location, summary, cancel);
                 }
+            });
+        }
+        runConcurrently(sFetchExecutor, syncs, cancel);
+
+        return summary;
+    }
 
-                /*
-                 * We only want to show the notification if the user wants them shown and we
-                 * haven't shown a notification in the past day.
-                 */
-                if (notificationsEnabled && oneDayPassedSinceLastNotification) {
-                    NotificationUtils.notifyUserOfNewWeather(context);
+    /**
+     * Runs every piece of work on the executor and waits for all of them to be over, the
+     * syncs of the locations in practice. Canceling the token stops them all.
+     *
+     * @param executor Runs the work, at most as much of it at once as it has threads
+     * @param work     The work to run, which handles its own errors
+     * @param cancel   Stops the work when canceled
+     */
+    @VisibleForTesting
+    static void runConcurrently(ExecutorService executor, List<Runnable> work,
+                                CancellationToken cancel) {
+        final List<Future<?>> fetches = new ArrayList<>(work.size());
+        for (Runnable runnable : work) {
+            fetches.add(executor.submit(runnable));
+        }
+
+        /*
+         * Canceling closes the connections, but a fetch may be storing its forecast already.
+         * Interrupting it makes the provider roll the forecast back, and fetches that haven't
+         * started yet never will.
+         */
+        Runnable cancelFetches = new Runnable() {
+            @Override
+            public void run() {
+                for (Future<?> fetch : fetches) {
+                    fetch.cancel(true);
                 }
+            }
+        };
+        cancel.addCancelAction(cancelFetches);
+        try {
+            for (Future<?> fetch : fetches) {
+                try {
+                    fetch.get();
+                } catch (CancellationException | ExecutionException e) {
+                    /* Errors are classified by syncLocation, this is only the cancellation */
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelFetches.run();
+            Thread.currentThread().interrupt();
+        } finally {
+            cancel.removeCancelAction(cancelFetches);
+        }
+    }
+
+    /*
+     * The user's own location always comes first, followed by every location of the location
+     * table that we can build a URL for.
+     */
+    private static List<SyncLocation> getLocationsToSync(Context context) {
+        List<SyncLocation> locations = new ArrayList<>();
+
+        /*
+         * The getUrl method will return the URL that we need to get the forecast JSON for the
+         * weather. It will decide whether to create a URL based off of the latitude and
+         * longitude or off of a simple location as a String.
+         */
+        URL primaryUrl = NetworkUtils.getUrl(context);
+        if (primaryUrl != null) {
+            locations.add(new SyncLocation(
+                    WeatherContract.LocationEntry.PRIMARY_LOCATION_ID, primaryUrl));
+        }
 
-            /* If the code reaches this point, we have successfully performed our sync */
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_PROJECTION,
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return locations;
+        }
 
+        try {
+            while (cursor.moveToNext()) {
+                URL url;
+                if (!cursor.isNull(INDEX_COORD_LAT) && !cursor.isNull(INDEX_COORD_LONG)) {
+                    url = NetworkUtils.buildUrlWithLatitudeLongitude(
+                            cursor.getDouble(INDEX_COORD_LAT),
+                            cursor.getDouble(INDEX_COORD_LONG));
+                } else if (!cursor.isNull(INDEX_LOCATION_SETTING)) {
+                    url = NetworkUtils.buildUrlWithLocationQuery(
+                            cursor.getString(INDEX_LOCATION_SETTING));
+                } else {
+                    continue;
+                }
+
+                if (url != null) {
+                    locations.add(new SyncLocation(cursor.getLong(INDEX_LOCATION_ID), url));
+                }
             }
+        } finally {
+            cursor.close();
+        }
+
+        return locations;
+    }
+
+    /*
+     * Fetches, parses and stores the forecast of one location. Errors are contained and
+     * classified here, so they only cost this location its update.
+     */
+    private static void syncLocation(Context context, SyncLocation location,
+                                     SyncSummary summary, CancellationToken cancel) {
+        SyncResult result;
+        try {
+            result = fetchAndStoreLocation(context, location, summary, cancel);
+        } catch (CancellationException | OperationCanceledException e) {
+            result = SyncResult.CANCELED;
+        }
+        summary.onResult(cancel.isCanceled() ? SyncResult.CANCELED : result);
+    }
+
+    private static SyncResult fetchAndStoreLocation(Context context, SyncLocation location,
+                                                    SyncSummary summary,
+                                                    CancellationToken cancel) {
 
+        boolean isPrimary = location.id == WeatherContract.LocationEntry.PRIMARY_LOCATION_ID;
+
+        /*
+         * Use the URL to retrieve the JSON. The request is conditional on the validators of
+         * the last forecast we stored, and the response lands in a pooled buffer that later
+         * syncs will reuse.
+         */
+        ResponseBuffer weatherResponse;
+        try {
+            weatherResponse = NetworkUtils.getConditionalResponseBufferFromHttpUrl(
+                    context, location.id, location.url, cancel);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
-            /* Server probably invalid */
-            e.printStackTrace();
+            SyncResult result = SyncResult.fromNetworkException(e);
+            Log.w(TAG, "Fetching " + location.url + " failed: " + result, e);
+            return result;
+        }
+
+        try {
+            /*
+             * If the server says nothing changed since our last sync, the data we have is
+             * still current. Skip parsing and leave the database alone.
+             */
+            if (weatherResponse.isNotModified()) {
+                return SyncResult.NOT_MODIFIED;
+            }
+
+            /* Parse the JSON into a batch of weather values */
+            ForecastBatch forecast;
+            try {
+                forecast = OpenWeatherJsonUtils
+                        .getForecastBatchFromStream(weatherResponse.asInputStream());
+            } catch (Exception e) {
+                /* The response is in memory, so anything going wrong here is about its content */
+                Log.w(TAG, "Parsing " + location.url + " failed", e);
+                return SyncResult.PARSE_ERROR;
+            }
+
+            /*
+             * The server tells us where the user's location actually is. We keep those
+             * coordinates for the map intent and for the next request.
+             */
+            if (isPrimary && forecast != null && forecast.hasCoordinates()) {
+                SunshinePreferences.setLocationDetails(context,
+                        forecast.getLatitude(), forecast.getLongitude());
+            }
+
+            /*
+             * In cases where our JSON contained an error code, the parser would have
+             * returned null. We need to check for those cases here to prevent any
+             * NullPointerExceptions being thrown. We also have no reason to insert fresh data
+             * if there isn't any to insert.
+             */
+            if (forecast == null) {
+                return SyncResult.CLIENT_ERROR;
+            }
+            if (forecast.size() == 0) {
+                return SyncResult.SUCCESS;
+            }
+
+            cancel.throwIfCanceled();
+            try {
+                summary.onStored(storeWeather(context, location.id, forecast));
+            } catch (OperationCanceledException e) {
+                throw e;
+            } catch (Exception e) {
+                SyncResult result = SyncResult.fromDatabaseException(e);
+                Log.w(TAG, "Storing the forecast of " + location.url + " failed: " + result, e);
+                return result;
+            }
+
+            /* Only now that the data is stored is it safe to make the next sync conditional */
+            NetworkUtils.saveHttpValidators(context, location.id, location.url,
+                    weatherResponse);
+            return SyncResult.SUCCESS;
+
+        } finally {
+            weatherResponse.recycle();
+        }
+    }
+
+    /**
+     * Replaces the weather of a location in our ContentProvider with freshly parsed values and
+     * notifies the user if appropriate.
+     *
+     * @param context    Used to access the ContentResolver and preferences
+     * @param locationId The location the forecast is for
+     * @param forecast   The parsed weather values, must not be empty
+     * @return The result of the provider call, telling how much the forecast changed
+     */
+    private static Bundle storeWeather(Context context, long locationId, ForecastBatch forecast) {
+        /* Get a handle on the ContentResolver to store our data */
+        ContentResolver sunshineContentResolver = context.getContentResolver();
+
+        /*
+         * Replace our stored forecast with the new one. The provider does this in a single
+         * transaction, only writes the days that changed and drops days that have passed, so
+         * the forecast list never sees an empty table and isn't reloaded if nothing changed.
+         */
+        Bundle extras = new Bundle();
+        forecast.writeToBundle(extras);
+        Bundle result = sunshineContentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_FORECAST,
+                Long.toString(locationId),
+                extras);
+
+        /* There is nothing new to tell the user about if the forecast didn't change */
+        if (result == null || result.getInt(WeatherContract.EXTRA_ROWS_CHANGED) == 0) {
+            return result;
+        }
+
+        /* Notifications are only about the user's own location */
+        if (locationId != WeatherContract.LocationEntry.PRIMARY_LOCATION_ID) {
+            return result;
         }
+
+        /*
+         * Finally, after we insert data into the ContentProvider, determine whether or not
+         * we should notify the user that the weather has been refreshed.
+         */
+        boolean notificationsEnabled = SunshinePreferences.areNotificationsEnabled(context);
+
+        /*
+         * If the last notification was shown was more than 1 day ago, we want to send
+         * another notification to the user that the weather has been updated. Remember,
+         * it's important that you shouldn't spam your users with notifications.
+         */
+        long timeSinceLastNotification = SunshinePreferences
+                .getEllapsedTimeSinceLastNotification(context);
+
+        boolean oneDayPassedSinceLastNotification = false;
+
+        if (timeSinceLastNotification >= DateUtils.DAY_IN_MILLIS) {
+            oneDayPassedSinceLastNotification = true;
+        }
+
+        /*
+         * We only want to show the notification if the user wants them shown and we
+         * haven't shown a notification in the past day.
+         */
+        if (notificationsEnabled && oneDayPassedSinceLastNotification) {
+            NotificationUtils.notifyUserOfNewWeather(context);
+        }
+
+        return result;
     }
-}
\ No newline at end of file
+}
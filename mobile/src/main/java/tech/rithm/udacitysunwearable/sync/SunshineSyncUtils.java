@@ -21,12 +21,14 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
+import tech.rithm.udacitysunwearable.data.SunshinePreferences;
 import tech.rithm.udacitysunwearable.data.WeatherContract;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
 import com.firebase.jobdispatcher.GooglePlayDriver;
 import com.firebase.jobdispatcher.Job;
+import com.firebase.jobdispatcher.JobParameters;
 import com.firebase.jobdispatcher.Lifetime;
 import com.firebase.jobdispatcher.Trigger;
 
@@ -39,20 +41,68 @@ public class SunshineSyncUtils {
      * writing out a bunch of multiplication ourselves and risk making a silly mistake.
      */
     private static final int SYNC_INTERVAL_HOURS = 3;
-    private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
-    private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
+
+    /*
+     * The interval above is where the adaptive schedule starts (see AdaptiveSyncPolicy). It
+     * goes down to an hour while the forecast keeps changing, and up to 12 hours while it stays
+     * the same or the server keeps failing. Scheduled syncs are capped at 12 a day, which bounds
+     * the radio and battery time Sunshine spends in the background.
+     */
+    private static final int MIN_SYNC_INTERVAL_HOURS = 1;
+    private static final int MAX_SYNC_INTERVAL_HOURS = 12;
+    private static final int DAILY_SYNC_BUDGET = 12;
+    private static final double VOLATILE_TEMP_DELTA = 2.0;
+
+    private static final AdaptiveSyncPolicy.Config SYNC_POLICY_CONFIG =
+            new AdaptiveSyncPolicy.Config(
+                    SYNC_INTERVAL_HOURS,
+                    MIN_SYNC_INTERVAL_HOURS,
+                    MAX_SYNC_INTERVAL_HOURS,
+                    TimeUnit.HOURS,
+                    DAILY_SYNC_BUDGET,
+                    VOLATILE_TEMP_DELTA);
+
+    /* Guards the read-modify-write of the saved policy state */
+    private static final Object sSyncPolicyLock = new Object();
 
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /*
+     * A failed sync is retried by a one-off job, apart from the periodic one so the schedule of
+     * the latter isn't disturbed. The window lets the dispatcher batch it with other work.
+     */
+    private static final String SUNSHINE_SYNC_RETRY_TAG = "sunshine-sync-retry";
+    private static final int SYNC_RETRY_FLEXTIME_SECONDS = 30;
+
+    /* Time at which an immediate sync was requested, see SunshineSyncTask#syncWeather */
+    static final String EXTRA_REQUESTED_AT = "requested_at";
+
+    /* History compaction runs about once a day, whenever the device is charging */
+    private static final int HISTORY_COMPACTION_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int HISTORY_COMPACTION_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(12);
+
+    private static final String SUNSHINE_HISTORY_TAG = "sunshine-history-compaction";
+
     /**
-     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
+     * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher, at the
+     * interval the adaptive sync policy currently asks for.
      * @param context Context used to create the GooglePlayDriver that powers the
      *                FirebaseJobDispatcher
      */
     static void scheduleFirebaseJobDispatcherSync(@NonNull final Context context) {
 
+        int syncDelaySeconds;
+        synchronized (sSyncPolicyLock) {
+            AdaptiveSyncPolicy policy =
+                    SyncPolicyPreferences.getSyncPolicy(context, SYNC_POLICY_CONFIG);
+            syncDelaySeconds = (int) TimeUnit.MILLISECONDS.toSeconds(
+                    policy.getNextSyncDelayMillis(System.currentTimeMillis()));
+            SyncPolicyPreferences.saveScheduledSyncDelay(context, syncDelaySeconds);
+        }
+        int syncFlextimeSeconds = syncDelaySeconds / 3;
+
         Driver driver = new GooglePlayDriver(context);
         FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
 
@@ -79,15 +129,16 @@ public class SunshineSyncUtils {
                  */
                 .setRecurring(true)
                 /*
-                 * We want the weather data to be synced every 3 to 4 hours. The first argument for
+                 * We want the weather data to be synced every 3 to 4 hours to start with, then as
+                 * often as the adaptive policy decides. The first argument for
                  * Trigger's static executionWindow method is the start of the time frame when the
                  * sync should be performed. The second argument is the latest point in time at
                  * which the data should be synced. Please note that this end time is not
                  * guaranteed, but is more of a guideline for FirebaseJobDispatcher to go off of.
                  */
                 .setTrigger(Trigger.executionWindow(
-                        SYNC_INTERVAL_SECONDS,
-                        SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS))
+                        syncDelaySeconds,
+                        syncDelaySeconds + syncFlextimeSeconds))
                 /*
                  * If a Job with the tag with provided already exists, this new job will replace
                  * the old one.
@@ -99,6 +150,187 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Called by the periodic sync job before it syncs. Counts the sync against the daily budget
+     * and returns whether it may run. When the budget is spent, the job is pushed back to the
+     * start of the next budget day.
+     *
+     * @param context Used to access the saved policy and the FirebaseJobDispatcher
+     * @return true if the scheduled sync should run
+     */
+    static boolean acquireScheduledSync(@NonNull Context context) {
+        boolean allowed;
+        synchronized (sSyncPolicyLock) {
+            AdaptiveSyncPolicy policy =
+                    SyncPolicyPreferences.getSyncPolicy(context, SYNC_POLICY_CONFIG);
+            allowed = policy.onScheduledSync(System.currentTimeMillis());
+            SyncPolicyPreferences.saveSyncPolicy(context, policy);
+        }
+        if (!allowed) {
+            rescheduleIfNeeded(context);
+        }
+        return allowed;
+    }
+
+    /**
+     * Feeds the outcome of a sync to the adaptive sync policy, and moves the periodic sync job
+     * if that changed the interval.
+     *
+     * @param context          Used to access the saved policy and the FirebaseJobDispatcher
+     * @param failed           Whether the sync failed to bring any forecast
+     * @param changed          Whether the sync stored a forecast that differs from ours
+     * @param maxTempDelta     Largest change of a day's min or max, in °C
+     * @param conditionChanges Number of days whose kind of weather changed
+     */
+    static void onSyncFinished(@NonNull Context context, boolean failed, boolean changed,
+                               double maxTempDelta, int conditionChanges) {
+        synchronized (sSyncPolicyLock) {
+            AdaptiveSyncPolicy policy =
+                    SyncPolicyPreferences.getSyncPolicy(context, SYNC_POLICY_CONFIG);
+            long now = System.currentTimeMillis();
+            if (changed) {
+                policy.onSyncChanged(now, maxTempDelta, conditionChanges);
+            } else if (failed) {
+                policy.onSyncFailed(now);
+            } else {
+                policy.onSyncUnchanged(now);
+            }
+            SyncPolicyPreferences.saveSyncPolicy(context, policy);
+        }
+        rescheduleIfNeeded(context);
+    }
+
+    /**
+     * Returns false while the circuit breaker of the retry policy is open, in which case the
+     * sync shouldn't touch the network.
+     *
+     * @param context Used to access the saved policy
+     * @return true if the sync may go out
+     */
+    static boolean isSyncAllowed(@NonNull Context context) {
+        synchronized (sSyncPolicyLock) {
+            return SyncPolicyPreferences.getRetryPolicy(context)
+                    .allowRequest(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Feeds the outcome of a sync to the retry policy, and schedules a retry of the sync if the
+     * policy asks for one.
+     *
+     * @param context Used to access the saved policy and the FirebaseJobDispatcher
+     * @param result  The outcome of the sync
+     */
+    static void onSyncResult(@NonNull Context context, SyncResult result) {
+        long retryDelayMillis;
+        synchronized (sSyncPolicyLock) {
+            SyncRetryPolicy policy = SyncPolicyPreferences.getRetryPolicy(context);
+            retryDelayMillis = policy.onResult(result, System.currentTimeMillis());
+            SyncPolicyPreferences.saveRetryPolicy(context, policy);
+        }
+        if (retryDelayMillis != SyncRetryPolicy.NO_RETRY) {
+            scheduleSyncRetry(context, retryDelayMillis);
+        }
+    }
+
+    /**
+     * Returns whether a job is the one-off retry of a failed sync, rather than the periodic sync.
+     *
+     * @param jobParameters The parameters the job was started with
+     * @return true for a retry
+     */
+    static boolean isRetryJob(@NonNull JobParameters jobParameters) {
+        return SUNSHINE_SYNC_RETRY_TAG.equals(jobParameters.getTag());
+    }
+
+    /*
+     * The delay comes from SyncRetryPolicy, jitter included. We don't use the dispatcher's own
+     * RetryStrategy for this: it backs off without any randomness, and it can't see the other
+     * failures that feed the circuit breaker.
+     */
+    private static void scheduleSyncRetry(@NonNull Context context, long delayMillis) {
+        int retryDelaySeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(delayMillis));
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job retrySunshineJob = dispatcher.newJobBuilder()
+                .setService(SunshineFirebaseJobService.class)
+                .setTag(SUNSHINE_SYNC_RETRY_TAG)
+                .setConstraints(Constraint.ON_ANY_NETWORK)
+                /* The periodic sync picks up after a reboot, the retry isn't needed anymore */
+                .setLifetime(Lifetime.UNTIL_NEXT_BOOT)
+                .setRecurring(false)
+                .setTrigger(Trigger.executionWindow(
+                        retryDelaySeconds,
+                        retryDelaySeconds + SYNC_RETRY_FLEXTIME_SECONDS))
+                /* Only the latest retry matters */
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(retrySunshineJob);
+    }
+
+    /*
+     * Rescheduling replaces the job, so we only do it when the delay actually moved. The
+     * periodic job otherwise keeps recurring at the window it was given.
+     */
+    private static void rescheduleIfNeeded(@NonNull Context context) {
+        int scheduledDelaySeconds;
+        int nextDelaySeconds;
+        synchronized (sSyncPolicyLock) {
+            scheduledDelaySeconds = SyncPolicyPreferences.getScheduledSyncDelay(context);
+            AdaptiveSyncPolicy policy =
+                    SyncPolicyPreferences.getSyncPolicy(context, SYNC_POLICY_CONFIG);
+            nextDelaySeconds = (int) TimeUnit.MILLISECONDS.toSeconds(
+                    policy.getNextSyncDelayMillis(System.currentTimeMillis()));
+        }
+        if (nextDelaySeconds != scheduledDelaySeconds) {
+            scheduleFirebaseJobDispatcherSync(context);
+        }
+    }
+
+    /**
+     * Returns the adaptive sync policy, for instance to read its metrics (syncs avoided, age
+     * of the data).
+     *
+     * @param context Used to access the saved policy
+     * @return A snapshot of the policy
+     */
+    public static AdaptiveSyncPolicy getSyncPolicy(@NonNull Context context) {
+        synchronized (sSyncPolicyLock) {
+            return SyncPolicyPreferences.getSyncPolicy(context, SYNC_POLICY_CONFIG);
+        }
+    }
+
+    /**
+     * Schedules a daily compaction of the weather history using FirebaseJobDispatcher. It only
+     * runs while the device is charging, since it isn't urgent and may touch a lot of rows.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleHistoryCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactHistoryJob = dispatcher.newJobBuilder()
+                .setService(SunshineHistoryJobService.class)
+                .setTag(SUNSHINE_HISTORY_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        HISTORY_COMPACTION_INTERVAL_SECONDS,
+                        HISTORY_COMPACTION_INTERVAL_SECONDS + HISTORY_COMPACTION_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactHistoryJob);
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -122,6 +354,9 @@ public class SunshineSyncUtils {
          */
         scheduleFirebaseJobDispatcherSync(context);
 
+        /* Keep the weather history from growing without bound */
+        scheduleHistoryCompaction(context);
+
         /*
          * We need to check to see if our ContentProvider has data to display in our forecast
          * list. However, performing a query on the main thread is a bad idea as this may
@@ -167,6 +402,11 @@ public class SunshineSyncUtils {
                  * be able to display data to the user.
                  */
                 if (null == cursor || cursor.getCount() == 0) {
+                    /*
+                     * Without any data, a 304 Not Modified would leave us with nothing to show,
+                     * so make sure this sync downloads the full forecast.
+                     */
+                    SunshinePreferences.clearHttpValidators(context);
                     startImmediateSync(context);
                 }
 
@@ -187,6 +427,7 @@ public class SunshineSyncUtils {
      */
     public static void startImmediateSync(@NonNull final Context context) {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncImmediately.putExtra(EXTRA_REQUESTED_AT, SingleFlight.now());
         context.startService(intentToSyncImmediately);
     }
 }
\ No newline at end of file
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread pool dedicated to syncing, so syncs neither wait behind nor hold up the rest of the
+ * app's background work the way the shared AsyncTask executor would.
+ * <p>
+ * Threads are named after the pool, which makes them easy to spot in a trace, and run at the
+ * given Android thread priority. They stop once they have been idle for
+ * {@link #KEEP_ALIVE_SECONDS}, so the pool costs nothing between syncs.
+ * <p>
+ * The pool also keeps track of how long work took to stop once it was asked to, see
+ * {@link #recordStopLatency(long)}.
+ */
+public class SyncExecutor extends ThreadPoolExecutor {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /*
+     * One thread is enough to run the jobs by default: every sync funnels into a single flight
+     * (see SingleFlight), so a second job would only wait for the first, the downloads have a
+     * pool of their own, and history compaction writes to the same database as the sync. See
+     * setJobPoolSize(int) to let them overlap.
+     */
+    private static final int DEFAULT_JOB_POOL_SIZE = 1;
+
+    private static SyncExecutor sJobExecutor;
+    private static int sJobPoolSize = DEFAULT_JOB_POOL_SIZE;
+
+    private final Object mStatsLock = new Object();
+    private long mLastStopLatencyNanos;
+    private long mMaxStopLatencyNanos;
+    private int mStops;
+
+    /**
+     * @param name           Prefix of the names of the threads
+     * @param poolSize       Maximum number of threads
+     * @param threadPriority Priority of the threads, one of the THREAD_PRIORITY constants of
+     *                       {@link Process}
+     */
+    public SyncExecutor(final String name, int poolSize, final int threadPriority) {
+        super(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(threadPriority);
+                                r.run();
+                            }
+                        }, name + "-" + mCount.getAndIncrement());
+                    }
+                });
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor the sync jobs run on.
+     */
+    public static synchronized SyncExecutor getJobExecutor() {
+        if (sJobExecutor == null) {
+            sJobExecutor = new SyncExecutor("sunshine-job", sJobPoolSize,
+                    Process.THREAD_PRIORITY_BACKGROUND);
+        }
+        return sJobExecutor;
+    }
+
+    /**
+     * Sets how many jobs may run at once. The executor is resized if it already exists; jobs
+     * that are running keep running.
+     *
+     * @param poolSize Maximum number of threads, at least 1
+     */
+    public static synchronized void setJobPoolSize(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + poolSize);
+        }
+        sJobPoolSize = poolSize;
+        if (sJobExecutor != null) {
+            sJobExecutor.setPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Changes the number of threads of the pool, which is always fixed.
+     *
+     * @param poolSize Maximum number of threads, at least 1
+     */
+    public void setPoolSize(int poolSize) {
+        /* The core size may never be above the maximum, so move them in the right order */
+        if (poolSize > getMaximumPoolSize()) {
+            setMaximumPoolSize(poolSize);
+            setCorePoolSize(poolSize);
+        } else {
+            setCorePoolSize(poolSize);
+            setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Records how long a piece of work took to stop after it was canceled.
+     *
+     * @param latencyNanos Time from the cancel request to the work being over
+     */
+    public void recordStopLatency(long latencyNanos) {
+        synchronized (mStatsLock) {
+            mLastStopLatencyNanos = latencyNanos;
+            mMaxStopLatencyNanos = Math.max(mMaxStopLatencyNanos, latencyNanos);
+            mStops++;
+        }
+    }
+
+    public long getLastStopLatencyMillis() {
+        synchronized (mStatsLock) {
+            return TimeUnit.NANOSECONDS.toMillis(mLastStopLatencyNanos);
+        }
+    }
+
+    public long getMaxStopLatencyMillis() {
+        synchronized (mStatsLock) {
+            return TimeUnit.NANOSECONDS.toMillis(mMaxStopLatencyNanos);
+        }
+    }
+
+    public int getStopCount() {
+        synchronized (mStatsLock) {
+            return mStops;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Random;
+
+/**
+ * Saves the state of the sync policies, {@link AdaptiveSyncPolicy} and {@link SyncRetryPolicy},
+ * in a preferences file of their own, so the schedule and the backoff survive the process
+ * being killed between two syncs. Callers synchronize, see SunshineSyncUtils.
+ */
+final class SyncPolicyPreferences {
+
+    /* State of the adaptive sync schedule and of the retry policy */
+    private static final String SYNC_POLICY_FILE = "sync_policy";
+    private static final String PREF_SYNC_INTERVAL = "interval";
+    private static final String PREF_SYNC_BUDGET_DAY_START = "budget_day_start";
+    private static final String PREF_SYNC_SYNCS_TODAY = "syncs_today";
+    private static final String PREF_SYNC_TRACKING_SINCE = "tracking_since";
+    private static final String PREF_SYNC_SYNCS_RUN = "syncs_run";
+    private static final String PREF_SYNC_SYNCS_UNCHANGED = "syncs_unchanged";
+    private static final String PREF_SYNC_SYNCS_SKIPPED = "syncs_skipped";
+    private static final String PREF_SYNC_LAST_FRESH = "last_fresh";
+    private static final String PREF_SYNC_SCHEDULED_DELAY = "scheduled_delay";
+    private static final String PREF_RETRY_FAILURES = "retry_failures";
+    private static final String PREF_RETRY_SERVER_ERRORS = "retry_server_errors";
+    private static final String PREF_RETRY_CIRCUIT_TRIPS = "retry_circuit_trips";
+    private static final String PREF_RETRY_OPEN_UNTIL = "retry_open_until";
+
+    private SyncPolicyPreferences() {
+    }
+
+    /**
+     * Returns the adaptive sync policy with the state saved by {@link #saveSyncPolicy}, or a
+     * fresh one if none was saved yet.
+     *
+     * @param context Used to access SharedPreferences
+     * @param config  Tuning of the policy
+     * @return The policy
+     */
+    static AdaptiveSyncPolicy getSyncPolicy(Context context, AdaptiveSyncPolicy.Config config) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(config, now);
+
+        if (sp.contains(PREF_SYNC_INTERVAL)) {
+            policy.restore(
+                    sp.getLong(PREF_SYNC_INTERVAL, 0),
+                    sp.getLong(PREF_SYNC_BUDGET_DAY_START, now),
+                    sp.getInt(PREF_SYNC_SYNCS_TODAY, 0),
+                    sp.getLong(PREF_SYNC_TRACKING_SINCE, now),
+                    sp.getLong(PREF_SYNC_SYNCS_RUN, 0),
+                    sp.getLong(PREF_SYNC_SYNCS_UNCHANGED, 0),
+                    sp.getLong(PREF_SYNC_SYNCS_SKIPPED, 0),
+                    sp.getLong(PREF_SYNC_LAST_FRESH, 0));
+        }
+        return policy;
+    }
+
+    /**
+     * Saves the state of the adaptive sync policy.
+     *
+     * @param context Used to access SharedPreferences
+     * @param policy  The policy to save
+     */
+    static void saveSyncPolicy(Context context, AdaptiveSyncPolicy policy) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        sp.edit()
+                .putLong(PREF_SYNC_INTERVAL, policy.getIntervalMillis())
+                .putLong(PREF_SYNC_BUDGET_DAY_START, policy.getBudgetDayStart())
+                .putInt(PREF_SYNC_SYNCS_TODAY, policy.getSyncsToday())
+                .putLong(PREF_SYNC_TRACKING_SINCE, policy.getTrackingSince())
+                .putLong(PREF_SYNC_SYNCS_RUN, policy.getSyncsRun())
+                .putLong(PREF_SYNC_SYNCS_UNCHANGED, policy.getSyncsUnchanged())
+                .putLong(PREF_SYNC_SYNCS_SKIPPED, policy.getSyncsSkipped())
+                .putLong(PREF_SYNC_LAST_FRESH, policy.getLastFreshSync())
+                .apply();
+    }
+
+    /**
+     * Returns the delay, in seconds, that the periodic sync job was last scheduled with, or 0
+     * if it hasn't been scheduled yet.
+     *
+     * @param context Used to access SharedPreferences
+     */
+    static int getScheduledSyncDelay(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        return sp.getInt(PREF_SYNC_SCHEDULED_DELAY, 0);
+    }
+
+    /**
+     * Saves the delay, in seconds, that the periodic sync job was scheduled with.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param delaySeconds The delay
+     */
+    static void saveScheduledSyncDelay(Context context, int delaySeconds) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        sp.edit().putInt(PREF_SYNC_SCHEDULED_DELAY, delaySeconds).apply();
+    }
+
+    /**
+     * Returns the retry policy with the state saved by {@link #saveRetryPolicy}, so the backoff
+     * and the circuit breaker survive the process being killed between two syncs.
+     *
+     * @param context Used to access SharedPreferences
+     * @return The policy
+     */
+    static SyncRetryPolicy getRetryPolicy(Context context) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random());
+        policy.restore(
+                sp.getInt(PREF_RETRY_FAILURES, 0),
+                sp.getInt(PREF_RETRY_SERVER_ERRORS, 0),
+                sp.getInt(PREF_RETRY_CIRCUIT_TRIPS, 0),
+                sp.getLong(PREF_RETRY_OPEN_UNTIL, 0));
+        return policy;
+    }
+
+    /**
+     * Saves the state of the retry policy.
+     *
+     * @param context Used to access SharedPreferences
+     * @param policy  The policy to save
+     */
+    static void saveRetryPolicy(Context context, SyncRetryPolicy policy) {
+        SharedPreferences sp = context.getSharedPreferences(SYNC_POLICY_FILE, Context.MODE_PRIVATE);
+        sp.edit()
+                .putInt(PREF_RETRY_FAILURES, policy.getConsecutiveFailures())
+                .putInt(PREF_RETRY_SERVER_ERRORS, policy.getConsecutiveServerErrors())
+                .putInt(PREF_RETRY_CIRCUIT_TRIPS, policy.getCircuitTrips())
+                .putLong(PREF_RETRY_OPEN_UNTIL, policy.getOpenUntil())
+                .apply();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import android.database.SQLException;
+
+import tech.rithm.udacitysunwearable.utilities.HttpStatusException;
+
+import java.io.IOException;
+
+/**
+ * The outcome of a sync, and whether it is worth retrying soon.
+ * <p>
+ * When several locations are synced at once, their results are combined with
+ * {@link #combine(SyncResult)}, which keeps the one of higher precedence. Retryable failures
+ * come before the others, so a sync is retried if any of its locations hit one, and a server
+ * error comes before every other failure, so it reaches the circuit breaker of
+ * {@link SyncRetryPolicy} even when other locations failed differently.
+ */
+public enum SyncResult {
+
+    /* New data was stored, or the stored data turned out to be current */
+    SUCCESS(0, false),
+    NOT_MODIFIED(1, false),
+
+    /* Retries are on hold because the server kept failing, see SyncRetryPolicy */
+    CIRCUIT_OPEN(2, false),
+
+    /* The server rejected the request (4xx, or an error code in the JSON) */
+    CLIENT_ERROR(3, false),
+
+    /* The response couldn't be parsed. The same response would fail again. */
+    PARSE_ERROR(4, false),
+
+    /* The sync itself went wrong, which is a bug. Retrying would only hit it again. */
+    INTERNAL_ERROR(5, false),
+
+    /* The forecast couldn't be stored, for instance because the database was locked or full */
+    DATABASE_ERROR(6, true),
+
+    /*
+     * Some locations failed with a server error while others synced. The server is up, so this
+     * is retried without counting toward the circuit breaker.
+     */
+    PARTIAL_SERVER_ERROR(7, true),
+
+    /* The request didn't get an answer: no connection, timeout, reset... */
+    NETWORK_ERROR(8, true),
+
+    /* The server failed (5xx or 429) */
+    SERVER_ERROR(9, true),
+
+    /* The sync was stopped before it was done, see SunshineFirebaseJobService#onStopJob */
+    CANCELED(10, false);
+
+    private final int mPrecedence;
+    private final boolean mRetryable;
+
+    SyncResult(int precedence, boolean retryable) {
+        mPrecedence = precedence;
+        mRetryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return mRetryable;
+    }
+
+    public boolean isFailure() {
+        return this != SUCCESS && this != NOT_MODIFIED;
+    }
+
+    /**
+     * Returns the result to report for two parts of the same sync, the one of higher
+     * precedence. A canceled part makes the whole sync canceled.
+     */
+    public SyncResult combine(SyncResult other) {
+        return other.mPrecedence > mPrecedence ? other : this;
+    }
+
+    /**
+     * Classifies an exception thrown while fetching the forecast over the network.
+     */
+    public static SyncResult fromNetworkException(Exception e) {
+        if (e instanceof HttpStatusException) {
+            return ((HttpStatusException) e).isServerError() ? SERVER_ERROR : CLIENT_ERROR;
+        }
+        if (e instanceof IOException) {
+            return NETWORK_ERROR;
+        }
+        return CLIENT_ERROR;
+    }
+
+    /**
+     * Classifies an exception thrown while storing the forecast.
+     */
+    public static SyncResult fromDatabaseException(Exception e) {
+        if (e instanceof SQLException) {
+            return DATABASE_ERROR;
+        }
+        /* Anything else, such as an IllegalArgumentException, means the data itself is bad */
+        return PARSE_ERROR;
+    }
+}
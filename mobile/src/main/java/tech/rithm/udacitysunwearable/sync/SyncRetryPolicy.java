@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a failed sync is retried, and stops retrying for a while when the server keeps
+ * failing.
+ * <p>
+ * Each retryable failure in a row doubles the retry delay, from {@link #BASE_DELAY_MILLIS} up
+ * to {@link #MAX_DELAY_MILLIS}. Half of the delay is random ("equal jitter"), so devices that
+ * failed at the same moment, for instance during a server outage, don't all come back at once.
+ * <p>
+ * After {@link #CIRCUIT_BREAKER_THRESHOLD} server errors in a row, the circuit opens: syncs are
+ * refused without touching the network until the cool down has passed. The next sync then
+ * probes the server. If it fails again, the circuit opens for twice as long, up to
+ * {@link #MAX_OPEN_MILLIS}. Any successful sync closes the circuit and resets the backoff.
+ * <p>
+ * Times are passed in by the caller, in milliseconds, so the policy can be driven by a simulated
+ * clock. It isn't thread safe; Sunshine only uses it from within a sync.
+ */
+public final class SyncRetryPolicy {
+
+    static final long BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    static final int CIRCUIT_BREAKER_THRESHOLD = 5;
+    static final long BASE_OPEN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    static final long MAX_OPEN_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    /* Doubling stops well before a long would overflow */
+    private static final int MAX_DOUBLINGS = 16;
+
+    /** Returned by {@link #onResult} when the result shouldn't be retried. */
+    public static final long NO_RETRY = -1;
+
+    private final Random mRandom;
+
+    private int mConsecutiveFailures;
+    private int mConsecutiveServerErrors;
+    private int mCircuitTrips;
+    private long mOpenUntil;
+
+    public SyncRetryPolicy(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Restores the state saved from {@link #getConsecutiveFailures()} and the other getters.
+     */
+    public void restore(int consecutiveFailures, int consecutiveServerErrors, int circuitTrips,
+                        long openUntil) {
+        mConsecutiveFailures = consecutiveFailures;
+        mConsecutiveServerErrors = consecutiveServerErrors;
+        mCircuitTrips = circuitTrips;
+        mOpenUntil = openUntil;
+    }
+
+    /**
+     * Returns false while the circuit is open, in which case the sync should not go out.
+     */
+    public boolean allowRequest(long now) {
+        return now >= mOpenUntil;
+    }
+
+    public boolean isCircuitOpen(long now) {
+        return !allowRequest(now);
+    }
+
+    /**
+     * Records the result of a sync and returns how long to wait before retrying it.
+     *
+     * @param result The outcome of the sync
+     * @param now    Current time
+     * @return The delay before the retry, or {@link #NO_RETRY}
+     */
+    public long onResult(SyncResult result, long now) {
+        if (!result.isFailure()) {
+            mConsecutiveFailures = 0;
+            mConsecutiveServerErrors = 0;
+            mCircuitTrips = 0;
+            mOpenUntil = 0;
+            return NO_RETRY;
+        }
+
+        if (result == SyncResult.CIRCUIT_OPEN) {
+            /* Try again as soon as the circuit lets us probe the server */
+            return Math.max(0, mOpenUntil - now);
+        }
+
+        if (!result.isRetryable()) {
+            return NO_RETRY;
+        }
+
+        mConsecutiveFailures++;
+
+        if (result == SyncResult.SERVER_ERROR) {
+            mConsecutiveServerErrors++;
+            boolean probeFailed = mCircuitTrips > 0;
+            if (probeFailed || mConsecutiveServerErrors >= CIRCUIT_BREAKER_THRESHOLD) {
+                long openFor = Math.min(MAX_OPEN_MILLIS,
+                        BASE_OPEN_MILLIS << Math.min(mCircuitTrips, MAX_DOUBLINGS));
+                mCircuitTrips++;
+                mOpenUntil = now + openFor;
+                return openFor;
+            }
+        } else {
+            mConsecutiveServerErrors = 0;
+        }
+
+        long delay = Math.min(MAX_DELAY_MILLIS,
+                BASE_DELAY_MILLIS << Math.min(mConsecutiveFailures - 1, MAX_DOUBLINGS));
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * half);
+    }
+
+    public int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    public int getConsecutiveServerErrors() {
+        return mConsecutiveServerErrors;
+    }
+
+    public int getCircuitTrips() {
+        return mCircuitTrips;
+    }
+
+    public long getOpenUntil() {
+        return mOpenUntil;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets one thread ask work running on other threads to stop.
+ * <p>
+ * Cancellation is cooperative: long running code checks {@link #isCanceled()} or calls
+ * {@link #throwIfCanceled()} at points where it is safe to stop. Code that blocks in a way no
+ * check can reach, like a read from a socket, registers a cancel action that unblocks it, for
+ * instance by closing the connection. Cancel actions run on the thread that cancels.
+ * <p>
+ * The time of the cancellation is kept, so the time it took the work to actually stop can be
+ * measured.
+ */
+public final class CancellationToken {
+
+    private final List<Runnable> mCancelActions = new ArrayList<>();
+    private boolean mCanceled;
+    private long mCanceledAtNanos;
+
+    /**
+     * Cancels the work. Only the first call has an effect.
+     */
+    public void cancel() {
+        List<Runnable> actions;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            mCanceledAtNanos = System.nanoTime();
+            actions = new ArrayList<>(mCancelActions);
+            mCancelActions.clear();
+        }
+
+        /* Outside of the lock, an action may well call back into the token */
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @throws CancellationException If the work was canceled
+     */
+    public void throwIfCanceled() {
+        if (isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Returns when {@link #cancel()} was called, in {@link System#nanoTime()}, or 0 if it
+     * wasn't.
+     */
+    public synchronized long getCanceledAtNanos() {
+        return mCanceledAtNanos;
+    }
+
+    /**
+     * Registers an action to run when the work is canceled. If it already is, the action runs
+     * right away, on this thread. Remove the action with {@link #removeCancelAction} once the
+     * blocking call it unblocks is over.
+     *
+     * @param action Unblocks the work, must be quick and must not throw
+     */
+    public void addCancelAction(Runnable action) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mCancelActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public synchronized void removeCancelAction(Runnable action) {
+        mCancelActions.remove(action);
+    }
+}
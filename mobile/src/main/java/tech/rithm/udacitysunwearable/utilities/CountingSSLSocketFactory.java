@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Wraps an {@link SSLSocketFactory} to count the connections it opens. HttpURLConnection only
+ * asks for a socket when it can't reuse a pooled connection, so comparing this count with the
+ * number of requests tells how well connections are being reused.
+ * <p>
+ * The connection pool only hands a connection to requests using the very same factory, so a
+ * single instance must be shared by all requests.
+ */
+final class CountingSSLSocketFactory extends SSLSocketFactory {
+
+    private final SSLSocketFactory mDelegate;
+    private final AtomicLong mSocketsCreated = new AtomicLong();
+
+    CountingSSLSocketFactory(SSLSocketFactory delegate) {
+        mDelegate = delegate;
+    }
+
+    long getSocketsCreated() {
+        return mSocketsCreated.get();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return mDelegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return mDelegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+            throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket(s, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+            throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                               int localPort) throws IOException {
+        mSocketsCreated.incrementAndGet();
+        return mDelegate.createSocket(address, port, localAddress, localPort);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the weather server answers with an HTTP error status, so callers can tell a server
+ * that is down (worth retrying) from a request it will never accept.
+ */
+public class HttpStatusException extends IOException {
+
+    private final int mStatusCode;
+
+    public HttpStatusException(int statusCode) {
+        super("HTTP status " + statusCode);
+        mStatusCode = statusCode;
+    }
+
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * Returns true for statuses that say the server can't answer right now (5xx, or 429 Too
+     * Many Requests), as opposed to statuses that say the request itself is wrong.
+     */
+    public boolean isServerError() {
+        return mStatusCode >= 500 || mStatusCode == 429;
+    }
+}
@@ -17,16 +17,33 @@ package tech.rithm.udacitysunwearable.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import tech.rithm.udacitysunwearable.data.SunshinePreferences;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 
 /**
  * These utilities will be used to communicate with the weather servers.
@@ -83,6 +100,53 @@ public final class NetworkUtils {
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
 
+    /*
+     * How long we wait for the server to accept the connection, and then for each read. Without
+     * these, HttpURLConnection waits forever on a server that went quiet.
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(10);
+    private static final int READ_TIMEOUT_MILLIS = (int) TimeUnit.SECONDS.toMillis(15);
+
+    /*
+     * The read timeout only bounds the silence between two reads, a server trickling bytes can
+     * keep a request going for ever. This bounds the request as a whole.
+     */
+    private static final long REQUEST_DEADLINE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /*
+     * Idle connections kept per server for reuse. The default of 5 would have the connections
+     * of a multi-location sync closed as soon as it's done, and reopened (TLS handshake
+     * included) by the next one.
+     */
+    private static final String MAX_IDLE_CONNECTIONS = "16";
+
+    /* Every HTTPS request uses this one factory, the connection pool only reuses within one */
+    private static volatile CountingSSLSocketFactory sSSLSocketFactory =
+            new CountingSSLSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+
+    /* Aborts requests that ran past their deadline */
+    private static final ScheduledExecutorService sDeadlineTimer =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sunshine-http-deadline");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private static final AtomicLong sRequests = new AtomicLong();
+    private static final AtomicLong sHttpsRequests = new AtomicLong();
+    private static final AtomicLong sBytesOnWire = new AtomicLong();
+    private static final AtomicLong sBytesDecoded = new AtomicLong();
+
+    static {
+        /* Must be set before the first connection, which creates the pool */
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", MAX_IDLE_CONNECTIONS);
+        }
+    }
+
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
      * well as {@link #buildUrlWithLocationQuery(String)} is two fold.
@@ -117,7 +181,7 @@ public final class NetworkUtils {
      * @param longitude The longitude of the location
      * @return The Url to use to query the weather server.
      */
-    private static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
+    public static URL buildUrlWithLatitudeLongitude(Double latitude, Double longitude) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(LAT_PARAM, String.valueOf(latitude))
                 .appendQueryParameter(LON_PARAM, String.valueOf(longitude))
@@ -143,7 +207,7 @@ public final class NetworkUtils {
      * @param locationQuery The location that will be queried for.
      * @return The URL to use to query the weather server.
      */
-    private static URL buildUrlWithLocationQuery(String locationQuery) {
+    public static URL buildUrlWithLocationQuery(String locationQuery) {
         Uri weatherQueryUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
                 .appendQueryParameter(QUERY_PARAM, locationQuery)
                 .appendQueryParameter(FORMAT_PARAM, format)
@@ -169,22 +233,363 @@ public final class NetworkUtils {
      * @throws IOException Related to network and stream reading
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        ResponseBuffer response = getResponseBufferFromHttpUrl(url);
         try {
-            InputStream in = urlConnection.getInputStream();
+            if (response.length() == 0) {
+                return null;
+            }
+            Reader reader = new InputStreamReader(response.asInputStream(), "UTF-8");
+            StringBuilder builder = new StringBuilder(response.length());
+            char[] chars = new char[1024];
+            int read;
+            while ((read = reader.read(chars)) != -1) {
+                builder.append(chars, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            response.recycle();
+        }
+    }
 
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+    /**
+     * Reads the entire HTTP response into a pooled {@link ResponseBuffer}. The buffer is sized
+     * from the Content-Length header when the server sends one, and its backing array is reused
+     * by later requests once it has been recycled, so a sync doesn't allocate a new copy of the
+     * response each time it runs.
+     * <p>
+     * The caller owns the returned buffer and must call {@link ResponseBuffer#recycle()} on it.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return A buffer holding the body of the HTTP response, empty if there was no body
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     */
+    public static ResponseBuffer getResponseBufferFromHttpUrl(URL url) throws IOException {
+        return getResponseBufferFromHttpUrl(url, null, null, null);
+    }
 
-            boolean hasInput = scanner.hasNext();
-            String response = null;
-            if (hasInput) {
-                response = scanner.next();
+    /**
+     * Same as {@link #getResponseBufferFromHttpUrl(URL)}, but canceling the token aborts the
+     * request, even while it is blocked waiting on the server.
+     *
+     * @param url    The URL to fetch the HTTP response from.
+     * @param cancel Aborts the request when canceled
+     * @return A buffer holding the body of the HTTP response, empty if there was no body
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     * @throws java.util.concurrent.CancellationException If the request was aborted
+     */
+    public static ResponseBuffer getResponseBufferFromHttpUrl(URL url, CancellationToken cancel)
+            throws IOException {
+        return getResponseBufferFromHttpUrl(url, null, null, cancel);
+    }
+
+    /**
+     * Performs a conditional GET for the given URL using the ETag and Last-Modified validators
+     * saved from the last response we stored for the location (see
+     * {@link #saveHttpValidators}). If the server answers 304 Not Modified, the returned buffer
+     * is empty and {@link ResponseBuffer#isNotModified()} returns true, so the caller can skip
+     * parsing and writing data it already has.
+     * <p>
+     * The caller owns the returned buffer and must call {@link ResponseBuffer#recycle()} on it.
+     *
+     * @param context    Used to look up the stored validators
+     * @param locationId The location the response will be stored for
+     * @param url        The URL to fetch the HTTP response from.
+     * @return A buffer holding the body of the HTTP response, empty if not modified
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     */
+    public static ResponseBuffer getConditionalResponseBufferFromHttpUrl(Context context,
+                                                                         long locationId, URL url)
+            throws IOException {
+        return getConditionalResponseBufferFromHttpUrl(context, locationId, url, null);
+    }
+
+    /**
+     * Same as {@link #getConditionalResponseBufferFromHttpUrl(Context, long, URL)}, but
+     * canceling the token aborts the request, even while it is blocked waiting on the server.
+     *
+     * @param context    Used to look up the stored validators
+     * @param locationId The location the response will be stored for
+     * @param url        The URL to fetch the HTTP response from.
+     * @param cancel     Aborts the request when canceled, may be null
+     * @return A buffer holding the body of the HTTP response, empty if not modified
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     * @throws java.util.concurrent.CancellationException If the request was aborted
+     */
+    public static ResponseBuffer getConditionalResponseBufferFromHttpUrl(Context context,
+                                                                         long locationId, URL url,
+                                                                         CancellationToken cancel)
+            throws IOException {
+        return getConditionalResponseBufferFromHttpUrl(url,
+                SunshinePreferences.getHttpValidatedUrl(context, locationId),
+                SunshinePreferences.getHttpETag(context, locationId),
+                SunshinePreferences.getHttpLastModified(context, locationId),
+                cancel);
+    }
+
+    /**
+     * Fetches a URL with the validators of the rows stored for a location, if those rows came
+     * from the same URL.
+     * <p>
+     * The rows of the user's own location are always stored under the same id, whichever city
+     * it is. After a switch from A to B and back to A, A's old validators would get a 304 and
+     * leave B's forecast stored under A's name, so validators from another URL are never sent.
+     *
+     * @param url          The URL to fetch the HTTP response from.
+     * @param validatedUrl The URL the stored rows came from, may be null
+     * @param eTag         The ETag of the stored rows, may be null
+     * @param lastModified The Last-Modified date of the stored rows, may be null
+     * @param cancel       Aborts the request when canceled, may be null
+     * @return A buffer holding the body of the HTTP response, empty if not modified
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     */
+    @VisibleForTesting
+    static ResponseBuffer getConditionalResponseBufferFromHttpUrl(URL url, String validatedUrl,
+                                                                  String eTag,
+                                                                  String lastModified,
+                                                                  CancellationToken cancel)
+            throws IOException {
+        if (!url.toString().equals(validatedUrl)) {
+            return getResponseBufferFromHttpUrl(url, null, null, cancel);
+        }
+        return getResponseBufferFromHttpUrl(url, eTag, lastModified, cancel);
+    }
+
+    /**
+     * Remembers the validators of a response so the next request for the same location and
+     * URL can be made conditional. Call this only after the response has been successfully
+     * stored.
+     *
+     * @param context    Used to save the validators
+     * @param locationId The location the response was stored for
+     * @param url        The URL the response was fetched from
+     * @param response   The response whose validators should be saved
+     */
+    public static void saveHttpValidators(Context context, long locationId, URL url,
+                                          ResponseBuffer response) {
+        SunshinePreferences.saveHttpValidators(context, locationId, url.toString(),
+                response.getETag(), response.getLastModified());
+    }
+
+    /**
+     * Fetches a URL, conditionally if validators are given. Every other way of fetching a
+     * response ends up here.
+     *
+     * @param url          The URL to fetch the HTTP response from.
+     * @param eTag         Sent as If-None-Match, may be null
+     * @param lastModified Sent as If-Modified-Since, may be null
+     * @param cancel       Aborts the request when canceled, may be null
+     * @return A buffer holding the body of the HTTP response, empty if not modified
+     * @throws IOException Related to network and stream reading, or an
+     *                     {@link HttpStatusException} if the server answered with an error status
+     */
+    @VisibleForTesting
+    static ResponseBuffer getResponseBufferFromHttpUrl(URL url, String eTag, String lastModified,
+                                                       final CancellationToken cancel)
+            throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (urlConnection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(sSSLSocketFactory);
+            sHttpsRequests.incrementAndGet();
+        }
+        sRequests.incrementAndGet();
+
+        /*
+         * Forecasts are JSON, which compresses very well. Asking for gzip ourselves means we
+         * have to inflate it ourselves too, but lets us count the bytes that went over the wire.
+         */
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (eTag != null) {
+            urlConnection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+
+        /*
+         * Interrupting a thread doesn't unblock a socket read, but closing the connection
+         * under it does. The read then fails with an IOException, which we report as the
+         * cancellation or the timeout it really is.
+         */
+        final AtomicBoolean deadlineExpired = new AtomicBoolean();
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                urlConnection.disconnect();
+            }
+        };
+        if (cancel != null) {
+            cancel.addCancelAction(abort);
+        }
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                deadlineExpired.set(true);
+                urlConnection.disconnect();
+            }
+        };
+        ScheduledFuture<?> deadline = sDeadlineTimer.schedule(expire,
+                REQUEST_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+
+        ResponseBuffer response = ResponseBuffer.obtain();
+        boolean success = false;
+        try {
+            int responseCode = urlConnection.getResponseCode();
+
+            /*
+             * An error status has no forecast in it. Surface it as its own exception so the
+             * sync can tell a server that's down (worth retrying) from a bad request (not).
+             */
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new HttpStatusException(responseCode);
+            }
+
+            response.setResponseHeaders(responseCode,
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"));
+
+            /*
+             * The body is read to its end and the stream closed even when there is nothing in
+             * it, which is what hands the connection back to the pool for the next request.
+             */
+            CountingInputStream wire = new CountingInputStream(urlConnection.getInputStream());
+            InputStream in = wire;
+            try {
+                if (responseCode != HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    int expectedLength = urlConnection.getContentLength();
+                    if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                        in = new GZIPInputStream(wire);
+                        /* The announced length is the compressed one */
+                        expectedLength = -1;
+                    }
+                    response.readFrom(in, expectedLength);
+                    sBytesDecoded.addAndGet(response.length());
+                }
+            } finally {
+                in.close();
+                sBytesOnWire.addAndGet(wire.getCount());
+            }
+
+            if (cancel != null) {
+                cancel.throwIfCanceled();
             }
-            scanner.close();
+            success = true;
             return response;
+        } catch (IOException e) {
+            if (cancel != null && cancel.isCanceled()) {
+                throw new CancellationException();
+            }
+            if (deadlineExpired.get()) {
+                throw new SocketTimeoutException("No complete response from " + url.getHost()
+                        + " within " + REQUEST_DEADLINE_MILLIS + " ms");
+            }
+            throw e;
         } finally {
-            urlConnection.disconnect();
+            deadline.cancel(false);
+            if (cancel != null) {
+                cancel.removeCancelAction(abort);
+            }
+            /*
+             * A connection that failed part way can't be trusted with another request. One that
+             * succeeded is left open: disconnecting it would close it rather than pool it.
+             */
+            if (!success) {
+                response.recycle();
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests made since the app started.
+     */
+    public static long getRequestCount() {
+        return sRequests.get();
+    }
+
+    /**
+     * Returns the number of HTTPS requests that were served by a connection left open by an
+     * earlier one, sparing a TCP and TLS handshake.
+     */
+    public static long getReusedConnectionCount() {
+        return Math.max(0, sHttpsRequests.get() - sSSLSocketFactory.getSocketsCreated());
+    }
+
+    /**
+     * Returns the number of HTTPS connections opened since the app started.
+     */
+    public static long getOpenedConnectionCount() {
+        return sSSLSocketFactory.getSocketsCreated();
+    }
+
+    /**
+     * Returns the number of response body bytes received, as they went over the wire, that is
+     * compressed if the server compressed them.
+     */
+    public static long getBytesOnWire() {
+        return sBytesOnWire.get();
+    }
+
+    /**
+     * Returns the number of response body bytes received, once decompressed.
+     */
+    public static long getBytesDecoded() {
+        return sBytesDecoded.get();
+    }
+
+    /**
+     * Replaces the factory HTTPS connections are made with, for instance to trust the
+     * certificate of a test server. Resets the connection counters.
+     *
+     * @param factory Creates the TLS sockets
+     */
+    @VisibleForTesting
+    static void setSSLSocketFactory(SSLSocketFactory factory) {
+        sSSLSocketFactory = new CountingSSLSocketFactory(factory);
+        sHttpsRequests.set(0);
+    }
+
+    /* Counts the bytes read through it */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long mCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            mCount += skipped;
+            return skipped;
         }
     }
-}
\ No newline at end of file
+}
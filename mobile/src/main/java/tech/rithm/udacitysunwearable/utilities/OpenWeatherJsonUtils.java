@@ -17,7 +17,9 @@ package tech.rithm.udacitysunwearable.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
 
+import tech.rithm.udacitysunwearable.data.ForecastBatch;
 import tech.rithm.udacitysunwearable.data.SunshinePreferences;
 import tech.rithm.udacitysunwearable.data.WeatherContract;
 
@@ -25,6 +27,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,6 +65,16 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /* The values of a day the streaming parser has read, one bit each */
+    private static final int SEEN_PRESSURE = 1;
+    private static final int SEEN_HUMIDITY = 1 << 1;
+    private static final int SEEN_WIND_SPEED = 1 << 2;
+    private static final int SEEN_WIND_DIRECTION = 1 << 3;
+    private static final int SEEN_MAX = 1 << 4;
+    private static final int SEEN_MIN = 1 << 5;
+    private static final int SEEN_WEATHER_ID = 1 << 6;
+    private static final int SEEN_ALL = (1 << 7) - 1;
+
     /**
      * This method parses JSON from a web response and returns an array of Strings
      * describing the weather over various days from the forecast.
@@ -181,4 +196,217 @@ public final class OpenWeatherJsonUtils {
 
         return weatherContentValues;
     }
-}
\ No newline at end of file
+
+    /**
+     * Streaming counterpart of {@link #getWeatherContentValuesFromJson(Context, String)}. Rather
+     * than building a JSONObject tree for the whole response, this pulls tokens one at a time
+     * from the given stream with a {@link JsonReader} and appends each day to a
+     * {@link ForecastBatch} as soon as that day has been read. There is no object tree of the
+     * response next to its bytes any more, and no per-day objects or boxed values are created.
+     * The bytes themselves are still all in memory, the sync reads the whole response into a
+     * {@link ResponseBuffer} before parsing it.
+     * <p>
+     * Any fields we don't store (city name, population, per-day descriptions, ...) are skipped
+     * without being materialized.
+     *
+     * The coordinates of the city returned by the server are recorded in the batch (see
+     * {@link ForecastBatch#setCoordinates}) rather than saved, since the response may be for a
+     * location other than the user's own.
+     *
+     * @param in Stream containing the UTF-8 JSON response from the server
+     *
+     * @return The forecast, one entry per day, or null if the server reported an error
+     *
+     * @throws IOException   If the stream can't be read or isn't well formed JSON
+     * @throws JSONException If the response doesn't contain a forecast list, or a day of it
+     *                       lacks one of the values we store
+     */
+    public static ForecastBatch getForecastBatchFromStream(InputStream in)
+            throws IOException, JSONException {
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static ForecastBatch readForecast(JsonReader reader)
+            throws IOException, JSONException {
+
+        ForecastBatch forecast = null;
+        boolean hasCityCoord = false;
+        double cityLatitude = 0;
+        double cityLongitude = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Is there an error? "cod" is sometimes sent as a String, which nextInt accepts */
+                int errorCode = reader.nextInt();
+                if (errorCode != HttpURLConnection.HTTP_OK) {
+                    /* Location invalid or server probably down */
+                    return null;
+                }
+
+            } else if (OWM_CITY.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (OWM_COORD.equals(reader.nextName())) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String coordName = reader.nextName();
+                            if (OWM_LATITUDE.equals(coordName)) {
+                                cityLatitude = reader.nextDouble();
+                            } else if (OWM_LONGITUDE.equals(coordName)) {
+                                cityLongitude = reader.nextDouble();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        hasCityCoord = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else if (OWM_LIST.equals(name)) {
+                forecast = new ForecastBatch();
+
+                /* See getWeatherContentValuesFromJson for why we ignore the embedded dates */
+                long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long dateTimeMillis = normalizedUtcStartDay
+                            + SunshineDateUtils.DAY_IN_MILLIS * forecast.size();
+                    readDayForecast(reader, dateTimeMillis, forecast);
+                }
+                reader.endArray();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (forecast == null) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+
+        if (hasCityCoord) {
+            forecast.setCoordinates(cityLatitude, cityLongitude);
+        }
+
+        return forecast;
+    }
+
+    private static void readDayForecast(JsonReader reader, long dateTimeMillis,
+                                        ForecastBatch forecast)
+            throws IOException, JSONException {
+
+        /*
+         * Each value we store must be in the day, like getDouble/getInt of the tree parser
+         * require. Otherwise a day that was cut short would be stored as 0° with condition 0.
+         */
+        int seen = 0;
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                seen |= SEEN_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                /* JSONObject.getInt truncates fractional values, so we do the same here */
+                humidity = (int) reader.nextDouble();
+                seen |= SEEN_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                seen |= SEEN_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                seen |= SEEN_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        seen |= SEEN_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        seen |= SEEN_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                /* The "weather" array is one element long; we only need that element's id */
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (first) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = reader.nextInt();
+                                seen |= SEEN_WEATHER_ID;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        first = false;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != SEEN_ALL) {
+            throw new JSONException("Day " + forecast.size() + " lacks "
+                    + missingDayValue(seen));
+        }
+
+        forecast.add(dateTimeMillis, weatherId, low, high, humidity, pressure, windSpeed,
+                windDirection);
+    }
+
+    /* The name of a value we store that the day didn't have, for the exception */
+    private static String missingDayValue(int seen) {
+        if ((seen & SEEN_PRESSURE) == 0) {
+            return OWM_PRESSURE;
+        } else if ((seen & SEEN_HUMIDITY) == 0) {
+            return OWM_HUMIDITY;
+        } else if ((seen & SEEN_WIND_SPEED) == 0) {
+            return OWM_WINDSPEED;
+        } else if ((seen & SEEN_WIND_DIRECTION) == 0) {
+            return OWM_WIND_DIRECTION;
+        } else if ((seen & SEEN_MAX) == 0) {
+            return OWM_TEMPERATURE + "." + OWM_MAX;
+        } else if ((seen & SEEN_MIN) == 0) {
+            return OWM_TEMPERATURE + "." + OWM_MIN;
+        }
+        return OWM_WEATHER + "[0]." + OWM_WEATHER_ID;
+    }
+}
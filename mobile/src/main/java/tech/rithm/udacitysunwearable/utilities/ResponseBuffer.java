@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * A reusable byte buffer holding the body of an HTTP response. Buffers are pooled, in the same
+ * spirit as {@link android.os.Message#obtain()}, so that a sync reuses the backing array left
+ * behind by the previous sync instead of allocating a fresh char buffer and String every time.
+ * <p>
+ * Always call {@link #recycle()} once you're done reading from a buffer.
+ */
+public final class ResponseBuffer {
+
+    /* Initial size of a buffer when the server doesn't tell us how long the response is */
+    private static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    /*
+     * Buffers that have grown beyond this aren't kept around once they're recycled. It is also
+     * as much as we trust Content-Length with, a bogus one can't make us allocate more up front.
+     */
+    @VisibleForTesting
+    static final int MAX_POOLED_CAPACITY = 512 * 1024;
+
+    private static final int MAX_POOL_SIZE = 4;
+
+    private static final Object sPoolLock = new Object();
+    private static ResponseBuffer sPool;
+    private static int sPoolSize;
+
+    /* Running total of bytes allocated for backing arrays, used to measure allocations per sync */
+    private static long sBytesAllocated;
+
+    private ResponseBuffer mNext;
+    private byte[] mBytes;
+    private int mLength;
+
+    private int mResponseCode;
+    private String mETag;
+    private String mLastModified;
+
+    private ResponseBuffer() {
+    }
+
+    /**
+     * Returns an empty buffer from the pool, or a new one if the pool is empty.
+     *
+     * @return An empty ResponseBuffer
+     */
+    public static ResponseBuffer obtain() {
+        synchronized (sPoolLock) {
+            if (sPool != null) {
+                ResponseBuffer buffer = sPool;
+                sPool = buffer.mNext;
+                buffer.mNext = null;
+                sPoolSize--;
+                return buffer;
+            }
+        }
+        return new ResponseBuffer();
+    }
+
+    /**
+     * Returns this buffer to the pool. The buffer must not be used after calling this method.
+     */
+    public void recycle() {
+        mLength = 0;
+        mResponseCode = 0;
+        mETag = null;
+        mLastModified = null;
+        if (mBytes != null && mBytes.length > MAX_POOLED_CAPACITY) {
+            mBytes = null;
+        }
+        synchronized (sPoolLock) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    /**
+     * Reads the given stream to its end, replacing the current contents of this buffer.
+     *
+     * @param in            The stream to read
+     * @param expectedLength The length the server announced for the body, or -1 if unknown. This
+     *                       is only a sizing hint, up to {@link #MAX_POOLED_CAPACITY}; the
+     *                       buffer grows if more bytes arrive.
+     * @throws IOException Related to stream reading
+     */
+    void readFrom(InputStream in, int expectedLength) throws IOException {
+        ensureCapacity(expectedLength > 0
+                ? Math.min(expectedLength, MAX_POOLED_CAPACITY) : DEFAULT_CAPACITY);
+        mLength = 0;
+
+        int read;
+        while ((read = in.read(mBytes, mLength, mBytes.length - mLength)) != -1) {
+            mLength += read;
+            if (mLength == mBytes.length) {
+                /* Only grow once we know there's more to come, so an exact Content-Length fits */
+                int next = in.read();
+                if (next == -1) {
+                    break;
+                }
+                ensureCapacity(mBytes.length * 2);
+                mBytes[mLength++] = (byte) next;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mBytes != null && mBytes.length >= capacity) {
+            return;
+        }
+        byte[] bytes = new byte[capacity];
+        if (mBytes != null && mLength > 0) {
+            System.arraycopy(mBytes, 0, bytes, 0, mLength);
+        }
+        mBytes = bytes;
+        synchronized (sPoolLock) {
+            sBytesAllocated += capacity;
+        }
+    }
+
+    void setResponseHeaders(int responseCode, String eTag, String lastModified) {
+        mResponseCode = responseCode;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * @return The HTTP status code of the response held by this buffer
+     */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /**
+     * @return true if the server answered 304 Not Modified, in which case the buffer is empty
+     * and the data we already have is still current
+     */
+    public boolean isNotModified() {
+        return mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * @return The ETag header of the response, or null if the server didn't send one
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * @return The Last-Modified header of the response, or null if the server didn't send one
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * @return The number of valid bytes in this buffer
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * @return A stream over the contents of this buffer. No bytes are copied.
+     */
+    public InputStream asInputStream() {
+        return new ByteArrayInputStream(mBytes != null ? mBytes : new byte[0], 0, mLength);
+    }
+
+    /**
+     * @return The total number of bytes allocated for response buffers since the process started
+     */
+    public static long getBytesAllocated() {
+        synchronized (sPoolLock) {
+            return sBytesAllocated;
+        }
+    }
+}
@@ -55,9 +55,7 @@ public final class SunshineWeatherUtils {
      * "21°"
      */
     public static String formatTemperature(Context context, double temperature) {
-        if (!SunshinePreferences.isMetric(context)) {
-            temperature = celsiusToFahrenheit(temperature);
-        }
+        temperature = toPreferredUnit(context, temperature);
 
         int temperatureFormatResourceId = R.string.format_temperature;
 
@@ -65,6 +63,22 @@ public final class SunshineWeatherUtils {
         return String.format(context.getString(temperatureFormatResourceId), temperature);
     }
 
+    /**
+     * Converts a temperature to the user's preferred unit, without rounding it. This is the
+     * conversion {@link #formatTemperature} does before formatting.
+     *
+     * @param context     Android Context to access preferences
+     * @param temperature Temperature in degrees Celsius (°C)
+     *
+     * @return The temperature in degrees of the user's preferred unit
+     */
+    public static double toPreferredUnit(Context context, double temperature) {
+        if (!SunshinePreferences.isMetric(context)) {
+            return celsiusToFahrenheit(temperature);
+        }
+        return temperature;
+    }
+
     /**
      * This method will format the temperatures to be displayed in the
      * following form: "HIGH° / LOW°"
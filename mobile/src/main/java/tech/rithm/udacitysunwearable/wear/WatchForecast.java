@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+import tech.rithm.udacitysunwearable.shared.Forecast;
+
+/**
+ * The forecast the watch is sent, in the order of its dates, the first day today.
+ * <p>
+ * Two kinds of fingerprints tell whether the watch needs an update: {@link #getFingerprint()}
+ * covers the whole forecast, and {@link #getDayFingerprints()} has one for each day. When a
+ * new forecast only adds a day at the end and drops yesterday, the watch already has today and
+ * can get the rest in the background. Both cover the unit the watch shows the days in.
+ */
+public final class WatchForecast {
+
+    private final Forecast mForecast;
+
+    public WatchForecast(Forecast forecast) {
+        mForecast = forecast;
+    }
+
+    public Forecast getForecast() {
+        return mForecast;
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of all days.
+     */
+    public long getFingerprint() {
+        long hash = mix(FNV_OFFSET_BASIS, mForecast.getDays().size());
+        for (DayForecast day : mForecast.getDays()) {
+            hash = mix(hash, day);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a 64 bit FNV-1a hash of each day, date included.
+     */
+    public long[] getDayFingerprints() {
+        long[] fingerprints = new long[mForecast.getDays().size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            fingerprints[i] = mix(FNV_OFFSET_BASIS, mForecast.getDays().get(i));
+        }
+        return fingerprints;
+    }
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long mix(long hash, DayForecast day) {
+        hash = mix(hash, mForecast.isFahrenheit() ? 1 : 0);
+        hash = mix(hash, day.getDate());
+        hash = mix(hash, day.getMaxTemp());
+        hash = mix(hash, day.getMinTemp());
+        return mix(hash, day.getWeatherId());
+    }
+
+    private static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash ^= (value >>> shift) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
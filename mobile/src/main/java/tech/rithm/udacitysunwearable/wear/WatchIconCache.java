@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import tech.rithm.udacitysunwearable.R;
+import tech.rithm.udacitysunwearable.utilities.SunshineWeatherUtils;
+
+import com.google.android.gms.wearable.Asset;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The encoded weather icons sent to the watch, by drawable resource id.
+ * <p>
+ * Only a handful of icons exist, see {@link #getIconResIds()}, so each is encoded once and the
+ * same bytes are used for every send. Identical bytes make an identical {@link Asset} digest,
+ * which lets the Data Layer skip transferring an icon the watch already has.
+ * <p>
+ * The icons are PNG files already, so they are normally taken from the resources as they are,
+ * without decoding and re-encoding them. {@link #prewarmInBackground(Resources)} loads them all
+ * at startup so a send never has to. Loads happen outside any lock, so a send never waits for
+ * the prewarm to load some other icon.
+ */
+public final class WatchIconCache {
+
+    /**
+     * Produces the encoded bytes of an icon.
+     */
+    public interface Loader {
+        byte[] load(int resId) throws IOException;
+    }
+
+    private static final byte[] PNG_SIGNATURE = {
+            (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+    private static final String TAG = WatchIconCache.class.getSimpleName();
+
+    private static WatchIconCache sInstance;
+    private static boolean sPrewarmStarted;
+
+    private final Loader mLoader;
+    private final ConcurrentMap<Integer, byte[]> mIcons = new ConcurrentHashMap<>();
+    private final AtomicInteger mLoads = new AtomicInteger();
+
+    public WatchIconCache(Loader loader) {
+        mLoader = loader;
+    }
+
+    /**
+     * Returns the cache of the app, loading icons from its resources.
+     */
+    public static synchronized WatchIconCache getInstance(final Resources resources) {
+        if (sInstance == null) {
+            sInstance = new WatchIconCache(new Loader() {
+                @Override
+                public byte[] load(int resId) throws IOException {
+                    return loadPng(resources, resId);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns every icon the watch can be sent. Keep this in step with
+     * {@link SunshineWeatherUtils#getSmallArtResourceIdForWeatherCondition(int)}; an icon
+     * missing here still works, it's just loaded on its first send.
+     */
+    public static int[] getIconResIds() {
+        return new int[]{
+                R.drawable.ic_storm,
+                R.drawable.ic_light_rain,
+                R.drawable.ic_rain,
+                R.drawable.ic_snow,
+                R.drawable.ic_fog,
+                R.drawable.ic_clear,
+                R.drawable.ic_light_clouds,
+                R.drawable.ic_cloudy};
+    }
+
+    /**
+     * Loads every icon of the app's cache on a background thread. Only the first call does, so
+     * it's fine to call from every onCreate.
+     */
+    public static synchronized void prewarmInBackground(Resources resources) {
+        if (sPrewarmStarted) {
+            return;
+        }
+        sPrewarmStarted = true;
+        final WatchIconCache cache = getInstance(resources);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                cache.prewarm();
+            }
+        }, "sunshine-watch-icons");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads every icon that isn't loaded yet. This does I/O, don't call it on the main thread.
+     */
+    public void prewarm() {
+        for (int resId : getIconResIds()) {
+            try {
+                getIconBytes(resId);
+            } catch (IOException e) {
+                /* It will be tried again when it's needed */
+                Log.w(TAG, "Couldn't load watch icon " + resId, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded icon, loading it the first time. Don't modify the returned array.
+     *
+     * @param resId The drawable resource id of the icon
+     * @return The PNG bytes of the icon
+     * @throws IOException If the icon couldn't be loaded
+     */
+    public byte[] getIconBytes(int resId) throws IOException {
+        byte[] bytes = mIcons.get(resId);
+        if (bytes != null) {
+            return bytes;
+        }
+        /*
+         * Two threads may both load an icon the first time. Only one result is kept, so every
+         * send still gets the same bytes.
+         */
+        bytes = mLoader.load(resId);
+        mLoads.incrementAndGet();
+        byte[] loaded = mIcons.putIfAbsent(resId, bytes);
+        return loaded != null ? loaded : bytes;
+    }
+
+    /**
+     * Returns the icon as an asset for a data item.
+     *
+     * @param resId The drawable resource id of the icon
+     * @return The asset
+     * @throws IOException If the icon couldn't be loaded
+     */
+    public Asset getAsset(int resId) throws IOException {
+        return Asset.createFromBytes(getIconBytes(resId));
+    }
+
+    /** Number of icons loaded, as opposed to found in the cache. */
+    public int getLoadCount() {
+        return mLoads.get();
+    }
+
+    /*
+     * Reads the PNG file of the resource as it is. If the resource is something else, for
+     * instance a vector drawable, it's drawn and encoded instead.
+     */
+    private static byte[] loadPng(Resources resources, int resId) throws IOException {
+        InputStream in = resources.openRawResource(resId);
+        byte[] bytes;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            bytes = out.toByteArray();
+        } finally {
+            in.close();
+        }
+
+        if (isPng(bytes)) {
+            return bytes;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeResource(resources, resId);
+        if (bitmap == null) {
+            throw new IOException("Resource " + resId + " is not a bitmap");
+        }
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        return byteStream.toByteArray();
+    }
+
+    private static boolean isPng(byte[] bytes) {
+        if (bytes.length < PNG_SIGNATURE.length) {
+            return false;
+        }
+        for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+            if (bytes[i] != PNG_SIGNATURE[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
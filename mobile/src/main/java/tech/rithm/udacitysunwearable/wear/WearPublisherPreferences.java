@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Saves what {@link WearWeatherPublisher} last sent to the watch, in a preferences file of its
+ * own, so a restarted app doesn't send the same forecast again.
+ */
+public final class WearPublisherPreferences {
+
+    /* Fingerprints of the forecast last sent to the watch */
+    private static final String WEAR_PUBLISHER_FILE = "wear_publisher";
+    private static final String PREF_WEAR_FINGERPRINT = "fingerprint";
+    private static final String PREF_WEAR_DAY_FINGERPRINTS = "day_fingerprints";
+
+    private WearPublisherPreferences() {
+    }
+
+    /**
+     * Restores what the watch was last sent, as saved by {@link #save}. Does nothing if
+     * nothing was sent yet.
+     *
+     * @param context   Used to access SharedPreferences
+     * @param publisher The publisher to restore
+     */
+    public static void restore(Context context, WearWeatherPublisher publisher) {
+        SharedPreferences sp = context.getSharedPreferences(WEAR_PUBLISHER_FILE, Context.MODE_PRIVATE);
+        if (!sp.contains(PREF_WEAR_FINGERPRINT)) {
+            return;
+        }
+        /* Saved as a comma separated list, there's no getter for a long[] */
+        String saved = sp.getString(PREF_WEAR_DAY_FINGERPRINTS, "");
+        String[] parts = saved.isEmpty() ? new String[0] : saved.split(",");
+        long[] dayFingerprints = new long[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                dayFingerprints[i] = Long.parseLong(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            /* Saved by an older version; sending the forecast again is all it costs */
+            return;
+        }
+        publisher.restore(sp.getLong(PREF_WEAR_FINGERPRINT, 0), dayFingerprints);
+    }
+
+    /**
+     * Saves what the watch was last sent, or forgets it if the publisher has nothing to
+     * remember.
+     *
+     * @param context   Used to access SharedPreferences
+     * @param publisher The publisher to save
+     */
+    public static void save(Context context, WearWeatherPublisher publisher) {
+        SharedPreferences sp = context.getSharedPreferences(WEAR_PUBLISHER_FILE, Context.MODE_PRIVATE);
+        if (!publisher.hasPublished()) {
+            sp.edit().clear().apply();
+            return;
+        }
+        StringBuilder dayFingerprints = new StringBuilder();
+        for (long fingerprint : publisher.getDayFingerprints()) {
+            if (dayFingerprints.length() > 0) {
+                dayFingerprints.append(',');
+            }
+            dayFingerprints.append(fingerprint);
+        }
+        sp.edit()
+                .putLong(PREF_WEAR_FINGERPRINT, publisher.getFingerprint())
+                .putString(PREF_WEAR_DAY_FINGERPRINTS, dayFingerprints.toString())
+                .apply();
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import java.util.Arrays;
+
+/**
+ * Decides when the forecast is sent to the watch.
+ * <p>
+ * Every data item put through the Data Layer that differs from the last one is synced over
+ * Bluetooth, and an urgent one wakes the watch up to receive it. The phone asks to publish
+ * whenever its forecast reloads, which is far more often than the forecast changes. So this
+ * only hands the forecast to the {@link Sink} when its fingerprint changed since the last
+ * publish, and only marks it urgent when the watch doesn't have today as it is now. The watch
+ * moves on to the next day by itself, so a forecast that only rolled over a day goes out in the
+ * background. A watch that asks for the forecast has none, so it gets it either way.
+ * <p>
+ * The fingerprints of the last publish can be saved and restored, so a restarted app doesn't
+ * send the watch what it already has. It isn't thread safe, call it from the main thread.
+ */
+public final class WearWeatherPublisher {
+
+    /**
+     * Puts the forecast into the Data Layer.
+     */
+    public interface Sink {
+        /**
+         * @param forecast The forecast to send
+         * @param urgent   Whether the watch should be woken up to receive it right away
+         */
+        void putForecast(WatchForecast forecast, boolean urgent);
+    }
+
+    private static final long[] NO_DAYS = new long[0];
+
+    private final Sink mSink;
+
+    private boolean mPublished;
+    private long mFingerprint;
+    private long[] mDayFingerprints = NO_DAYS;
+
+    private int mPublishCount;
+    private int mUrgentCount;
+    private int mSkippedCount;
+
+    public WearWeatherPublisher(Sink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Restores the fingerprints of the forecast that was last published successfully.
+     */
+    public void restore(long fingerprint, long[] dayFingerprints) {
+        mPublished = true;
+        mFingerprint = fingerprint;
+        mDayFingerprints = dayFingerprints;
+    }
+
+    /**
+     * Sends the forecast to the watch, unless it already has it.
+     *
+     * @param forecast The forecast, starting today
+     * @return true if the forecast was handed to the sink
+     */
+    public boolean publish(WatchForecast forecast) {
+        return publish(forecast, false);
+    }
+
+    /**
+     * Sends the forecast to the watch. When forced, it is sent even if we published it last,
+     * for a watch that asked because it has no forecast at all. That watch is awake, so a
+     * forced send is never urgent.
+     *
+     * @param forecast The forecast, starting today
+     * @param force    Whether to send it even if the watch should already have it
+     * @return true if the forecast was handed to the sink
+     */
+    public boolean publish(WatchForecast forecast, boolean force) {
+        long fingerprint = forecast.getFingerprint();
+        long[] dayFingerprints = forecast.getDayFingerprints();
+
+        if (!force && mPublished && fingerprint == mFingerprint) {
+            mSkippedCount++;
+            return false;
+        }
+
+        boolean urgent = !force && (!mPublished || dayFingerprints.length == 0
+                || !contains(mDayFingerprints, dayFingerprints[0]));
+        mPublished = true;
+        mFingerprint = fingerprint;
+        mDayFingerprints = dayFingerprints;
+
+        mPublishCount++;
+        if (urgent) {
+            mUrgentCount++;
+        }
+        mSink.putForecast(forecast, urgent);
+        return true;
+    }
+
+    private static boolean contains(long[] fingerprints, long fingerprint) {
+        for (long f : fingerprints) {
+            if (f == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the last publish after the Data Layer failed to store it, so the next call to
+     * {@link #publish} tries again.
+     */
+    public void onPublishFailed() {
+        mPublished = false;
+    }
+
+    public boolean hasPublished() {
+        return mPublished;
+    }
+
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    public long[] getDayFingerprints() {
+        return Arrays.copyOf(mDayFingerprints, mDayFingerprints.length);
+    }
+
+    /** Number of data items handed to the sink, each one a Bluetooth transfer. */
+    public int getPublishCount() {
+        return mPublishCount;
+    }
+
+    /** Number of urgent data items, each one waking the watch up. */
+    public int getUrgentCount() {
+        return mUrgentCount;
+    }
+
+    /** Number of publish requests that were skipped because the watch had the weather. */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
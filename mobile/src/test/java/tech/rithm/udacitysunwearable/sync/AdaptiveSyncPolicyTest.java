@@ -0,0 +1,176 @@
+package tech.rithm.udacitysunwearable.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AdaptiveSyncPolicy}, driven by a simulated clock. A fake server
+ * changes its forecast at known times, and we measure how many syncs the policy runs and how
+ * long each change takes to reach us, compared with a fixed 3 hour schedule.
+ */
+public class AdaptiveSyncPolicyTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private static final int BUDGET = 12;
+
+    private static final AdaptiveSyncPolicy.Config CONFIG = new AdaptiveSyncPolicy.Config(
+            3, 1, 12, TimeUnit.HOURS, BUDGET, 2.0);
+
+    /* The fixed schedule we compare against: the same base interval, never adapting */
+    private static final AdaptiveSyncPolicy.Config FIXED = new AdaptiveSyncPolicy.Config(
+            3, 3, 3, TimeUnit.HOURS, Integer.MAX_VALUE, 2.0);
+
+    /*
+     * A fake server whose forecast changes at the given times. Each change moves the temperature
+     * by the given delta.
+     */
+    private static final class SimulatedServer {
+        final List<Long> mChangeTimes = new ArrayList<>();
+        final double mDelta;
+
+        SimulatedServer(double delta) {
+            mDelta = delta;
+        }
+
+        SimulatedServer changeEvery(long from, long to, long period) {
+            for (long t = from; t < to; t += period) {
+                mChangeTimes.add(t);
+            }
+            return this;
+        }
+
+        /* Number of changes made up to and including the given time */
+        int versionAt(long time) {
+            int version = 0;
+            for (long changeTime : mChangeTimes) {
+                if (changeTime <= time) {
+                    version++;
+                }
+            }
+            return version;
+        }
+    }
+
+    /* What happened over one simulated run */
+    private static final class Run {
+        int syncs;
+        long totalDetectionLag;
+        int changesDetected;
+        int maxSyncsInBudgetDay;
+
+        double meanDetectionLagHours() {
+            return (double) totalDetectionLag / changesDetected / HOUR;
+        }
+    }
+
+    private static Run simulate(AdaptiveSyncPolicy policy, SimulatedServer server,
+                                long start, long end) {
+        Run run = new Run();
+        int ourVersion = server.versionAt(start);
+        long now = start;
+
+        while (true) {
+            now += policy.getNextSyncDelayMillis(now);
+            if (now >= end) {
+                break;
+            }
+            if (!policy.onScheduledSync(now)) {
+                continue;
+            }
+            run.syncs++;
+            run.maxSyncsInBudgetDay = Math.max(run.maxSyncsInBudgetDay, policy.getSyncsToday());
+
+            int serverVersion = server.versionAt(now);
+            if (serverVersion == ourVersion) {
+                policy.onSyncUnchanged(now);
+                continue;
+            }
+
+            /* Every change we missed since the last sync is detected now */
+            for (int v = ourVersion; v < serverVersion; v++) {
+                run.totalDetectionLag += now - server.mChangeTimes.get(v);
+                run.changesDetected++;
+            }
+            ourVersion = serverVersion;
+            policy.onSyncChanged(now, server.mDelta, 0);
+        }
+        return run;
+    }
+
+    @Test
+    public void stableForecast_avoidsSyncs() {
+        SimulatedServer server = new SimulatedServer(0);
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(CONFIG, 0);
+
+        Run run = simulate(policy, server, 0, 7 * DAY);
+
+        /* A fixed 3 hour schedule syncs 56 times a week */
+        assertTrue("syncs: " + run.syncs, run.syncs < 20);
+        assertTrue(policy.getSyncsAvoided(7 * DAY) > 36);
+        assertEquals(12 * HOUR, policy.getIntervalMillis());
+    }
+
+    @Test
+    public void volatileForecast_isFresherThanFixedSchedule() {
+        SimulatedServer server = new SimulatedServer(5).changeEvery(0, 3 * DAY, 100 * 60 * 1000);
+
+        Run adaptive = simulate(new AdaptiveSyncPolicy(CONFIG, 0), server, 0, 3 * DAY);
+        Run fixed = simulate(new AdaptiveSyncPolicy(FIXED, 0), server, 0, 3 * DAY);
+
+        assertTrue("adaptive " + adaptive.meanDetectionLagHours()
+                        + "h, fixed " + fixed.meanDetectionLagHours() + "h",
+                adaptive.meanDetectionLagHours() < fixed.meanDetectionLagHours());
+    }
+
+    @Test
+    public void volatileForecast_staysWithinBudget() {
+        SimulatedServer server = new SimulatedServer(5).changeEvery(0, 7 * DAY, 30 * 60 * 1000);
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(CONFIG, 0);
+
+        Run run = simulate(policy, server, 0, 7 * DAY);
+
+        assertTrue(run.maxSyncsInBudgetDay <= BUDGET);
+        assertTrue("syncs: " + run.syncs, run.syncs <= 7 * BUDGET);
+        assertTrue(policy.getSyncsSkipped() == 0 || run.maxSyncsInBudgetDay == BUDGET);
+    }
+
+    @Test
+    public void failures_backOffExponentiallyUpToMax() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(CONFIG, 0);
+
+        policy.onSyncFailed(HOUR);
+        assertEquals(6 * HOUR, policy.getIntervalMillis());
+        policy.onSyncFailed(2 * HOUR);
+        assertEquals(12 * HOUR, policy.getIntervalMillis());
+        policy.onSyncFailed(3 * HOUR);
+        assertEquals(12 * HOUR, policy.getIntervalMillis());
+
+        /* A small change brings the base interval back */
+        policy.onSyncChanged(4 * HOUR, 0.5, 0);
+        assertEquals(3 * HOUR, policy.getIntervalMillis());
+        assertEquals(0, policy.getDataAgeMillis(4 * HOUR));
+    }
+
+    @Test
+    public void restoredPolicy_keepsState() {
+        AdaptiveSyncPolicy policy = new AdaptiveSyncPolicy(CONFIG, 0);
+        policy.onScheduledSync(HOUR);
+        policy.onSyncChanged(HOUR, 10, 1);
+
+        AdaptiveSyncPolicy restored = new AdaptiveSyncPolicy(CONFIG, 5 * HOUR);
+        restored.restore(policy.getIntervalMillis(), policy.getBudgetDayStart(),
+                policy.getSyncsToday(), policy.getTrackingSince(), policy.getSyncsRun(),
+                policy.getSyncsUnchanged(), policy.getSyncsSkipped(), policy.getLastFreshSync());
+
+        assertEquals(HOUR + HOUR / 2, restored.getIntervalMillis());
+        assertEquals(1, restored.getSyncsToday());
+        assertEquals(4 * HOUR, restored.getDataAgeMillis(5 * HOUR));
+    }
+}
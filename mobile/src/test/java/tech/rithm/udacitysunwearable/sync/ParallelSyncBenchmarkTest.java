@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tech.rithm.udacitysunwearable.utilities.CancellationToken;
+import tech.rithm.udacitysunwearable.utilities.NetworkUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fetches the forecasts of 50 locations from a local server that takes its time to answer,
+ * the way {@link SunshineSyncTask} fans a multi-location sync out, and checks the sync takes
+ * about as long as its slowest request rather than as long as all of them together.
+ */
+public class ParallelSyncBenchmarkTest {
+
+    private static final int LOCATIONS = 50;
+
+    private static final long RESPONSE_MILLIS = 200;
+
+    /* One location is slower than the others, the sync can't be faster than it */
+    private static final int SLOW_LOCATION = 17;
+    private static final long SLOW_RESPONSE_MILLIS = 600;
+
+    private static final byte[] FORECAST = "{\"list\":[]}".getBytes();
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private ExecutorService mFetchExecutor;
+
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), LOCATIONS);
+        mServer.createContext("/forecast/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int inFlight = mInFlight.incrementAndGet();
+                while (true) {
+                    int max = mMaxInFlight.get();
+                    if (inFlight <= max || mMaxInFlight.compareAndSet(max, inFlight)) {
+                        break;
+                    }
+                }
+
+                String path = exchange.getRequestURI().getPath();
+                int location = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                try {
+                    Thread.sleep(location == SLOW_LOCATION ? SLOW_RESPONSE_MILLIS
+                            : RESPONSE_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+
+                exchange.sendResponseHeaders(200, FORECAST.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(FORECAST);
+                out.close();
+            }
+        });
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+
+        /* Sized like the fetch pool of the sync, which is a SyncExecutor on a device */
+        mFetchExecutor = Executors.newFixedThreadPool(SunshineSyncTask.MAX_CONCURRENT_FETCHES);
+    }
+
+    @After
+    public void stopServer() {
+        mFetchExecutor.shutdownNow();
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void syncTakesAsLongAsItsSlowestRequest() throws Exception {
+        final AtomicInteger fetched = new AtomicInteger();
+        CancellationToken cancel = new CancellationToken();
+
+        /* Once first, so threads, connections and classes are there before we time it */
+        SunshineSyncTask.runConcurrently(mFetchExecutor, fetches(fetched, cancel), cancel);
+        fetched.set(0);
+
+        long start = System.nanoTime();
+        SunshineSyncTask.runConcurrently(mFetchExecutor, fetches(fetched, cancel), cancel);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long serialMillis = (LOCATIONS - 1) * RESPONSE_MILLIS + SLOW_RESPONSE_MILLIS;
+        System.out.println(String.format("%d locations in %d ms, %d ms one after the other, "
+                        + "slowest %d ms, at most %d at once", LOCATIONS, millis, serialMillis,
+                SLOW_RESPONSE_MILLIS, mMaxInFlight.get()));
+
+        assertEquals(LOCATIONS, fetched.get());
+        assertEquals(LOCATIONS, mMaxInFlight.get());
+        assertTrue("Took " + millis + " ms", millis < 2 * SLOW_RESPONSE_MILLIS);
+    }
+
+    @Test
+    public void cancelStopsEveryFetch() throws Exception {
+        final AtomicInteger fetched = new AtomicInteger();
+        final CancellationToken cancel = new CancellationToken();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(RESPONSE_MILLIS / 2);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cancel.cancel();
+            }
+        }).start();
+
+        long start = System.nanoTime();
+        SunshineSyncTask.runConcurrently(mFetchExecutor, fetches(fetched, cancel), cancel);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        /* The connections were closed under the fetches, none of them got its forecast */
+        assertEquals(0, fetched.get());
+        assertTrue("Took " + millis + " ms", millis < SLOW_RESPONSE_MILLIS);
+    }
+
+    private List<Runnable> fetches(final AtomicInteger fetched, final CancellationToken cancel)
+            throws IOException {
+        List<Runnable> fetches = new ArrayList<>(LOCATIONS);
+        for (int i = 0; i < LOCATIONS; i++) {
+            final URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                    + "/forecast/" + i);
+            fetches.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        NetworkUtils.getResponseBufferFromHttpUrl(url, cancel).recycle();
+                        fetched.incrementAndGet();
+                    } catch (IOException | CancellationException e) {
+                        /* Counted by what didn't get fetched */
+                    }
+                }
+            });
+        }
+        return fetches;
+    }
+}
@@ -0,0 +1,127 @@
+package tech.rithm.udacitysunwearable.sync;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SingleFlight}, which runs on the development machine (host).
+ */
+public class SingleFlightTest {
+
+    private static final int TRIGGERS = 100;
+
+    @Test
+    public void concurrentTriggers_shareOneCall() throws Exception {
+        final SingleFlight<Integer> flight = new SingleFlight<>(200, TimeUnit.MILLISECONDS);
+        final AtomicInteger networkCalls = new AtomicInteger();
+        final Callable<Integer> fetch = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Thread.sleep(50);
+                return networkCalls.incrementAndGet();
+            }
+        };
+
+        ExecutorService triggers = Executors.newFixedThreadPool(TRIGGERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<>(TRIGGERS);
+        for (int i = 0; i < TRIGGERS; i++) {
+            results.add(triggers.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    start.await();
+                    return flight.run(fetch);
+                }
+            }));
+        }
+        start.countDown();
+
+        for (Future<Integer> result : results) {
+            assertEquals(1, (int) result.get(5, TimeUnit.SECONDS));
+        }
+        triggers.shutdown();
+
+        assertEquals(1, networkCalls.get());
+    }
+
+    @Test
+    public void triggersDuringFlight_shareOneFollowUpCall() throws Exception {
+        final SingleFlight<Integer> flight = new SingleFlight<>(0, TimeUnit.MILLISECONDS);
+        final AtomicInteger networkCalls = new AtomicInteger();
+        final CountDownLatch firstCallStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstCall = new CountDownLatch(1);
+        final Callable<Integer> fetch = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                int call = networkCalls.incrementAndGet();
+                if (call == 1) {
+                    firstCallStarted.countDown();
+                    releaseFirstCall.await();
+                }
+                return call;
+            }
+        };
+
+        ExecutorService triggers = Executors.newFixedThreadPool(TRIGGERS + 1);
+        Future<Integer> first = triggers.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return flight.run(fetch);
+            }
+        });
+        firstCallStarted.await();
+
+        /* These were requested after the first call started, so it can't answer them */
+        List<Future<Integer>> later = new ArrayList<>(TRIGGERS);
+        for (int i = 0; i < TRIGGERS; i++) {
+            later.add(triggers.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return flight.run(fetch);
+                }
+            }));
+        }
+        /* Give them time to line up behind the running call */
+        Thread.sleep(100);
+        releaseFirstCall.countDown();
+
+        assertEquals(1, (int) first.get(5, TimeUnit.SECONDS));
+        for (Future<Integer> result : later) {
+            assertEquals(2, (int) result.get(5, TimeUnit.SECONDS));
+        }
+        triggers.shutdown();
+
+        assertEquals(2, networkCalls.get());
+    }
+
+    @Test
+    public void queuedRequest_isAnsweredByLaterFlight() throws Exception {
+        SingleFlight<Integer> flight = new SingleFlight<>(0, TimeUnit.MILLISECONDS);
+        final AtomicInteger networkCalls = new AtomicInteger();
+        Callable<Integer> fetch = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return networkCalls.incrementAndGet();
+            }
+        };
+
+        long queuedAt = SingleFlight.now();
+        assertEquals(1, (int) flight.run(fetch));
+
+        /* A request that was made before that call started, e.g. one queued in an IntentService */
+        assertEquals(1, (int) flight.run(queuedAt, fetch));
+
+        assertEquals(1, networkCalls.get());
+    }
+}
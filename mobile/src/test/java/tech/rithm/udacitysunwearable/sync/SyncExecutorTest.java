@@ -0,0 +1,43 @@
+package tech.rithm.udacitysunwearable.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SyncExecutor}, which runs on the development machine (host).
+ */
+public class SyncExecutorTest {
+
+    @Test
+    public void growingThePool_raisesBothSizes() {
+        SyncExecutor executor = new SyncExecutor("test", 1, 0);
+
+        executor.setPoolSize(3);
+
+        assertEquals(3, executor.getCorePoolSize());
+        assertEquals(3, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void shrinkingThePool_lowersBothSizes() {
+        SyncExecutor executor = new SyncExecutor("test", 4, 0);
+
+        executor.setPoolSize(2);
+
+        assertEquals(2, executor.getCorePoolSize());
+        assertEquals(2, executor.getMaximumPoolSize());
+        executor.shutdown();
+    }
+
+    @Test
+    public void emptyJobPool_isRejected() {
+        try {
+            SyncExecutor.setJobPoolSize(0);
+            fail("A job pool without threads was accepted");
+        } catch (IllegalArgumentException expected) {
+            /* Nothing would ever run */
+        }
+    }
+}
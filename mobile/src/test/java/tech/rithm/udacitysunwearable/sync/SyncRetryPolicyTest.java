@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.sync;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tech.rithm.udacitysunwearable.utilities.NetworkUtils;
+import tech.rithm.udacitysunwearable.utilities.ResponseBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncRetryPolicyTest {
+
+    /*
+     * A local stand-in for the weather server that answers every request with the status it is
+     * told to, so failures can be produced on demand.
+     */
+    private HttpServer mServer;
+    private final AtomicInteger mStatus = new AtomicInteger(200);
+    private final AtomicInteger mRequests = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                byte[] body = "{\"cod\":\"200\",\"list\":[]}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(mStatus.get(), body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+    }
+
+    private URL serverUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/forecast");
+    }
+
+    /* Fetches the URL the way a sync does and classifies the outcome the same way */
+    private static SyncResult fetch(URL url) {
+        try {
+            ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(url);
+            response.recycle();
+            return SyncResult.SUCCESS;
+        } catch (Exception e) {
+            return SyncResult.fromNetworkException(e);
+        }
+    }
+
+    @Test
+    public void classifiesHttpFailures() throws IOException {
+        URL url = serverUrl();
+
+        mStatus.set(200);
+        assertEquals(SyncResult.SUCCESS, fetch(url));
+
+        mStatus.set(503);
+        assertEquals(SyncResult.SERVER_ERROR, fetch(url));
+
+        mStatus.set(429);
+        assertEquals(SyncResult.SERVER_ERROR, fetch(url));
+
+        mStatus.set(404);
+        assertEquals(SyncResult.CLIENT_ERROR, fetch(url));
+
+        /* Nothing listens on a port we just released */
+        ServerSocket socket = new ServerSocket(0);
+        int closedPort = socket.getLocalPort();
+        socket.close();
+        assertEquals(SyncResult.NETWORK_ERROR,
+                fetch(new URL("http://127.0.0.1:" + closedPort + "/forecast")));
+    }
+
+    @Test
+    public void outageOpensCircuitAndRecoveryClosesIt() throws IOException {
+        URL url = serverUrl();
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(42));
+        long now = 0;
+
+        /* The server goes down. Each failure is retried a little later than the one before. */
+        mStatus.set(503);
+        long previousCeiling = 0;
+        for (int i = 1; i < SyncRetryPolicy.CIRCUIT_BREAKER_THRESHOLD; i++) {
+            long delay = policy.onResult(fetch(url), now);
+            long ceiling = SyncRetryPolicy.BASE_DELAY_MILLIS << (i - 1);
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(ceiling > previousCeiling);
+            previousCeiling = ceiling;
+            now += delay;
+        }
+
+        /* One more and the circuit opens */
+        long openFor = policy.onResult(fetch(url), now);
+        assertEquals(SyncRetryPolicy.BASE_OPEN_MILLIS, openFor);
+        assertTrue(policy.isCircuitOpen(now));
+
+        /* While it's open, syncs don't reach the server */
+        int requests = mRequests.get();
+        for (long t = now; t < now + openFor; t += SyncRetryPolicy.BASE_OPEN_MILLIS / 10) {
+            assertFalse(policy.allowRequest(t));
+            assertEquals(now + openFor - t, policy.onResult(SyncResult.CIRCUIT_OPEN, t));
+        }
+        assertEquals(requests, mRequests.get());
+        now += openFor;
+
+        /* The probe fails, so the circuit stays open twice as long */
+        assertTrue(policy.allowRequest(now));
+        assertEquals(2 * SyncRetryPolicy.BASE_OPEN_MILLIS, policy.onResult(fetch(url), now));
+        now += 2 * SyncRetryPolicy.BASE_OPEN_MILLIS;
+
+        /* The server is back. The probe succeeds and everything is reset. */
+        mStatus.set(200);
+        assertEquals(SyncRetryPolicy.NO_RETRY, policy.onResult(fetch(url), now));
+        assertFalse(policy.isCircuitOpen(now));
+        assertEquals(0, policy.getConsecutiveFailures());
+        assertEquals(0, policy.getCircuitTrips());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws IOException {
+        mStatus.set(404);
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(42));
+
+        for (int i = 0; i < 2 * SyncRetryPolicy.CIRCUIT_BREAKER_THRESHOLD; i++) {
+            assertEquals(SyncRetryPolicy.NO_RETRY, policy.onResult(fetch(serverUrl()), 0));
+        }
+        assertFalse(policy.isCircuitOpen(0));
+    }
+
+    @Test
+    public void networkErrorsBackOffWithoutOpeningCircuit() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(42));
+
+        for (int i = 0; i < 20; i++) {
+            long delay = policy.onResult(SyncResult.NETWORK_ERROR, 0);
+            assertTrue(delay >= 0 && delay <= SyncRetryPolicy.MAX_DELAY_MILLIS);
+        }
+        assertFalse(policy.isCircuitOpen(0));
+    }
+
+    @Test
+    public void jitterSpreadsRetries() {
+        /*
+         * Many devices failing at the same moment shouldn't come back at the same moment: their
+         * first retries are spread over the upper half of the base delay.
+         */
+        Random random = new Random(42);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int device = 0; device < 1000; device++) {
+            SyncRetryPolicy policy = new SyncRetryPolicy(random);
+            long delay = policy.onResult(SyncResult.SERVER_ERROR, 0);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        long base = SyncRetryPolicy.BASE_DELAY_MILLIS;
+        assertTrue(min >= base / 2);
+        assertTrue(max <= base);
+        assertTrue(max - min > base / 3);
+    }
+
+    @Test
+    public void serverErrorsWinOverOtherFailures() {
+        /* A sync where some locations timed out and others got a 5xx still counts as a 5xx */
+        assertEquals(SyncResult.SERVER_ERROR,
+                SyncResult.NETWORK_ERROR.combine(SyncResult.SERVER_ERROR));
+        assertEquals(SyncResult.SERVER_ERROR,
+                SyncResult.SERVER_ERROR.combine(SyncResult.NETWORK_ERROR));
+        assertEquals(SyncResult.SERVER_ERROR,
+                SyncResult.SERVER_ERROR.combine(SyncResult.DATABASE_ERROR));
+
+        /* Retryable failures win over the others, so the sync is retried */
+        assertEquals(SyncResult.NETWORK_ERROR,
+                SyncResult.CLIENT_ERROR.combine(SyncResult.NETWORK_ERROR));
+        assertEquals(SyncResult.DATABASE_ERROR,
+                SyncResult.DATABASE_ERROR.combine(SyncResult.PARSE_ERROR));
+
+        assertEquals(SyncResult.CANCELED, SyncResult.SERVER_ERROR.combine(SyncResult.CANCELED));
+        assertEquals(SyncResult.CLIENT_ERROR, SyncResult.SUCCESS.combine(SyncResult.CLIENT_ERROR));
+    }
+
+    @Test
+    public void partialServerErrorsDoNotOpenCircuit() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(42));
+
+        for (int i = 0; i < 2 * SyncRetryPolicy.CIRCUIT_BREAKER_THRESHOLD; i++) {
+            long delay = policy.onResult(SyncResult.PARTIAL_SERVER_ERROR, 0);
+            assertTrue(delay > 0);
+        }
+        assertFalse(policy.isCircuitOpen(0));
+    }
+
+    @Test
+    public void internalErrorsAreNotRetried() {
+        SyncRetryPolicy policy = new SyncRetryPolicy(new Random(42));
+
+        assertTrue(SyncResult.INTERNAL_ERROR.isFailure());
+        assertEquals(SyncRetryPolicy.NO_RETRY, policy.onResult(SyncResult.INTERNAL_ERROR, 0));
+        assertFalse(policy.isCircuitOpen(0));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CancellationTokenTest {
+
+    /* How long a canceled request may take to give up, the server would take far longer */
+    private static final long MAX_STOP_LATENCY_MILLIS = 1000;
+    private static final long SERVER_DELAY_MILLIS = 30000;
+
+    /* A server that accepts requests and then never gets round to answering them */
+    private HttpServer mServer;
+    private final CountDownLatch mRequestReceived = new CountDownLatch(1);
+    private final CountDownLatch mReleaseServer = new CountDownLatch(1);
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestReceived.countDown();
+                try {
+                    mReleaseServer.await(SERVER_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mReleaseServer.countDown();
+        mServer.stop(0);
+    }
+
+    @Test
+    public void cancelAbortsBlockedRequest() throws Exception {
+        final URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/");
+        final CancellationToken cancel = new CancellationToken();
+        final AtomicReference<Throwable> outcome = new AtomicReference<>();
+
+        Thread fetch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NetworkUtils.getResponseBufferFromHttpUrl(url, cancel).recycle();
+                } catch (Throwable t) {
+                    outcome.set(t);
+                }
+            }
+        });
+        fetch.start();
+
+        /* Wait until the request is blocked on the server, then stop it */
+        assertTrue(mRequestReceived.await(5, TimeUnit.SECONDS));
+        cancel.cancel();
+        fetch.join(SERVER_DELAY_MILLIS);
+
+        long stopLatencyMillis =
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cancel.getCanceledAtNanos());
+        assertTrue("Stopped in " + stopLatencyMillis + " ms",
+                stopLatencyMillis < MAX_STOP_LATENCY_MILLIS);
+        assertTrue(outcome.get() instanceof CancellationException);
+    }
+
+    @Test
+    public void actionAddedAfterCancelRunsRightAway() {
+        CancellationToken cancel = new CancellationToken();
+        final int[] runs = new int[1];
+        Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+
+        cancel.addCancelAction(action);
+        cancel.cancel();
+        cancel.cancel();
+        assertEquals(1, runs[0]);
+
+        cancel.addCancelAction(action);
+        assertEquals(2, runs[0]);
+    }
+
+    @Test
+    public void removedActionDoesNotRun() {
+        CancellationToken cancel = new CancellationToken();
+        final int[] runs = new int[1];
+        Runnable action = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+
+        cancel.addCancelAction(action);
+        cancel.removeCancelAction(action);
+        cancel.cancel();
+        assertEquals(0, runs[0]);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the conditional GETs of the sync against a local server that answers 304 Not Modified
+ * when the validators it's sent are those of its current forecast, and 200 with the forecast
+ * otherwise.
+ */
+public class ConditionalGetTest {
+
+    private static final String LAST_MODIFIED = "Sat, 21 Jan 2017 08:00:00 GMT";
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private URL mUrl;
+    /* Another city on the same server, whose forecast happens to have the same ETag */
+    private URL mOtherUrl;
+
+    /* The forecast the server has, and the version its ETag is made of */
+    private volatile String mForecast = "{\"list\":[]}";
+    private volatile int mVersion = 1;
+
+    private final AtomicInteger mOk = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String eTag = "\"v" + mVersion + "\"";
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                String ifModifiedSince =
+                        exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+                /* If-None-Match wins when both are sent, as in RFC 7232 */
+                boolean notModified = ifNoneMatch != null
+                        ? ifNoneMatch.equals(eTag)
+                        : mVersion == 1 && LAST_MODIFIED.equals(ifModifiedSince);
+
+                exchange.getResponseHeaders().set("ETag", eTag);
+                if (mVersion == 1) {
+                    exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                }
+                if (notModified) {
+                    mNotModified.incrementAndGet();
+                    exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+                    exchange.close();
+                    return;
+                }
+
+                mOk.incrementAndGet();
+                byte[] body = mForecast.getBytes("UTF-8");
+                exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        };
+        mServer.createContext("/forecast", handler);
+        mServer.createContext("/other", handler);
+        mServerExecutor = Executors.newSingleThreadExecutor();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/forecast");
+        mOtherUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + "/other");
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void firstFetchGetsTheForecastAndItsValidators() throws IOException {
+        ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(mUrl, null, null, null);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.getResponseCode());
+            assertFalse(response.isNotModified());
+            assertEquals(mForecast.length(), response.length());
+            assertEquals("\"v1\"", response.getETag());
+            assertEquals(LAST_MODIFIED, response.getLastModified());
+        } finally {
+            response.recycle();
+        }
+    }
+
+    @Test
+    public void sameETagIsNotModified() throws IOException {
+        String eTag = fetchETag();
+
+        ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(mUrl, eTag, null, null);
+        try {
+            assertTrue(response.isNotModified());
+            assertEquals(0, response.length());
+        } finally {
+            response.recycle();
+        }
+        assertEquals(1, mOk.get());
+        assertEquals(1, mNotModified.get());
+    }
+
+    @Test
+    public void sameLastModifiedIsNotModified() throws IOException {
+        ResponseBuffer response =
+                NetworkUtils.getResponseBufferFromHttpUrl(mUrl, null, LAST_MODIFIED, null);
+        try {
+            assertTrue(response.isNotModified());
+            assertEquals(0, response.length());
+        } finally {
+            response.recycle();
+        }
+    }
+
+    @Test
+    public void newForecastComesBackWhole() throws IOException {
+        String eTag = fetchETag();
+        mVersion = 2;
+        mForecast = "{\"list\":[{\"dt\":1484985600}]}";
+
+        ResponseBuffer response =
+                NetworkUtils.getResponseBufferFromHttpUrl(mUrl, eTag, LAST_MODIFIED, null);
+        try {
+            assertFalse(response.isNotModified());
+            assertEquals(mForecast.length(), response.length());
+            assertEquals("\"v2\"", response.getETag());
+            assertNull(response.getLastModified());
+        } finally {
+            response.recycle();
+        }
+        assertEquals(2, mOk.get());
+        assertEquals(0, mNotModified.get());
+    }
+
+    @Test
+    public void notModifiedLeavesTheConnectionUsable() throws IOException {
+        String eTag = fetchETag();
+        for (int i = 0; i < 20; i++) {
+            NetworkUtils.getResponseBufferFromHttpUrl(mUrl, eTag, null, null).recycle();
+        }
+
+        /* The 304s had no body to read, the next full response still arrives intact */
+        mVersion = 2;
+        ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(mUrl, eTag, null, null);
+        try {
+            assertEquals(mForecast.length(), response.length());
+        } finally {
+            response.recycle();
+        }
+        assertEquals(20, mNotModified.get());
+    }
+
+    @Test
+    public void switchingCitiesAndBackDownloadsTheForecast() throws IOException {
+        /* What is stored for the user's location: the URL its rows came from and validators */
+        String storedUrl = null;
+        String eTag = null;
+        String lastModified = null;
+
+        /* City A, then B, then A again, all stored under the same location id */
+        URL[] cities = {mUrl, mOtherUrl, mUrl};
+        for (URL city : cities) {
+            ResponseBuffer response = NetworkUtils.getConditionalResponseBufferFromHttpUrl(
+                    city, storedUrl, eTag, lastModified, null);
+            try {
+                /* A 304 here would leave the last city's forecast under this one's name */
+                assertFalse(response.isNotModified());
+                assertEquals(mForecast.length(), response.length());
+                storedUrl = city.toString();
+                eTag = response.getETag();
+                lastModified = response.getLastModified();
+            } finally {
+                response.recycle();
+            }
+        }
+        assertEquals(3, mOk.get());
+        assertEquals(0, mNotModified.get());
+
+        /* Once A is stored again, its next sync is conditional again */
+        ResponseBuffer response = NetworkUtils.getConditionalResponseBufferFromHttpUrl(
+                mUrl, storedUrl, eTag, lastModified, null);
+        try {
+            assertTrue(response.isNotModified());
+        } finally {
+            response.recycle();
+        }
+    }
+
+    private String fetchETag() throws IOException {
+        ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(mUrl, null, null, null);
+        try {
+            return response.getETag();
+        } finally {
+            response.recycle();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks the HTTP layer of NetworkUtils against a local HTTPS server, fetching sequentially
+ * like a single location sync does, and in parallel like a multi-location sync does. The
+ * timings are printed; the assertions are on the counters, which don't depend on the machine.
+ */
+public class NetworkUtilsBenchmarkTest {
+
+    private static final char[] KEYSTORE_PASSWORD = "sunshine".toCharArray();
+
+    private static final int SEQUENTIAL_FETCHES = 50;
+    private static final int PARALLEL_THREADS = 8;
+    private static final int PARALLEL_FETCHES = 200;
+
+    /* About the size of a 14 day forecast */
+    private static final byte[] FORECAST = buildForecast(14);
+
+    private HttpsServer mServer;
+    private ExecutorService mServerExecutor;
+    private volatile boolean mCloseConnections;
+
+    @Before
+    public void startServer() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream in = getClass().getResourceAsStream("/stub_server.jks");
+        try {
+            keyStore.load(in, KEYSTORE_PASSWORD);
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keyManagers =
+                KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, KEYSTORE_PASSWORD);
+        TrustManagerFactory trustManagers =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+
+        /* Otherwise Nagle's algorithm adds a delayed ACK to every response, hiding the rest */
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        mServer.createContext("/forecast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                byte[] body = FORECAST;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    body = gzip(FORECAST);
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                if (mCloseConnections) {
+                    exchange.getResponseHeaders().set("Connection", "close");
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServer.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+        });
+        mServerExecutor = Executors.newFixedThreadPool(PARALLEL_THREADS + 1);
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+
+        NetworkUtils.setSSLSocketFactory(sslContext.getSocketFactory());
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("https://127.0.0.1:" + mServer.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void sequentialFetchesReuseOneConnection() throws Exception {
+        URL url = url("/forecast");
+        long opened = NetworkUtils.getOpenedConnectionCount();
+        long reused = NetworkUtils.getReusedConnectionCount();
+        long onWire = NetworkUtils.getBytesOnWire();
+        long decoded = NetworkUtils.getBytesDecoded();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SEQUENTIAL_FETCHES; i++) {
+            fetch(url);
+        }
+        report("sequential, keep-alive", start, SEQUENTIAL_FETCHES);
+
+        assertEquals(1, NetworkUtils.getOpenedConnectionCount() - opened);
+        assertEquals(SEQUENTIAL_FETCHES - 1, NetworkUtils.getReusedConnectionCount() - reused);
+
+        /* Every response was inflated back to the full forecast, from far fewer bytes */
+        long decodedNow = NetworkUtils.getBytesDecoded() - decoded;
+        long onWireNow = NetworkUtils.getBytesOnWire() - onWire;
+        assertEquals((long) SEQUENTIAL_FETCHES * FORECAST.length, decodedNow);
+        assertTrue(onWireNow * 4 < decodedNow);
+        System.out.println("bytes on wire " + onWireNow + ", decoded " + decodedNow);
+    }
+
+    @Test
+    public void sequentialFetchesWithoutKeepAlive() throws Exception {
+        /* The baseline: every request pays for a TCP and TLS handshake */
+        mCloseConnections = true;
+        URL url = url("/forecast");
+        long opened = NetworkUtils.getOpenedConnectionCount();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SEQUENTIAL_FETCHES; i++) {
+            fetch(url);
+        }
+        report("sequential, no keep-alive", start, SEQUENTIAL_FETCHES);
+
+        assertEquals(SEQUENTIAL_FETCHES, NetworkUtils.getOpenedConnectionCount() - opened);
+    }
+
+    @Test
+    public void parallelFetchesShareAFewConnections() throws Exception {
+        final URL url = url("/forecast");
+        long opened = NetworkUtils.getOpenedConnectionCount();
+
+        ExecutorService clients = Executors.newFixedThreadPool(PARALLEL_THREADS);
+        try {
+            List<Callable<Void>> fetches = new ArrayList<>();
+            for (int i = 0; i < PARALLEL_FETCHES; i++) {
+                fetches.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        fetch(url);
+                        return null;
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            for (Future<Void> fetch : clients.invokeAll(fetches)) {
+                fetch.get();
+            }
+            report("parallel x" + PARALLEL_THREADS + ", keep-alive", start, PARALLEL_FETCHES);
+        } finally {
+            clients.shutdownNow();
+        }
+
+        /* Roughly one connection per client thread, certainly not one per request */
+        long openedNow = NetworkUtils.getOpenedConnectionCount() - opened;
+        assertTrue("Opened " + openedNow, openedNow <= 2 * PARALLEL_THREADS);
+    }
+
+    @Test(timeout = 60000)
+    public void deadlineAbortsSlowRequest() throws Exception {
+        try {
+            NetworkUtils.getResponseBufferFromHttpUrl(url("/slow")).recycle();
+            throw new AssertionError("The request should have timed out");
+        } catch (SocketTimeoutException expected) {
+            /* Either the read timeout or the deadline, whichever is shorter */
+        }
+    }
+
+    private static void fetch(URL url) throws IOException {
+        ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(url);
+        try {
+            assertEquals(FORECAST.length, response.length());
+        } finally {
+            response.recycle();
+        }
+    }
+
+    private static void report(String pattern, long startNanos, int fetches) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.println(String.format("%-28s %4d fetches in %7.1f ms, %6.2f ms/fetch",
+                pattern, fetches, millis, millis / fetches));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] buildForecast(int days) {
+        StringBuilder json = new StringBuilder("{\"city\":{\"name\":\"Mountain View\"},\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1480000000 + i * 86400)
+                    .append(",\"temp\":{\"min\":").append(8 + i % 5)
+                    .append(",\"max\":").append(17 + i % 7)
+                    .append("},\"pressure\":1017.5,\"humidity\":").append(60 + i % 30)
+                    .append(",\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":")
+                    .append(1.5 + i % 3).append(",\"deg\":").append(i * 25 % 360).append('}');
+        }
+        return json.append("]}").toString().getBytes();
+    }
+}
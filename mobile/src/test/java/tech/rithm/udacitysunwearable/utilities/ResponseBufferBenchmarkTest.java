@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the bytes a sync allocates to read a forecast, reading it into a String with a
+ * Scanner as NetworkUtils used to, and into a pooled {@link ResponseBuffer} as it does now.
+ * The bytes are those allocated by the thread doing the fetch, which is where the response is
+ * read; the numbers are printed for a two week forecast and for a year of them.
+ */
+public class ResponseBufferBenchmarkTest {
+
+    private static final int WARM_UP_SYNCS = 50;
+    private static final int MEASURED_SYNCS = 200;
+
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private volatile byte[] mForecast;
+
+    @Before
+    public void startServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/forecast", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = mForecast;
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        mServerExecutor = Executors.newSingleThreadExecutor();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void twoWeeks() throws Exception {
+        compare(14);
+    }
+
+    @Test
+    public void aYear() throws Exception {
+        long[] bytesPerSync = compare(365);
+
+        /* The String and the Scanner's buffers are each larger than the response */
+        assertTrue(bytesPerSync[1] < bytesPerSync[0]);
+    }
+
+    /* Returns the bytes allocated per sync by the String and by the buffer, in that order */
+    private long[] compare(int days) throws Exception {
+        mForecast = buildForecast(days);
+        final URL url = new URL("http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/forecast");
+
+        long scanner = bytesPerSync(new Sync() {
+            @Override
+            public void run() throws IOException {
+                assertEquals(mForecast.length, getResponseWithScanner(url).length());
+            }
+        });
+
+        long bufferAllocations = ResponseBuffer.getBytesAllocated();
+        long buffer = bytesPerSync(new Sync() {
+            @Override
+            public void run() throws IOException {
+                ResponseBuffer response = NetworkUtils.getResponseBufferFromHttpUrl(url);
+                try {
+                    assertEquals(mForecast.length, response.length());
+                } finally {
+                    response.recycle();
+                }
+            }
+        });
+
+        /* After the first sync, every one reuses the array the one before left in the pool */
+        long newArrays = ResponseBuffer.getBytesAllocated() - bufferAllocations;
+        assertTrue("Allocated " + newArrays, newArrays <= mForecast.length);
+
+        System.out.println(String.format("%3d days, %6d byte response: %7d bytes per sync "
+                        + "with a Scanner, %7d with a pooled buffer", days, mForecast.length,
+                scanner, buffer));
+        return new long[]{scanner, buffer};
+    }
+
+    private interface Sync {
+        void run() throws IOException;
+    }
+
+    private static long bytesPerSync(Sync sync) throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_SYNCS; i++) {
+            sync.run();
+        }
+        long start = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_SYNCS; i++) {
+            sync.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - start) / MEASURED_SYNCS;
+    }
+
+    /* NetworkUtils.getResponseFromHttpUrl as it was before responses went into a buffer */
+    private static String getResponseWithScanner(URL url) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            InputStream in = urlConnection.getInputStream();
+
+            Scanner scanner = new Scanner(in);
+            scanner.useDelimiter("\\A");
+
+            boolean hasInput = scanner.hasNext();
+            String response = null;
+            if (hasInput) {
+                response = scanner.next();
+            }
+            scanner.close();
+            return response;
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+
+    private static byte[] buildForecast(int days) {
+        StringBuilder json = new StringBuilder("{\"city\":{\"name\":\"Mountain View\"},\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(1480000000 + i * 86400)
+                    .append(",\"temp\":{\"min\":").append(8 + i % 5)
+                    .append(",\"max\":").append(17 + i % 7)
+                    .append("},\"pressure\":1017.5,\"humidity\":").append(60 + i % 30)
+                    .append(",\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":")
+                    .append(1.5 + i % 3).append(",\"deg\":").append(i * 25 % 360).append('}');
+        }
+        return json.append("]}").toString().getBytes();
+    }
+}
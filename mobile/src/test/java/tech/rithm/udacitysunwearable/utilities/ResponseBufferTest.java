@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.utilities;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseBufferTest {
+
+    @Test
+    public void bogusContentLengthIsCapped() throws IOException {
+        byte[] body = "{\"list\":[]}".getBytes("UTF-8");
+        long allocated = ResponseBuffer.getBytesAllocated();
+
+        ResponseBuffer response = ResponseBuffer.obtain();
+        try {
+            response.readFrom(new ByteArrayInputStream(body), Integer.MAX_VALUE);
+            assertEquals(body.length, response.length());
+        } finally {
+            response.recycle();
+        }
+        long newArrays = ResponseBuffer.getBytesAllocated() - allocated;
+        assertTrue("Allocated " + newArrays, newArrays <= ResponseBuffer.MAX_POOLED_CAPACITY);
+    }
+
+    @Test
+    public void bodyLongerThanTheCapStillFits() throws IOException {
+        byte[] body = new byte[3 * ResponseBuffer.MAX_POOLED_CAPACITY + 1];
+        Arrays.fill(body, (byte) 'x');
+
+        ResponseBuffer response = ResponseBuffer.obtain();
+        try {
+            response.readFrom(new ByteArrayInputStream(body), body.length);
+            assertEquals(body.length, response.length());
+        } finally {
+            response.recycle();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WatchIconCacheTest {
+
+    /* Stands in for the resources: each icon's bytes are derived from its id */
+    private static final class FakeLoader implements WatchIconCache.Loader {
+        final AtomicInteger mLoads = new AtomicInteger();
+
+        @Override
+        public byte[] load(int resId) throws IOException {
+            mLoads.incrementAndGet();
+            return new byte[]{(byte) 0x89, 'P', 'N', 'G', (byte) resId};
+        }
+    }
+
+    @Test
+    public void eachIconIsLoadedOnce() throws IOException {
+        FakeLoader loader = new FakeLoader();
+        WatchIconCache cache = new WatchIconCache(loader);
+
+        /* A year of sends, cycling through the icons */
+        int[] icons = {1, 2, 3, 4, 5, 6, 7, 8};
+        for (int send = 0; send < 365 * 8; send++) {
+            cache.getIconBytes(icons[send % icons.length]);
+        }
+
+        assertEquals(icons.length, loader.mLoads.get());
+        assertEquals(icons.length, cache.getLoadCount());
+    }
+
+    @Test
+    public void sendsShareTheSameBytes() throws IOException {
+        WatchIconCache cache = new WatchIconCache(new FakeLoader());
+
+        /* The same bytes every time is what gives the asset the same digest */
+        assertSame(cache.getIconBytes(7), cache.getIconBytes(7));
+    }
+
+    @Test
+    public void failedLoadIsTriedAgain() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        WatchIconCache cache = new WatchIconCache(new WatchIconCache.Loader() {
+            @Override
+            public byte[] load(int resId) throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new IOException();
+                }
+                return new byte[]{(byte) resId};
+            }
+        });
+
+        try {
+            cache.getIconBytes(1);
+        } catch (IOException expected) {
+            /* The next send tries again */
+        }
+        assertEquals(1, cache.getIconBytes(1)[0]);
+        assertEquals(2, attempts.get());
+    }
+
+    /* A send on the main thread must not wait while the prewarm loads some other icon */
+    @Test
+    public void loadDoesNotBlockOtherIcons() throws Exception {
+        final CountDownLatch slowLoadStarted = new CountDownLatch(1);
+        final CountDownLatch releaseSlowLoad = new CountDownLatch(1);
+        final WatchIconCache cache = new WatchIconCache(new WatchIconCache.Loader() {
+            @Override
+            public byte[] load(int resId) throws IOException {
+                if (resId == 1) {
+                    slowLoadStarted.countDown();
+                    try {
+                        releaseSlowLoad.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return new byte[]{(byte) resId};
+            }
+        });
+
+        Thread prewarm = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.getIconBytes(1);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        prewarm.start();
+        assertTrue(slowLoadStarted.await(5, TimeUnit.SECONDS));
+
+        long startNanos = System.nanoTime();
+        assertEquals(2, cache.getIconBytes(2)[0]);
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(1));
+
+        releaseSlowLoad.countDown();
+        prewarm.join();
+        assertEquals(1, cache.getIconBytes(1)[0]);
+        assertEquals(2, cache.getLoadCount());
+    }
+}
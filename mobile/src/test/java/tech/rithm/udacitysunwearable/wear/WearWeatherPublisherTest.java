@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.wear;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+import tech.rithm.udacitysunwearable.shared.Forecast;
+import tech.rithm.udacitysunwearable.shared.ForecastPayload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WearWeatherPublisherTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    /*
+     * Stands in for the Data Layer. Like the real one, it only syncs a put to the watch when the
+     * item differs from the one it holds, and only wakes the watch up for urgent puts.
+     */
+    private static final class FakeDataApi implements WearWeatherPublisher.Sink {
+        Object[] mItem;
+        int mPuts;
+        int mTransfers;
+        int mWakeups;
+
+        @Override
+        public void putForecast(WatchForecast forecast, boolean urgent) {
+            put(0, forecast, urgent);
+        }
+
+        /* The DataMap the phone builds: the encoded days, and what used to be a time stamp */
+        void put(long timeStamp, WatchForecast forecast, boolean urgent) {
+            mPuts++;
+            Object[] item = {timeStamp, ForecastPayload.encode(forecast.getForecast())};
+            if (Arrays.deepEquals(item, mItem)) {
+                return;
+            }
+            mItem = item;
+            mTransfers++;
+            if (urgent) {
+                mWakeups++;
+            }
+        }
+    }
+
+    /* The week starting today, with today as given and the other days clear and 18° */
+    private static WatchForecast forecast(long today, int maxTemp, int weatherId) {
+        return forecast(today, maxTemp, weatherId, false);
+    }
+
+    private static WatchForecast forecast(long today, int maxTemp, int weatherId,
+                                          boolean fahrenheit) {
+        List<DayForecast> days = new ArrayList<>();
+        days.add(new DayForecast(today, maxTemp * 10, 120, weatherId));
+        for (int i = 1; i < 7; i++) {
+            days.add(new DayForecast(today + i * DAY, 180, 120, 800));
+        }
+        return new WatchForecast(new Forecast(days, fahrenheit));
+    }
+
+    @Test
+    public void unchangedForecastIsNotSentAgain() {
+        FakeDataApi dataApi = new FakeDataApi();
+        WearWeatherPublisher publisher = new WearWeatherPublisher(dataApi);
+
+        assertTrue(publisher.publish(forecast(0, 21, 800)));
+        assertFalse(publisher.publish(forecast(0, 21, 800)));
+        assertEquals(1, dataApi.mPuts);
+        assertEquals(1, publisher.getSkippedCount());
+    }
+
+    @Test
+    public void rolloverIsNotUrgentButANewTodayIs() {
+        FakeDataApi dataApi = new FakeDataApi();
+        WearWeatherPublisher publisher = new WearWeatherPublisher(dataApi);
+
+        publisher.publish(forecast(0, 21, 800));
+        /* The watch already has tomorrow, as it is now today */
+        publisher.publish(forecast(DAY, 18, 800));
+        publisher.publish(forecast(DAY, 21, 800));
+
+        assertEquals(3, dataApi.mTransfers);
+        assertEquals(2, dataApi.mWakeups);
+    }
+
+    @Test
+    public void restoredPublisherSkipsWhatTheWatchHas() {
+        WearWeatherPublisher first = new WearWeatherPublisher(new FakeDataApi());
+        first.publish(forecast(0, 21, 800));
+
+        FakeDataApi dataApi = new FakeDataApi();
+        WearWeatherPublisher second = new WearWeatherPublisher(dataApi);
+        second.restore(first.getFingerprint(), first.getDayFingerprints());
+        second.publish(forecast(0, 21, 800));
+        assertEquals(0, dataApi.mPuts);
+
+        second.publish(forecast(DAY, 18, 800));
+        assertEquals(0, second.getUrgentCount());
+    }
+
+    @Test
+    public void watchThatAsksGetsTheForecast() {
+        WearWeatherPublisher first = new WearWeatherPublisher(new FakeDataApi());
+        first.publish(forecast(0, 21, 800));
+
+        /* After a restart, a watch that lost its data item asks for the forecast */
+        FakeDataApi dataApi = new FakeDataApi();
+        WearWeatherPublisher second = new WearWeatherPublisher(dataApi);
+        second.restore(first.getFingerprint(), first.getDayFingerprints());
+        assertFalse(second.publish(forecast(0, 21, 800)));
+        assertTrue(second.publish(forecast(0, 21, 800), true));
+
+        assertEquals(1, dataApi.mTransfers);
+        assertEquals(0, dataApi.mWakeups);
+    }
+
+    @Test
+    public void failedPublishIsRetried() {
+        FakeDataApi dataApi = new FakeDataApi();
+        WearWeatherPublisher publisher = new WearWeatherPublisher(dataApi);
+
+        publisher.publish(forecast(0, 21, 800));
+        publisher.onPublishFailed();
+        assertTrue(publisher.publish(forecast(0, 21, 800)));
+    }
+
+    @Test
+    public void fingerprintTellsDaysApart() {
+        assertTrue(forecast(0, 21, 800).getFingerprint()
+                != forecast(DAY, 21, 800).getFingerprint());
+        assertTrue(forecast(0, 21, 800).getFingerprint()
+                != forecast(0, 21, 801).getFingerprint());
+        assertEquals(forecast(0, 21, 800).getDayFingerprints()[1],
+                forecast(DAY, 18, 800).getDayFingerprints()[0]);
+        assertTrue(forecast(0, 21, 800).getDayFingerprints()[0]
+                != forecast(0, 21, 800, true).getDayFingerprints()[0]);
+    }
+
+    /*
+     * A week of a typical phone: the forecast reloads after each of 8 syncs a day, and the watch
+     * asks for the weather each time its screen comes on, about every 10 minutes. Today's
+     * weather changes at noon, and the day rolls over once.
+     */
+    @Test
+    public void transfersAndWakeupsDropOverAWeek() {
+        FakeDataApi before = new FakeDataApi();
+        FakeDataApi after = new FakeDataApi();
+        WearWeatherPublisher publisher = new WearWeatherPublisher(after);
+
+        for (long now = 0; now < 7 * DAY; now += MINUTE) {
+            boolean reload = now % (3 * 60 * MINUTE) == 0;
+            boolean watchRequest = now % (10 * MINUTE) == 0;
+            if (!reload && !watchRequest) {
+                continue;
+            }
+
+            long today = now - now % DAY;
+            int change = (int) (now % DAY / (12 * 60 * MINUTE));
+            WatchForecast forecast = forecast(today, 18 + change, change == 0 ? 800 : 803);
+
+            /* What sendWeather used to do: always urgent, stamped with the current time */
+            before.put(now, forecast, true);
+            publisher.publish(forecast);
+        }
+
+        System.out.println("before: " + before.mTransfers + " transfers, "
+                + before.mWakeups + " wakeups; after: " + after.mTransfers + " transfers, "
+                + after.mWakeups + " wakeups, " + publisher.getSkippedCount() + " skipped");
+
+        /*
+         * A change at noon each day, and a rollover at each midnight. The watch has the new day
+         * from the day before, so only the noon changes wake it up.
+         */
+        assertEquals(14, after.mTransfers);
+        assertEquals(8, after.mWakeups);
+        assertEquals(publisher.getPublishCount(), after.mPuts);
+        assertTrue(before.mTransfers > 50 * after.mTransfers);
+    }
+}
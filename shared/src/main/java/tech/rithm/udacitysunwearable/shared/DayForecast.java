@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.shared;
+
+/**
+ * The forecast of one day, as the phone sends it to the watch.
+ * <p>
+ * Temperatures are fixed point, in tenths of a degree of the user's unit, see
+ * {@link Forecast#toTenths(double)}. The kind of weather is the OpenWeatherMap condition id; the
+ * phone sends a description and an icon for each one that occurs.
+ */
+public final class DayForecast {
+
+    private final long mDate;
+    private final int mMaxTemp;
+    private final int mMinTemp;
+    private final int mWeatherId;
+
+    /**
+     * @param date      The day, normalized to UTC midnight of the local date
+     * @param maxTemp   The high temperature, in tenths of a degree
+     * @param minTemp   The low temperature, in tenths of a degree
+     * @param weatherId The OpenWeatherMap condition id
+     */
+    public DayForecast(long date, int maxTemp, int minTemp, int weatherId) {
+        mDate = date;
+        mMaxTemp = maxTemp;
+        mMinTemp = minTemp;
+        mWeatherId = weatherId;
+    }
+
+    public long getDate() {
+        return mDate;
+    }
+
+    public int getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    public int getMinTemp() {
+        return mMinTemp;
+    }
+
+    public int getWeatherId() {
+        return mWeatherId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof DayForecast)) {
+            return false;
+        }
+        DayForecast other = (DayForecast) o;
+        return mDate == other.mDate
+                && mMaxTemp == other.mMaxTemp
+                && mMinTemp == other.mMinTemp
+                && mWeatherId == other.mWeatherId;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mDate ^ (mDate >>> 32));
+        result = 31 * result + mMaxTemp;
+        result = 31 * result + mMinTemp;
+        return 31 * result + mWeatherId;
+    }
+
+    @Override
+    public String toString() {
+        return "DayForecast{date=" + mDate + ", max=" + mMaxTemp + ", min=" + mMinTemp
+                + ", weatherId=" + mWeatherId + "}";
+    }
+}
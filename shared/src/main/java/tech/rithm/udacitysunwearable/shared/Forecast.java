@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.shared;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * The days of forecast the phone sends to the watch, and the unit their temperatures are in,
+ * the one the user wants to see.
+ * <p>
+ * Temperatures go in tenths of a degree, cut off rather than rounded, see
+ * {@link #toTenths(double)}. That way the watch rounds only once, the way the phone does.
+ */
+public final class Forecast {
+
+    private final List<DayForecast> mDays;
+    private final boolean mFahrenheit;
+
+    /**
+     * @param days       The days, the first one today
+     * @param fahrenheit Whether the temperatures are in degrees Fahrenheit rather than Celsius
+     */
+    public Forecast(List<DayForecast> days, boolean fahrenheit) {
+        mDays = days;
+        mFahrenheit = fahrenheit;
+    }
+
+    public List<DayForecast> getDays() {
+        return mDays;
+    }
+
+    public boolean isFahrenheit() {
+        return mFahrenheit;
+    }
+
+    /**
+     * Cuts a temperature off to tenths of a degree, towards zero. The phone formats temperatures
+     * with "%1.0f", which rounds half up on the decimal digits of the value; the digits after
+     * the tenths never change which way that goes. Formatting {@link #toDegrees(int)} of the
+     * result the same way therefore gives the same text as formatting the temperature itself.
+     * A rounded value wouldn't: 21.46 would become 21.5 and show as 22.
+     * <p>
+     * The phone shows a temperature just below zero as "-0", so one that cuts off to zero keeps
+     * its sign as -0.1.
+     *
+     * @param degrees A temperature, in the unit the forecast is in
+     * @return The temperature in tenths of a degree
+     */
+    public static int toTenths(double degrees) {
+        /* The decimal digits of the double, as Formatter sees them */
+        int tenths = BigDecimal.valueOf(degrees).movePointRight(1)
+                .setScale(0, RoundingMode.DOWN).intValue();
+        if (tenths == 0 && Math.copySign(1.0, degrees) < 0) {
+            return -1;
+        }
+        return tenths;
+    }
+
+    /**
+     * Turns a temperature of a {@link DayForecast} back into degrees, to be formatted with
+     * "%1.0f" as the phone formats them.
+     *
+     * @param tenths A temperature in tenths of a degree
+     */
+    public static double toDegrees(int tenths) {
+        return tenths / 10.0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Forecast)) {
+            return false;
+        }
+        Forecast other = (Forecast) o;
+        return mFahrenheit == other.mFahrenheit && mDays.equals(other.mDays);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * mDays.hashCode() + (mFahrenheit ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "Forecast{days=" + mDays + ", fahrenheit=" + mFahrenheit + "}";
+    }
+}
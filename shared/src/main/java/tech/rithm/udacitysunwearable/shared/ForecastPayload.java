@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.shared;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The forecast the phone puts into the Data Layer for the watch: the coming days in one compact
+ * byte array, so the watch can move on to the next day at midnight by itself, without asking
+ * the phone, and keep going for as many days as it was sent.
+ * <p>
+ * Along with the array, under the keys made by {@link #descriptionKey(int)} and
+ * {@link #iconKey(int)}, the data item holds the description and the icon of each kind of
+ * weather in it. The keys are short because the data item carries them too.
+ * <p>
+ * The array starts with a version byte, then a flags byte, the number of days, and for each day
+ * its date as the number of days since the one before, its temperatures in tenths of a degree,
+ * and its condition id, all as varints. Most days take 7 bytes that way.
+ */
+public final class ForecastPayload {
+
+    /** Key of the encoded forecast in the data item at /weather. */
+    public static final String KEY_FORECAST = "f";
+
+    private static final String KEY_DESCRIPTION_PREFIX = "d";
+    private static final String KEY_ICON_PREFIX = "i";
+
+    private static final int VERSION = 1;
+
+    /* Bits of the flags byte */
+    private static final int FLAG_FAHRENHEIT = 1;
+
+    /* The fewest bytes a day takes, one for each varint */
+    private static final int MIN_DAY_BYTES = 4;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private ForecastPayload() {
+    }
+
+    /** Key of the description of a kind of weather in the data item. */
+    public static String descriptionKey(int weatherId) {
+        return KEY_DESCRIPTION_PREFIX + weatherId;
+    }
+
+    /** Key of the icon asset of a kind of weather in the data item. */
+    public static String iconKey(int weatherId) {
+        return KEY_ICON_PREFIX + weatherId;
+    }
+
+    /**
+     * Encodes the forecast, the days in the order given.
+     *
+     * @throws IllegalArgumentException If a date isn't a UTC midnight or a condition id is
+     *                                  negative
+     */
+    public static byte[] encode(Forecast forecast) {
+        List<DayForecast> days = forecast.getDays();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(3 + days.size() * 7);
+        out.write(VERSION);
+        out.write(forecast.isFahrenheit() ? FLAG_FAHRENHEIT : 0);
+        writeVarint(out, days.size());
+
+        long previousDay = 0;
+        for (DayForecast day : days) {
+            long dayNumber = day.getDate() / DAY_MILLIS;
+            if (dayNumber * DAY_MILLIS != day.getDate()) {
+                throw new IllegalArgumentException("Not a UTC midnight: " + day.getDate());
+            }
+            if (day.getWeatherId() < 0) {
+                throw new IllegalArgumentException("Negative condition id: " + day.getWeatherId());
+            }
+            /* Days mostly follow each other, so the difference fits in a byte */
+            writeVarint(out, zigZag(dayNumber - previousDay));
+            writeVarint(out, zigZag(day.getMaxTemp()));
+            writeVarint(out, zigZag(day.getMinTemp()));
+            writeVarint(out, day.getWeatherId());
+            previousDay = dayNumber;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes what {@link #encode(Forecast)} made.
+     *
+     * @throws IOException If the bytes aren't a forecast of a version we know
+     */
+    public static Forecast decode(byte[] payload) throws IOException {
+        Reader in = new Reader(payload);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown forecast version " + version);
+        }
+        int flags = in.readByte();
+        long count = in.readVarint();
+        /* A damaged count mustn't make us allocate more days than the bytes can hold */
+        if (count > in.remaining() / MIN_DAY_BYTES) {
+            throw new IOException("Forecast too short for " + count + " days");
+        }
+        List<DayForecast> days = new ArrayList<>((int) count);
+        long dayNumber = 0;
+        for (int i = 0; i < count; i++) {
+            dayNumber += unZigZag(in.readVarint());
+            int maxTemp = toInt(unZigZag(in.readVarint()));
+            int minTemp = toInt(unZigZag(in.readVarint()));
+            int weatherId = toInt(in.readVarint());
+            days.add(new DayForecast(dayNumber * DAY_MILLIS, maxTemp, minTemp, weatherId));
+        }
+        if (in.remaining() != 0) {
+            throw new IOException(in.remaining() + " bytes after the forecast");
+        }
+        return new Forecast(Collections.unmodifiableList(days),
+                (flags & FLAG_FAHRENHEIT) != 0);
+    }
+
+    /**
+     * Finds the forecast to show on a day: the one for that day, or if there's none, the one of
+     * the latest day before it, which is stale but better than nothing.
+     *
+     * @param days The forecast, in any order
+     * @param date The day, normalized to UTC midnight of the local date
+     * @return The day to show, or null if all days are later than the given one
+     */
+    public static DayForecast findDay(List<DayForecast> days, long date) {
+        DayForecast found = null;
+        for (DayForecast day : days) {
+            if (day.getDate() == date) {
+                return day;
+            }
+            if (day.getDate() < date && (found == null || day.getDate() > found.getDate())) {
+                found = day;
+            }
+        }
+        return found;
+    }
+
+    /* Maps signed to unsigned so that small negative numbers stay short: 0, -1, 1, -2... */
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /* Seven bits to a byte, lowest first, the top bit set on all but the last */
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int toInt(long value) throws IOException {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IOException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static final class Reader {
+        private final byte[] mBytes;
+        private int mPosition;
+
+        Reader(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        int remaining() {
+            return mBytes.length - mPosition;
+        }
+
+        int readByte() throws IOException {
+            if (mPosition == mBytes.length) {
+                throw new EOFException("Forecast ends early");
+            }
+            return mBytes[mPosition++] & 0xff;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Varint too long");
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable.shared;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ForecastPayloadTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long TODAY = 1483920000000L;
+
+    private static List<DayForecast> week() {
+        List<DayForecast> days = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            days.add(new DayForecast(TODAY + i * DAY, 215 + i * 7, -53 + i * 11, 800 + i));
+        }
+        return days;
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        Forecast forecast = new Forecast(week(), true);
+        assertEquals(forecast, ForecastPayload.decode(ForecastPayload.encode(forecast)));
+
+        Forecast empty = new Forecast(new ArrayList<DayForecast>(), false);
+        assertEquals(empty, ForecastPayload.decode(ForecastPayload.encode(empty)));
+    }
+
+    @Test
+    public void roundTripsTheEdges() throws IOException {
+        List<DayForecast> days = new ArrayList<>();
+        days.add(new DayForecast(TODAY, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE));
+        /* Out of order, and before 1970 */
+        days.add(new DayForecast(0, 0, 0, 0));
+        days.add(new DayForecast(-3 * DAY, -1, 1, 200));
+        days.add(new DayForecast(TODAY + 400 * DAY, 64, -64, 127));
+        Forecast forecast = new Forecast(days, false);
+
+        assertEquals(forecast, ForecastPayload.decode(ForecastPayload.encode(forecast)));
+    }
+
+    @Test
+    public void rejectsWhatItCantRead() {
+        byte[] payload = ForecastPayload.encode(new Forecast(week(), false));
+
+        assertUnreadable(new byte[0]);
+        assertUnreadable(Arrays.copyOf(payload, payload.length - 1));
+        assertUnreadable(Arrays.copyOf(payload, payload.length + 1));
+
+        /* A count of a billion days, and not nearly the bytes for them */
+        assertUnreadable(new byte[] {1, 0, (byte) 0x80, (byte) 0x94, (byte) 0xeb, (byte) 0xdc, 3,
+                0, 0, 0, 0});
+
+        byte[] version = payload.clone();
+        version[0] = 99;
+        assertUnreadable(version);
+    }
+
+    private static void assertUnreadable(byte[] payload) {
+        try {
+            ForecastPayload.decode(payload);
+            fail("Decoded " + Arrays.toString(payload));
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsDatesThatArentMidnight() {
+        List<DayForecast> days = new ArrayList<>();
+        days.add(new DayForecast(TODAY + 1, 0, 0, 800));
+        try {
+            ForecastPayload.encode(new Forecast(days, false));
+            fail("Encoded a date that isn't midnight");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /*
+     * The watch formats what it gets the way the phone formats the temperature it started from,
+     * for every value, including those a rounding to tenths would push over a half.
+     */
+    @Test
+    public void formatsLikeThePhone() {
+        double[] edges = {21.46, -2.5, -2.46, 0.5, -0.5, -0.4, 0.45, 2.4999999999999996,
+                0.49999999999999994, 99.95, -17.77777777777778, 1e-9, -1e-9, 0.0, -0.0};
+        for (double degrees : edges) {
+            assertFormatsLikeThePhone(degrees);
+            assertFormatsLikeThePhone(degrees * 1.8 + 32);
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double celsius = random.nextDouble() * 120 - 60;
+            assertFormatsLikeThePhone(celsius);
+            assertFormatsLikeThePhone(celsius * 1.8 + 32);
+            /* Values with two decimals, as the weather server sends */
+            assertFormatsLikeThePhone((random.nextInt(12001) - 6000) / 100.0);
+        }
+    }
+
+    private static void assertFormatsLikeThePhone(double degrees) {
+        String phone = String.format(Locale.US, "%1.0f", degrees);
+        String watch = String.format(Locale.US, "%1.0f",
+                Forecast.toDegrees(Forecast.toTenths(degrees)));
+        assertEquals("Formatting " + degrees, phone, watch);
+    }
+
+    /*
+     * What a week costs, against the same week with a long and three shorts a day, and against
+     * the old data item. That one had today only, under five long keys, with the temperatures
+     * and description as strings; its size here is just the keys and values, before the
+     * DataMap's own overhead.
+     */
+    @Test
+    public void payloadIsSmallerThanBefore() {
+        Charset utf8 = Charset.forName("UTF-8");
+        String[] legacy = {"com.sunshine.key.max_temp", "21\u00B0", "com.sunshine.key.min_temp",
+                "12\u00B0", "com.sunshine.key.stamp", "com.sunshine.key.asset_image",
+                "com.sunshine.key.weather_desc", "Clear"};
+        int legacyDay = 8;
+        for (String s : legacy) {
+            legacyDay += s.getBytes(utf8).length;
+        }
+        int fixedWidthWeek = 2 + 7 * 14;
+        int week = ForecastPayload.encode(new Forecast(week(), false)).length;
+
+        System.out.println("today, strings: " + legacyDay + " bytes; week, fixed width: "
+                + fixedWidthWeek + " bytes; week, varints: " + week + " bytes");
+
+        assertTrue(week * 2 < fixedWidthWeek);
+        assertTrue(week < legacyDay);
+    }
+
+    @Test
+    public void findsTodayOrTheLatestDayBefore() {
+        List<DayForecast> days = week();
+
+        assertSame(days.get(0), ForecastPayload.findDay(days, TODAY));
+        assertSame(days.get(3), ForecastPayload.findDay(days, TODAY + 3 * DAY));
+
+        /* Past the end of the forecast, the last day is all we have */
+        assertSame(days.get(6), ForecastPayload.findDay(days, TODAY + 10 * DAY));
+        assertNull(ForecastPayload.findDay(days, TODAY - DAY));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+import tech.rithm.udacitysunwearable.shared.ForecastPayload;
+
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the day of the forecast that is today on the watch, and tells when that changes.
+ * <p>
+ * The phone sends several days at once, so the face moves on to the next one by itself at local
+ * midnight, or when the time zone changes the local date, without waiting for a new sync. If
+ * today isn't in the forecast, the latest day before it is shown. Use it on the main thread.
+ */
+class DaySelector {
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private List<DayForecast> mDays;
+    private TimeZone mTimeZone;
+    /* The local date we last picked a day for, as UTC midnight */
+    private long mShownDate;
+
+    DaySelector(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+    }
+
+    void setDays(List<DayForecast> days) {
+        mDays = days;
+    }
+
+    /**
+     * Returns true if there are days and the local date has moved on since the last
+     * {@link #selectDay(long)}, so the face should show another one.
+     */
+    boolean isDayOver(long now) {
+        return mDays != null && localDate(now) != mShownDate;
+    }
+
+    /**
+     * Returns the day to show now, or null if there are no days or all of them are after today.
+     */
+    DayForecast selectDay(long now) {
+        mShownDate = localDate(now);
+        if (mDays == null) {
+            return null;
+        }
+        return ForecastPayload.findDay(mDays, mShownDate);
+    }
+
+    /* The local date at a time, as UTC midnight like the dates of the forecast */
+    private long localDate(long now) {
+        long local = now + mTimeZone.getOffset(now);
+        return local - local % DAY_MILLIS;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The bookkeeping of {@link WeatherIconLoader}, apart from the assets and bitmaps so it can be
+ * tested: values are looked up in a cache by key first, loaded on a background executor
+ * otherwise, and only the latest request is answered.
+ * <p>
+ * Call it from the main thread, the one the main executor runs on.
+ *
+ * @param <R> What a value is loaded from
+ * @param <V> The value loaded
+ */
+class LatestLoader<R, V> {
+
+    /* Turns a request into its value, on the background executor. Null if that failed. */
+    interface Source<R, V> {
+        V load(R request);
+    }
+
+    /* Where loaded values are kept, safe to use from any thread */
+    interface Cache<V> {
+        V get(String key);
+
+        void put(String key, V value);
+    }
+
+    interface Callback<V> {
+        void onLoaded(V value);
+    }
+
+    private final Source<R, V> mSource;
+    private final Cache<V> mCache;
+    private final Executor mBackgroundExecutor;
+    private final Executor mMainExecutor;
+
+    /* Incremented by every request, a result is only delivered if it's still the latest */
+    private int mRequest;
+
+    private int mLoadCount;
+    private int mHitCount;
+    private long mLastLoadMillis;
+
+    LatestLoader(Source<R, V> source, Cache<V> cache, Executor backgroundExecutor,
+            Executor mainExecutor) {
+        mSource = source;
+        mCache = cache;
+        mBackgroundExecutor = backgroundExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /**
+     * Loads the value of a request, and hands it to the callback on the main executor. On a
+     * cache hit, that happens before this returns.
+     *
+     * @param key      What the value is cached under, or null not to cache it
+     * @param request  What the value is loaded from on a miss
+     * @param callback Gets the value, unless a newer request came in the mean time
+     */
+    void load(final String key, final R request, final Callback<V> callback) {
+        final int requestNumber = ++mRequest;
+
+        if (key != null) {
+            V cached = mCache.get(key);
+            if (cached != null) {
+                mHitCount++;
+                callback.onLoaded(cached);
+                return;
+            }
+        }
+
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                final V value = mSource.load(request);
+                final long loadMillis = (System.nanoTime() - start) / 1000000;
+                if (value == null) {
+                    return;
+                }
+                if (key != null) {
+                    mCache.put(key, value);
+                }
+
+                mMainExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoadCount++;
+                        mLastLoadMillis = loadMillis;
+                        if (requestNumber == mRequest) {
+                            callback.onLoaded(value);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /** Number of values loaded, as opposed to found in the cache. */
+    int getLoadCount() {
+        return mLoadCount;
+    }
+
+    /** Number of values found in the cache. */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /** How long the last load took. */
+    long getLastLoadMillis() {
+        return mLastLoadMillis;
+    }
+}
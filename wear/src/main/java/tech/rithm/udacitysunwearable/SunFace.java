@@ -22,19 +22,16 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 import android.widget.Toast;
@@ -47,64 +44,41 @@ import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import java.io.InputStream;
-import java.lang.ref.WeakReference;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.io.File;
+import java.io.IOException;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
+
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+import tech.rithm.udacitysunwearable.shared.Forecast;
+import tech.rithm.udacitysunwearable.shared.ForecastPayload;
 
 /**
  * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode, and on devices
+ * that can burn in, it's outlined and moved around. See {@link SunFaceRenderer}.
  */
 public class SunFace extends CanvasWatchFaceService {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
-
-    /**
-     * Handler message id for updating the time periodically in interactive mode.
-     */
-    private static final int MSG_UPDATE_TIME = 0;
+    private static final long INTERACTIVE_UPDATE_RATE_MS = TickScheduler.RATE_1_HZ;
 
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
-    private static class EngineHandler extends Handler {
-        private final WeakReference<SunFace.Engine> mWeakReference;
-
-        public EngineHandler(SunFace.Engine reference) {
-            mWeakReference = new WeakReference<>(reference);
-        }
-
-        @Override
-        public void handleMessage(Message msg) {
-            SunFace.Engine engine = mWeakReference.get();
-            if (engine != null) {
-                switch (msg.what) {
-                    case MSG_UPDATE_TIME:
-                        engine.handleUpdateTimeMessage();
-                        break;
-                }
-            }
-        }
-    }
-
     private class Engine extends CanvasWatchFaceService.Engine implements
+            TickScheduler.Listener,
             DataApi.DataListener,
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener{
@@ -113,50 +87,56 @@ public class SunFace extends CanvasWatchFaceService {
         private GoogleApiClient googleApiClient;
         private static final String PATH_WEATHER = "/weather";
         private static final String PATH_WEATHER_REQUEST = "/weather-request";
-        private static final String KEY_MAX_TEMP = "com.sunshine.key.max_temp";
-        private static final String KEY_MIN_TEMP = "com.sunshine.key.min_temp";
-        private static final String KEY_TIME_STAMP = "com.sunshine.key.stamp";
-        private static final String KEY_ASSET_IMAGE = "com.sunshine.key.asset_image";
-        private static final String KEY_WEATHER_DESC = "com.sunshine.key.weather_desc";
-        private String maxTemp = "99";
-        private String minTemp = "11";
-        private long time_stamp;
-        private String weatherDescription = "..awaiting";
-
-        final Handler mUpdateTimeHandler = new EngineHandler(this);
+
+        TickScheduler mTickScheduler;
         boolean mRegisteredTimeZoneReceiver = false;
-        Paint mBackgroundPaint;
-        Paint mTextPaint;
-        Paint datePaint;
-        Paint mMaxPaint;
-        Paint mMinPaint;
-        Paint line_paint;
-        Paint mWeatherDescription;
-        Paint mIcon;
-        Bitmap icon;
+        SunFaceRenderer mRenderer;
+        WeatherIconLoader mIconLoader;
+        /* When the face last became visible, and whether an icon was shown since */
+        long mVisibleSince;
+        boolean mIconShownSinceVisible;
+        /* When the engine was created, and whether a frame with real weather was drawn since */
+        long mCreatedAt;
+        boolean mShowsWeather;
+        boolean mWeatherFrameDrawn;
+        /* Where the last weather is kept across restarts, and what we last put there */
+        File mSnapshotFile;
+        WeatherSnapshot mSavedWeather;
+        Bitmap mSavedIcon;
+        /*
+         * The days the phone last sent, with the description and icon of each kind of weather
+         * in them. The face moves on to the next day by itself.
+         */
+        DaySelector mDaySelector;
+        final SparseArray<String> mDescriptions = new SparseArray<>();
+        final SparseArray<Asset> mIcons = new SparseArray<>();
+        /* TimeZone.getDefault() makes a copy each call, so we keep ours for every frame */
+        TimeZone mTimeZone;
         boolean mAmbient;
-        Calendar mCalendar;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
                 invalidate();
             }
         };
-        float mXOffset;
-        float mYOffset;
-
 
-        boolean isRound;
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
 
+        /**
+         * Whether the display can burn in. When true, ambient mode outlines text and moves the
+         * face a little every minute.
+         */
+        boolean mBurnInProtection;
+
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
+            mCreatedAt = SystemClock.elapsedRealtime();
 
             googleApiClient = new GoogleApiClient.Builder(SunFace.this)
                     .addConnectionCallbacks(this)
@@ -171,81 +151,88 @@ public class SunFace extends CanvasWatchFaceService {
                     .setAcceptsTapEvents(true)
                     .build());
             Resources resources = SunFace.this.getResources();
-            mYOffset = resources.getDimension(R.dimen.digital_y_offset_square);
-
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.colorPrimary));
-
-            mTextPaint = new Paint();
-            mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mTextPaint.setTextAlign(Paint.Align.CENTER);
-
-            datePaint = new Paint();
-            datePaint.setColor(Color.WHITE);
-            datePaint.setTextSize(resources.getDimension(R.dimen.digital_date_size));
-            datePaint.setAntiAlias(true);
-
-            mMaxPaint = new Paint();
-            mMaxPaint.setColor(resources.getColor(R.color.detail_accent_pane_background));
-            mMaxPaint.setTextSize(resources.getDimension(R.dimen.high_temp_text_size));
-            mMaxPaint.setAntiAlias(true);
-
-            mMinPaint = new Paint();
-            mMinPaint.setColor(resources.getColor(R.color.detail_accent_label));
-            mMinPaint.setTextSize(resources.getDimension(R.dimen.low_temp_text_size));
-            mMinPaint.setAntiAlias(true);
-
-            line_paint = new Paint();
-            line_paint.setColor(Color.LTGRAY);
-            line_paint.setAntiAlias(true);
-
-            mWeatherDescription = new Paint();
-            mWeatherDescription.setColor(Color.LTGRAY);
-            mWeatherDescription.setAntiAlias(true);
-            mWeatherDescription.setTextSize(18);
-
-            mIcon = new Paint();
-
-            mCalendar = Calendar.getInstance();
+            mRenderer = new SunFaceRenderer(resources);
+            mDaySelector = new DaySelector(TimeZone.getDefault());
+            updateTimeZone();
+            mTickScheduler = new TickScheduler(this);
+            mIconLoader = new WeatherIconLoader(googleApiClient,
+                    resources.getDimensionPixelSize(R.dimen.bitmap_size));
+
+            restoreWeather();
+        }
 
+        /*
+         * Shows the weather we had before we were restarted, if any, while we wait for the
+         * phone. It's a small local file, read before the first frame.
+         */
+        private void restoreWeather() {
+            mSnapshotFile = new File(getFilesDir(), WeatherSnapshot.FILE_NAME);
+            WeatherSnapshot snapshot = WeatherSnapshot.read(mSnapshotFile);
+            if (snapshot == null) {
+                return;
+            }
+            mRenderer.setWeather(snapshot.getDate(), snapshot.getMaxTemp(),
+                    snapshot.getMinTemp(), snapshot.getDescription());
+            mRenderer.setIcon(snapshot.decodeIcon());
+            mSavedWeather = snapshot;
+            mShowsWeather = true;
+            Log.d("SunFace", "Restored the weather in "
+                    + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms");
+        }
 
+        /* Keeps the weather we show for the next time we start, unless we already did */
+        private void saveWeather(WeatherSnapshot weather, Bitmap icon) {
+            if (weather.hasSameWeatherAs(mSavedWeather) && icon == mSavedIcon) {
+                return;
+            }
+            mSavedWeather = weather;
+            mSavedIcon = icon;
+            WeatherSnapshot.writeAsync(mSnapshotFile, weather.getDate(), weather.getMaxTemp(),
+                    weather.getMinTemp(), weather.getDescription(), icon);
         }
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mTickScheduler.stop();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
-        }
-
         @Override
         public void onVisibilityChanged(boolean visible) {
             super.onVisibilityChanged(visible);
 
             if (visible) {
+                mVisibleSince = SystemClock.elapsedRealtime();
+                mIconShownSinceVisible = false;
+                /* onConnected picks up the weather the Data Layer already holds */
                 googleApiClient.connect();
-                sendMessage(PATH_WEATHER_REQUEST, "RequestWeather".getBytes());
                 registerReceiver();
                 /* Update time zone in case it changed while we weren't visible. */
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                updateTimeZone();
                 invalidate();
             } else {
                 Wearable.DataApi.removeListener(googleApiClient, this);
                 googleApiClient.disconnect();
                 unregisterReceiver();
+                if (BuildConfig.DEBUG) {
+                    Log.d("SunFace", mTickScheduler.getTickCount() + " ticks, "
+                            + mTickScheduler.getMissedCount() + " missed, "
+                            + mTickScheduler.getLateCount() + " late (max "
+                            + mTickScheduler.getMaxLatenessMillis() + " ms), "
+                            + mTickScheduler.getDuplicateCount() + " duplicates");
+                }
             }
 
             /* Check and trigger whether or not timer should be running (only in active mode). */
             updateTimer();
         }
 
+        private void updateTimeZone() {
+            mTimeZone = TimeZone.getDefault();
+            mRenderer.setTimeZone(mTimeZone);
+            mDaySelector.setTimeZone(mTimeZone);
+        }
+
         private void registerReceiver() {
             if (mRegisteredTimeZoneReceiver) {
                 return;
@@ -268,21 +255,21 @@ public class SunFace extends CanvasWatchFaceService {
             super.onApplyWindowInsets(insets);
 
             // Load resources that have alternate values for round watches.
-            Resources resources = SunFace.this.getResources();
-            isRound = insets.isRound();
-            mYOffset = resources.getDimension(isRound ? R.dimen.digital_y_offset_round : R.dimen.digital_y_offset_square);
-            mXOffset = resources.getDimension(isRound
-                    ? R.dimen.digital_x_offset_round : R.dimen.digital_x_offset);
-            float textSize = resources.getDimension(isRound
-                    ? R.dimen.digital_text_size_round : R.dimen.digital_text_size);
-
-            mTextPaint.setTextSize(textSize);
+            mRenderer.setRound(SunFace.this.getResources(), insets.isRound());
+        }
+
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            mRenderer.setSize(width, height);
         }
 
         @Override
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            mRenderer.setAmbientProperties(mLowBitAmbient, mBurnInProtection);
         }
 
         @Override
@@ -296,8 +283,11 @@ public class SunFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTextPaint.setAntiAlias(!inAmbientMode);
+                mRenderer.setAmbient(inAmbientMode);
+                if (inAmbientMode && BuildConfig.DEBUG) {
+                    Log.d("SunFace", "Ambient face lights "
+                            + Math.round(mRenderer.measureAmbientLitRatio(
+                                    System.currentTimeMillis()) * 100) + "% of the pixels");
                 }
                 invalidate();
             }
@@ -332,123 +322,81 @@ public class SunFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-
-            int watch_width = bounds.width();
-            int watch_height = bounds.height();
-            int center_x = watch_width / 2;
-            int center_y = watch_height / 2;
-
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
             long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-
-            String textTime = mAmbient
-                    ? String.format("%d:%02d", mCalendar.get(Calendar.HOUR),
-                    mCalendar.get(Calendar.MINUTE))
-                    : String.format("%d:%02d:%02d", mCalendar.get(Calendar.HOUR),
-                    mCalendar.get(Calendar.MINUTE), mCalendar.get(Calendar.SECOND));
-            canvas.drawText(textTime, watch_width / 2, mYOffset, mTextPaint);
-
-            SimpleDateFormat sdf = new SimpleDateFormat("EEE, MMM d yyyy");
-            sdf.setTimeZone(mCalendar.getTimeZone());
-            String day = sdf.format(mCalendar.getTime());
-            float dateXOffset = computeXOffset(day, datePaint, bounds);
-            float dateYOffset = computeDateYOffset(day, datePaint);
-            canvas.drawText(day, dateXOffset, dateYOffset + mYOffset, datePaint);
-
-            float line_Yoffset = getResources().getDimension(isRound ? R.dimen.digital_y_line_offset_round
-                                                                    : R.dimen.digital_y_line_offset_square);
-            float line_length = getResources().getDimension(isRound ? R.dimen.line_length_round
-                                                                    : R.dimen.line_length_square);
-
-            canvas.drawLine(center_x - line_length, center_y + line_Yoffset , center_x + line_length, center_y  + line_Yoffset, line_paint);
-
-            float max_temp_x_offset = getResources().getDimension(isRound ? R.dimen.high_temp_x_offset_round : R.dimen.high_temp_x_offset_square);
-            float max_temp_y_offset = getResources().getDimension(isRound ? R.dimen.high_temp_y_offset_round : R.dimen.high_temp_y_offset_square);
-
-            float min_temp_x_offset = getResources().getDimension(isRound ? R.dimen.low_temp_x_offset_round : R.dimen.low_temp_x_offset_square);
-            float min_temp_y_offset = getResources().getDimension(isRound ? R.dimen.low_temp_y_offset_round : R.dimen.low_temp_y_offset_square);
-
-            canvas.drawText(maxTemp, center_x + max_temp_x_offset, center_y + max_temp_y_offset, mMaxPaint);
-            canvas.drawText(minTemp, center_x + min_temp_x_offset, center_y + min_temp_y_offset, mMinPaint);
-
-            float bitmap_x_offset = getResources().getDimension(isRound ? R.dimen.bitmap_x_offset_round : R.dimen.bitmap_x_offset_square);
-            float bitmap_y_offset = getResources().getDimension(isRound ? R.dimen.bitmap_y_offset_round : R.dimen.bitmap_y_offset_square);
-            if(icon != null){
-                canvas.drawBitmap(icon,center_x - bitmap_x_offset, center_y + bitmap_y_offset, mIcon );
+            if (mDaySelector.isDayOver(now)) {
+                showToday(now);
+            }
+            mRenderer.draw(canvas, now);
+            if (mShowsWeather && !mWeatherFrameDrawn) {
+                mWeatherFrameDrawn = true;
+                Log.d("SunFace", "Time to first frame with weather: "
+                        + (SystemClock.elapsedRealtime() - mCreatedAt) + " ms"
+                        + (mRenderer.isWeatherStale() ? ", stale" : ""));
             }
-
-            float desc_x_offset = getResources().getDimension(isRound ? R.dimen.desc_x_offset_round : R.dimen.desc_x_offset_square);
-            float desc_y_offset = getResources().getDimension(isRound ? R.dimen.desc_y_offset_round : R.dimen.desc_y_offset_square);
-            canvas.drawText(weatherDescription, center_x - desc_x_offset, center_y + desc_y_offset, mWeatherDescription);
-
-
-        }
-
-        private float computeXOffset(String text, Paint paint, Rect watchBounds) {
-            float centerX = watchBounds.exactCenterX();
-            float timeLength = paint.measureText(text);
-            return centerX - (timeLength / 2.0f);
-        }
-
-        private float computeTimeYOffset(String timeText, Paint timePaint, Rect watchBounds) {
-            float centerY = watchBounds.exactCenterY();
-            Rect textBounds = new Rect();
-            timePaint.getTextBounds(timeText, 0, timeText.length(), textBounds);
-            int textHeight = textBounds.height();
-            return centerY + (textHeight / 2.0f);
-        }
-
-        private float computeDateYOffset(String dateText, Paint datePaint) {
-            Rect textBounds = new Rect();
-            datePaint.getTextBounds(dateText, 0, dateText.length(), textBounds);
-            return textBounds.height() + 10.0f;
         }
 
         /**
-         * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
-         * or stops it if it shouldn't be running but currently is.
+         * Starts the {@link #mTickScheduler} if it should be running or stops it if it shouldn't.
+         * Either is a no-op if it already is in that state.
          */
         private void updateTimer() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             if (shouldTimerBeRunning()) {
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+                mTickScheduler.start(INTERACTIVE_UPDATE_RATE_MS);
+            } else {
+                mTickScheduler.stop();
             }
         }
 
         /**
-         * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer should
-         * only run when we're visible and in interactive mode.
+         * Returns whether the {@link #mTickScheduler} should be running. It should only run when
+         * we're visible and in interactive mode; in ambient mode, onTimeTick comes every minute.
          */
         private boolean shouldTimerBeRunning() {
             return isVisible() && !isInAmbientMode();
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Redraws on every second boundary in interactive mode.
          */
-        private void handleUpdateTimeMessage() {
+        @Override
+        public void onTick(long boundaryMillis) {
             invalidate();
-            if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-            }
         }
 
         @Override
         public void onConnected(Bundle bundle){
 
             Wearable.DataApi.addListener(googleApiClient, this);
-            sendMessage(PATH_WEATHER_REQUEST, "CounterRequest".getBytes());
+
+            /*
+             * The phone only sends the weather when it changes, and the Data Layer keeps the
+             * last copy on the watch. Read that copy, it's local. Only if there's none yet do
+             * we ask the phone, which costs a Bluetooth round trip.
+             */
+            Uri weatherUri = new Uri.Builder()
+                    .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(PATH_WEATHER)
+                    .build();
+            Wearable.DataApi.getDataItems(googleApiClient, weatherUri)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            boolean found = false;
+                            try {
+                                for (DataItem item : dataItems) {
+                                    found |= updateFromDataItem(item);
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+
+                            if (found) {
+                                invalidate();
+                            } else {
+                                sendMessage(PATH_WEATHER_REQUEST, "RequestWeather".getBytes());
+                            }
+                        }
+                    });
         }
 
         private void sendMessage(final String path, final byte[] data){
@@ -479,16 +427,7 @@ public class SunFace extends CanvasWatchFaceService {
 
             for (DataEvent event : dataEvents){
                 if (event.getType() == DataEvent.TYPE_CHANGED) {
-                    DataItem item = event.getDataItem();
-                    if (item.getUri().getPath().compareTo(PATH_WEATHER) == 0) {
-                        DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                        //updateCount(dataMap.getInt(COUNT_KEY));
-                        updateMaxTemp(dataMap.getString(KEY_MAX_TEMP));
-                        updateMinTemp(dataMap.getString(KEY_MIN_TEMP));
-                        updateTimeStamp(dataMap.getLong(KEY_TIME_STAMP));
-                        updateWeatherDesc(dataMap.getString(KEY_WEATHER_DESC));
-                        loadBitmapFromAsset(dataMap.getAsset(KEY_ASSET_IMAGE));
-                    }
+                    updateFromDataItem(event.getDataItem());
                 } else if (event.getType() == DataEvent.TYPE_DELETED){
                     // DataIteme deleted
                 }
@@ -499,42 +438,93 @@ public class SunFace extends CanvasWatchFaceService {
 
         }
 
-        private void loadBitmapFromAsset(final Asset asset){
-            if (asset == null){
-                throw new IllegalArgumentException("asset must be non null");
+        /*
+         * Takes the forecast from a data item the phone put, whether it just changed or was
+         * already there. Returns false if the item isn't a forecast we can read.
+         */
+        private boolean updateFromDataItem(DataItem item){
+            if (item.getUri().getPath().compareTo(PATH_WEATHER) != 0) {
+                return false;
+            }
+            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
+            byte[] payload = dataMap.getByteArray(ForecastPayload.KEY_FORECAST);
+            if (payload == null) {
+                return false;
+            }
+            Forecast forecast;
+            try {
+                forecast = ForecastPayload.decode(payload);
+            } catch (IOException e) {
+                Log.w("SunFace", "Couldn't read the forecast", e);
+                return false;
             }
 
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    ConnectionResult connectionResult = googleApiClient.blockingConnect(15000, TimeUnit.MILLISECONDS);
-                    if(connectionResult.isSuccess()){
-                        InputStream assetInputStream = Wearable.DataApi.getFdForAsset(googleApiClient, asset).await().getInputStream();
-                        googleApiClient.disconnect();
-
-                        if(assetInputStream != null){
-                            icon = BitmapFactory.decodeStream(assetInputStream);
-                        }
-                    }
-                }
-            }).start();
-        }
-
-        private void updateMaxTemp(String temp){
-            maxTemp = temp;
-        }
-
-        private void updateMinTemp(String temp){
-            minTemp = temp;
+            mDescriptions.clear();
+            mIcons.clear();
+            for (DayForecast day : forecast.getDays()) {
+                int weatherId = day.getWeatherId();
+                mDescriptions.put(weatherId,
+                        dataMap.getString(ForecastPayload.descriptionKey(weatherId)));
+                mIcons.put(weatherId, dataMap.getAsset(ForecastPayload.iconKey(weatherId)));
+            }
+            mDaySelector.setDays(forecast.getDays());
+            showToday(System.currentTimeMillis());
+            return true;
         }
 
-        private void updateTimeStamp(long timeStamp) {
-            this.time_stamp = timeStamp;
+        /*
+         * Shows the day of the forecast that is today here. Called when the forecast comes in
+         * and on the first frame of each new day, which needs nothing from the phone.
+         */
+        private void showToday(long now) {
+            DayForecast day = mDaySelector.selectDay(now);
+            if (day == null) {
+                return;
+            }
+            int weatherId = day.getWeatherId();
+            WeatherSnapshot weather = new WeatherSnapshot(day.getDate(),
+                    getString(R.string.format_temperature,
+                            Forecast.toDegrees(day.getMaxTemp())),
+                    getString(R.string.format_temperature,
+                            Forecast.toDegrees(day.getMinTemp())),
+                    mDescriptions.get(weatherId),
+                    null);
+            mRenderer.setWeather(weather.getDate(), weather.getMaxTemp(), weather.getMinTemp(),
+                    weather.getDescription());
+            mShowsWeather = true;
+            Asset icon = mIcons.get(weatherId);
+            if (icon != null) {
+                loadBitmapFromAsset(icon, weather);
+            }
         }
 
+        /*
+         * Loads the icon of the weather, then keeps both for the next time we start.
+         */
+        private void loadBitmapFromAsset(final Asset asset, final WeatherSnapshot weather){
+            if (asset == null){
+                throw new IllegalArgumentException("asset must be non null");
+            }
 
-        private void updateWeatherDesc(String weatherDescription){
-            this.weatherDescription = weatherDescription;
+            /*
+             * The loader uses our client as it is, connected while we're visible. It never
+             * connects or disconnects it, which would pull the Data Layer out from under us.
+             */
+            mIconLoader.load(asset, new WeatherIconLoader.Callback() {
+                @Override
+                public void onIconLoaded(Bitmap loaded) {
+                    mRenderer.setIcon(loaded);
+                    saveWeather(weather, loaded);
+                    if (!mIconShownSinceVisible && isVisible()) {
+                        mIconShownSinceVisible = true;
+                        Log.d("SunFace", "Time to first icon: "
+                                + (SystemClock.elapsedRealtime() - mVisibleSince) + " ms, "
+                                + mIconLoader.getDecodeCount() + " decodes, "
+                                + mIconLoader.getHitCount() + " cache hits");
+                    }
+                    invalidate();
+                }
+            });
         }
     }
 }
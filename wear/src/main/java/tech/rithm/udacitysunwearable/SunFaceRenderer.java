@@ -0,0 +1,569 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.support.annotation.VisibleForTesting;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Draws {@link SunFace}: the time, the date, and today's weather.
+ * <p>
+ * Everything that only changes with the shape or size of the screen is worked out in
+ * {@link #setRound(Resources, boolean)} and {@link #setSize(int, int)}, not per frame. The date
+ * string is only formatted again when the day changes, and the time is written into a reused
+ * char array, so drawing a frame doesn't allocate.
+ * <p>
+ * Only the time changes from one second to the next. The background, the date and the weather
+ * are drawn once into a layer the size of the screen, again only when the weather, the day or
+ * the layout changes; a frame copies that layer and draws the time over it.
+ * <p>
+ * Weather from an earlier day than today is stale: it's still shown, faded, until the phone
+ * sends today's.
+ * <p>
+ * Ambient mode has a pipeline of its own. The screen is mostly off then and we draw once a
+ * minute, so we light as few pixels as we can: white on black, no icon, no separator. Everything
+ * but the time is drawn once into an alpha-only layer, again only when the weather, the day or
+ * the layout changes. A tick draws the time and that layer. With burn-in protection, text is
+ * outlined and the face moves by a few pixels every minute.
+ */
+class SunFaceRenderer {
+
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    /* The date sits this far below its text bounds, under the time */
+    private static final float DATE_Y_PADDING = 10.0f;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /* How opaque stale weather is drawn */
+    private static final int STALE_ALPHA = 0x60;
+
+    /* How far, in pixels, burn-in protection moves the ambient face off its place */
+    static final int BURN_IN_SHIFT = 4;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTextPaint;
+    private final Paint mDatePaint;
+    private final Paint mMaxPaint;
+    private final Paint mMinPaint;
+    private final Paint mLinePaint;
+    private final Paint mDescriptionPaint;
+    private final Paint mIconPaint;
+
+    private final Paint mAmbientTimePaint;
+    private final Paint mAmbientTextPaint;
+    private final Paint mAmbientLayerPaint;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final SimpleDateFormat mDateFormat =
+            new SimpleDateFormat("EEE, MMM d yyyy", Locale.getDefault());
+    private final Rect mTextBounds = new Rect();
+
+    /* "H:MM:SS" at most, hours being 0 to 11 */
+    private final char[] mTimeChars = new char[8];
+
+    /* Dimensions that depend on the shape of the screen, read once per shape */
+    private float mTimeYOffset;
+    private float mLineYOffset;
+    private float mLineLength;
+    private float mMaxXOffset;
+    private float mMaxYOffset;
+    private float mMinXOffset;
+    private float mMinYOffset;
+    private float mIconXOffset;
+    private float mIconYOffset;
+    private float mDescriptionXOffset;
+    private float mDescriptionYOffset;
+
+    private int mWidth;
+    private int mHeight;
+
+    /* Where everything goes, from the dimensions above and the size of the screen */
+    private float mCenterX;
+    private float mCenterY;
+    private float mDateX;
+    private float mDateY;
+    private float mLineStartX;
+    private float mLineEndX;
+    private float mLineY;
+    private float mMaxX;
+    private float mMaxY;
+    private float mMinX;
+    private float mMinY;
+    private float mIconX;
+    private float mIconY;
+    private float mDescriptionX;
+    private float mDescriptionY;
+
+    /* The date string of the day we last drew, and that day */
+    private String mDate;
+    private int mDateDay = -1;
+    private float mDateWidth;
+    private float mDateHeight;
+
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+    private boolean mBurnInProtection;
+
+    /* What the interactive face shows besides the time, see buildStaticLayer */
+    private Bitmap mStaticLayer;
+    private Canvas mStaticLayerCanvas;
+    private boolean mStaticLayerValid;
+    private int mStaticLayerBuildCount;
+
+    /* What the ambient face shows besides the time, see buildAmbientLayer */
+    private Bitmap mAmbientLayer;
+    private Canvas mAmbientLayerCanvas;
+    private boolean mAmbientLayerValid;
+    private int mAmbientLayerBuildCount;
+
+    /* The day the weather is for, as the phone sends it: UTC midnight of the local date */
+    private long mWeatherDate;
+    private boolean mWeatherStale;
+
+    private String mMaxTemp = "99";
+    private String mMinTemp = "11";
+    private String mDescription = "..awaiting";
+    private Bitmap mIcon;
+
+    SunFaceRenderer(Resources resources) {
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.colorPrimary));
+
+        mTextPaint = new Paint();
+        mTextPaint.setColor(resources.getColor(R.color.digital_text));
+        mTextPaint.setTypeface(NORMAL_TYPEFACE);
+        mTextPaint.setAntiAlias(true);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+
+        mDatePaint = new Paint();
+        mDatePaint.setColor(Color.WHITE);
+        mDatePaint.setTextSize(resources.getDimension(R.dimen.digital_date_size));
+        mDatePaint.setAntiAlias(true);
+
+        mMaxPaint = new Paint();
+        mMaxPaint.setColor(resources.getColor(R.color.detail_accent_pane_background));
+        mMaxPaint.setTextSize(resources.getDimension(R.dimen.high_temp_text_size));
+        mMaxPaint.setAntiAlias(true);
+
+        mMinPaint = new Paint();
+        mMinPaint.setColor(resources.getColor(R.color.detail_accent_label));
+        mMinPaint.setTextSize(resources.getDimension(R.dimen.low_temp_text_size));
+        mMinPaint.setAntiAlias(true);
+
+        mLinePaint = new Paint();
+        mLinePaint.setColor(Color.LTGRAY);
+        mLinePaint.setAntiAlias(true);
+
+        mDescriptionPaint = new Paint();
+        mDescriptionPaint.setColor(Color.LTGRAY);
+        mDescriptionPaint.setAntiAlias(true);
+        mDescriptionPaint.setTextSize(18);
+
+        mIconPaint = new Paint();
+
+        mAmbientTimePaint = new Paint();
+        mAmbientTimePaint.setColor(Color.WHITE);
+        mAmbientTimePaint.setTypeface(NORMAL_TYPEFACE);
+        mAmbientTimePaint.setTextAlign(Paint.Align.CENTER);
+
+        mAmbientTextPaint = new Paint();
+        mAmbientTextPaint.setColor(Color.WHITE);
+
+        /* Gives its color to the alpha-only layer */
+        mAmbientLayerPaint = new Paint();
+        mAmbientLayerPaint.setColor(Color.WHITE);
+
+        setAmbientProperties(false, false);
+        setRound(resources, false);
+    }
+
+    /**
+     * Reads the dimensions for a round or a square screen. Called when the insets are known.
+     */
+    void setRound(Resources resources, boolean isRound) {
+        mTimeYOffset = resources.getDimension(isRound
+                ? R.dimen.digital_y_offset_round : R.dimen.digital_y_offset_square);
+        mTextPaint.setTextSize(resources.getDimension(isRound
+                ? R.dimen.digital_text_size_round : R.dimen.digital_text_size));
+        mAmbientTimePaint.setTextSize(mTextPaint.getTextSize());
+
+        mLineYOffset = resources.getDimension(isRound
+                ? R.dimen.digital_y_line_offset_round : R.dimen.digital_y_line_offset_square);
+        mLineLength = resources.getDimension(isRound
+                ? R.dimen.line_length_round : R.dimen.line_length_square);
+
+        mMaxXOffset = resources.getDimension(isRound
+                ? R.dimen.high_temp_x_offset_round : R.dimen.high_temp_x_offset_square);
+        mMaxYOffset = resources.getDimension(isRound
+                ? R.dimen.high_temp_y_offset_round : R.dimen.high_temp_y_offset_square);
+        mMinXOffset = resources.getDimension(isRound
+                ? R.dimen.low_temp_x_offset_round : R.dimen.low_temp_x_offset_square);
+        mMinYOffset = resources.getDimension(isRound
+                ? R.dimen.low_temp_y_offset_round : R.dimen.low_temp_y_offset_square);
+
+        mIconXOffset = resources.getDimension(isRound
+                ? R.dimen.bitmap_x_offset_round : R.dimen.bitmap_x_offset_square);
+        mIconYOffset = resources.getDimension(isRound
+                ? R.dimen.bitmap_y_offset_round : R.dimen.bitmap_y_offset_square);
+
+        mDescriptionXOffset = resources.getDimension(isRound
+                ? R.dimen.desc_x_offset_round : R.dimen.desc_x_offset_square);
+        mDescriptionYOffset = resources.getDimension(isRound
+                ? R.dimen.desc_y_offset_round : R.dimen.desc_y_offset_square);
+
+        updateLayout();
+    }
+
+    /**
+     * Takes the size of the surface we draw on.
+     */
+    void setSize(int width, int height) {
+        if (width != mWidth || height != mHeight) {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+                mStaticLayer = null;
+            }
+            mStaticLayerCanvas = null;
+            if (mAmbientLayer != null) {
+                mAmbientLayer.recycle();
+                mAmbientLayer = null;
+            }
+            mAmbientLayerCanvas = null;
+        }
+        mWidth = width;
+        mHeight = height;
+        updateLayout();
+    }
+
+    private void updateLayout() {
+        /* Integer halves, as the face always used */
+        mCenterX = mWidth / 2;
+        mCenterY = mHeight / 2;
+
+        mLineStartX = mCenterX - mLineLength;
+        mLineEndX = mCenterX + mLineLength;
+        mLineY = mCenterY + mLineYOffset;
+
+        mMaxX = mCenterX + mMaxXOffset;
+        mMaxY = mCenterY + mMaxYOffset;
+        mMinX = mCenterX + mMinXOffset;
+        mMinY = mCenterY + mMinYOffset;
+
+        mIconX = mCenterX - mIconXOffset;
+        mIconY = mCenterY + mIconYOffset;
+
+        mDescriptionX = mCenterX - mDescriptionXOffset;
+        mDescriptionY = mCenterY + mDescriptionYOffset;
+
+        updateDateLayout();
+    }
+
+    private void updateDateLayout() {
+        mDateX = mWidth / 2.0f - mDateWidth / 2.0f;
+        mDateY = mDateHeight + DATE_Y_PADDING + mTimeYOffset;
+        mStaticLayerValid = false;
+        mAmbientLayerValid = false;
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mCalendar.setTimeZone(timeZone);
+        mDateFormat.setTimeZone(timeZone);
+        /* The day may be another one over there */
+        mDateDay = -1;
+    }
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+    }
+
+    /**
+     * Takes what the screen can do in ambient mode.
+     *
+     * @param lowBitAmbient     Whether it has fewer bits per color, so nothing is anti-aliased
+     * @param burnInProtection  Whether it can burn in, so text is outlined and the face moves
+     */
+    void setAmbientProperties(boolean lowBitAmbient, boolean burnInProtection) {
+        mLowBitAmbient = lowBitAmbient;
+        mBurnInProtection = burnInProtection;
+
+        Paint.Style style = burnInProtection ? Paint.Style.STROKE : Paint.Style.FILL;
+        mAmbientTimePaint.setAntiAlias(!lowBitAmbient);
+        mAmbientTimePaint.setStyle(style);
+        mAmbientTextPaint.setAntiAlias(!lowBitAmbient);
+        mAmbientTextPaint.setStyle(style);
+        mAmbientLayerValid = false;
+    }
+
+    /**
+     * @param date The day the weather is for, in UTC milliseconds at midnight of the local date
+     */
+    void setWeather(long date, String maxTemp, String minTemp, String description) {
+        mWeatherDate = date;
+        mMaxTemp = maxTemp;
+        mMinTemp = minTemp;
+        mDescription = description;
+        mStaticLayerValid = false;
+        mAmbientLayerValid = false;
+        updateStale();
+    }
+
+    /** Whether the weather we show is for an earlier day than today. */
+    boolean isWeatherStale() {
+        return mWeatherStale;
+    }
+
+    /* Checks the weather date against the day of the calendar, as of the last frame */
+    private void updateStale() {
+        long now = mCalendar.getTimeInMillis();
+        long today = (now + mCalendar.getTimeZone().getOffset(now)) / DAY_MILLIS;
+        boolean stale = mWeatherDate != 0 && mWeatherDate / DAY_MILLIS < today;
+        if (stale == mWeatherStale) {
+            return;
+        }
+        mWeatherStale = stale;
+
+        int alpha = stale ? STALE_ALPHA : 0xff;
+        mMaxPaint.setAlpha(alpha);
+        mMinPaint.setAlpha(alpha);
+        mDescriptionPaint.setAlpha(alpha);
+        mIconPaint.setAlpha(alpha);
+        mStaticLayerValid = false;
+    }
+
+    void setIcon(Bitmap icon) {
+        mIcon = icon;
+        mStaticLayerValid = false;
+    }
+
+    /**
+     * Draws the face as it is at the given time.
+     */
+    void draw(Canvas canvas, long nowMillis) {
+        mCalendar.setTimeInMillis(nowMillis);
+        updateDate();
+
+        if (mAmbient) {
+            drawAmbient(canvas);
+            return;
+        }
+
+        /* Without a size there is no layer yet, only the time */
+        if (mWidth != 0 && mHeight != 0) {
+            if (!mStaticLayerValid) {
+                buildStaticLayer();
+            }
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        }
+
+        // Draw H:MM:SS.
+        int length = formatTime(mCalendar, true, mTimeChars);
+        canvas.drawText(mTimeChars, 0, length, mCenterX, mTimeYOffset, mTextPaint);
+    }
+
+    /* Draws the background, the date and the weather into the static layer */
+    private void buildStaticLayer() {
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+        if (mStaticLayerCanvas == null) {
+            mStaticLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            mStaticLayerCanvas = newLayerCanvas(mStaticLayer);
+        }
+        Canvas canvas = mStaticLayerCanvas;
+
+        // Draw the background.
+        canvas.drawRect(0, 0, mWidth, mHeight, mBackgroundPaint);
+
+        canvas.drawText(mDate, mDateX, mDateY, mDatePaint);
+
+        canvas.drawLine(mLineStartX, mLineY, mLineEndX, mLineY, mLinePaint);
+
+        if (mMaxTemp != null) {
+            canvas.drawText(mMaxTemp, mMaxX, mMaxY, mMaxPaint);
+        }
+        if (mMinTemp != null) {
+            canvas.drawText(mMinTemp, mMinX, mMinY, mMinPaint);
+        }
+
+        if (mIcon != null) {
+            canvas.drawBitmap(mIcon, mIconX, mIconY, mIconPaint);
+        }
+
+        if (mDescription != null) {
+            canvas.drawText(mDescription, mDescriptionX, mDescriptionY, mDescriptionPaint);
+        }
+
+        mStaticLayerValid = true;
+        mStaticLayerBuildCount++;
+    }
+
+    /** Number of times the static layer was drawn, as opposed to reused. */
+    int getStaticLayerBuildCount() {
+        return mStaticLayerBuildCount;
+    }
+
+    /* The canvas that draws into a layer. Tests look at what is drawn there. */
+    @VisibleForTesting
+    Canvas newLayerCanvas(Bitmap layer) {
+        return new Canvas(layer);
+    }
+
+    /* One tick in ambient mode: H:MM, and the rest as it was drawn into the layer */
+    private void drawAmbient(Canvas canvas) {
+        canvas.drawColor(Color.BLACK);
+        if (mWidth == 0 || mHeight == 0) {
+            /* No size yet, so no layer to draw */
+            return;
+        }
+        if (!mAmbientLayerValid) {
+            buildAmbientLayer();
+        }
+
+        canvas.save();
+        if (mBurnInProtection) {
+            /* Nine places around the usual one, a different one every minute */
+            int minute = mCalendar.get(Calendar.MINUTE);
+            canvas.translate(burnInShift(minute % 3), burnInShift(minute / 3 % 3));
+        }
+        int length = formatTime(mCalendar, false, mTimeChars);
+        canvas.drawText(mTimeChars, 0, length, mCenterX, mTimeYOffset, mAmbientTimePaint);
+        canvas.drawBitmap(mAmbientLayer, 0, 0, mAmbientLayerPaint);
+        canvas.restore();
+    }
+
+    private static float burnInShift(int step) {
+        return (step - 1) * BURN_IN_SHIFT;
+    }
+
+    /*
+     * Draws the date and the weather into the ambient layer. It only holds alpha, a byte a pixel,
+     * and without anti-aliasing that's all on or off.
+     */
+    private void buildAmbientLayer() {
+        if (mWidth == 0 || mHeight == 0) {
+            return;
+        }
+        if (mAmbientLayerCanvas == null) {
+            mAmbientLayer = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ALPHA_8);
+            mAmbientLayerCanvas = newLayerCanvas(mAmbientLayer);
+        }
+        mAmbientLayerCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+
+        drawAmbientText(mDate, mDateX, mDateY, mDatePaint);
+        drawAmbientText(mMaxTemp, mMaxX, mMaxY, mMaxPaint);
+        drawAmbientText(mMinTemp, mMinX, mMinY, mMinPaint);
+        drawAmbientText(mDescription, mDescriptionX, mDescriptionY, mDescriptionPaint);
+
+        mAmbientLayerValid = true;
+        mAmbientLayerBuildCount++;
+    }
+
+    /* Draws text into the ambient layer, at the size it has in interactive mode */
+    private void drawAmbientText(String text, float x, float y, Paint interactivePaint) {
+        if (text == null) {
+            return;
+        }
+        mAmbientTextPaint.setTextSize(interactivePaint.getTextSize());
+        mAmbientLayerCanvas.drawText(text, x, y, mAmbientTextPaint);
+    }
+
+    /** Number of times the ambient layer was drawn, as opposed to reused. */
+    int getAmbientLayerBuildCount() {
+        return mAmbientLayerBuildCount;
+    }
+
+    /**
+     * Draws an ambient frame offscreen and returns the share of its pixels that are lit. It
+     * allocates a whole frame, so it's for measuring, not for every tick.
+     */
+    float measureAmbientLitRatio(long nowMillis) {
+        if (mWidth == 0 || mHeight == 0) {
+            return 0;
+        }
+        Bitmap frame = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        boolean ambient = mAmbient;
+        mAmbient = true;
+        draw(new Canvas(frame), nowMillis);
+        mAmbient = ambient;
+
+        int[] pixels = new int[mWidth * mHeight];
+        frame.getPixels(pixels, 0, mWidth, 0, 0, mWidth, mHeight);
+        frame.recycle();
+
+        int lit = 0;
+        for (int pixel : pixels) {
+            if ((pixel & 0x00ffffff) != 0) {
+                lit++;
+            }
+        }
+        return (float) lit / pixels.length;
+    }
+
+    /* Formats and measures the date again, only if the day changed since the last frame */
+    private void updateDate() {
+        int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+        if (day == mDateDay) {
+            return;
+        }
+        mDateDay = day;
+        mDate = mDateFormat.format(mCalendar.getTime());
+        mDateWidth = mDatePaint.measureText(mDate);
+        mDatePaint.getTextBounds(mDate, 0, mDate.length(), mTextBounds);
+        mDateHeight = mTextBounds.height();
+        updateDateLayout();
+        updateStale();
+    }
+
+    /**
+     * Writes the time as "H:MM", or "H:MM:SS" with seconds, into chars and returns its length.
+     * The hour is that of {@link Calendar#HOUR}, 0 to 11.
+     */
+    static int formatTime(Calendar calendar, boolean withSeconds, char[] chars) {
+        int length = 0;
+        int hour = calendar.get(Calendar.HOUR);
+        if (hour >= 10) {
+            chars[length++] = (char) ('0' + hour / 10);
+        }
+        chars[length++] = (char) ('0' + hour % 10);
+        length = appendTwoDigits(chars, length, calendar.get(Calendar.MINUTE));
+        if (withSeconds) {
+            length = appendTwoDigits(chars, length, calendar.get(Calendar.SECOND));
+        }
+        return length;
+    }
+
+    private static int appendTwoDigits(char[] chars, int length, int value) {
+        chars[length++] = ':';
+        chars[length++] = (char) ('0' + value / 10);
+        chars[length++] = (char) ('0' + value % 10);
+        return length;
+    }
+}
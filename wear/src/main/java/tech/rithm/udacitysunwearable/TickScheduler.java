@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.view.Choreographer;
+
+/**
+ * Asks the face to redraw right after each wall-clock boundary of its update rate: every
+ * second, every half second for a sweep, or every minute.
+ * <p>
+ * Each tick is aimed at the boundary itself, from the wall clock, not at the last tick plus the
+ * period. That way a late tick doesn't push the next one back, and we can't drift off the
+ * boundaries. The wait ends on the first vsync past the boundary, through the
+ * {@link Choreographer}, so a tick comes when a frame can actually be drawn. There is never
+ * more than one tick waiting, and starting the scheduler again at the rate it already runs at
+ * changes nothing, so ticks can't double up however often the face changes state.
+ * <p>
+ * It keeps count of what went wrong: boundaries we never ticked for, ticks that came more than a
+ * frame late, and ticks we dropped because we had just ticked for their boundary, which happens
+ * when the clock is set back a little. Use it on the main thread.
+ */
+class TickScheduler implements Choreographer.FrameCallback {
+
+    /** Once a second, for a face that shows seconds. */
+    static final long RATE_1_HZ = 1000;
+
+    /** Twice a second, for a sweeping second hand. */
+    static final long RATE_2_HZ = 500;
+
+    /** Once a minute, for a face that only shows minutes. */
+    static final long RATE_PER_MINUTE = 60 * 1000;
+
+    /* One frame at 60 Hz, rounded up. A tick that comes later than that is late. */
+    static final long LATE_MILLIS = 17;
+
+    interface Listener {
+        /**
+         * Called on the first frame after a boundary.
+         *
+         * @param boundaryMillis The wall-clock time of the boundary
+         */
+        void onTick(long boundaryMillis);
+    }
+
+    /* Where ticks wait for a frame, the Choreographer but for tests */
+    interface FrameSource {
+        void postFrameCallbackDelayed(Choreographer.FrameCallback callback, long delayMillis);
+
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    /* Where the wall-clock time comes from, System.currentTimeMillis() but for tests */
+    interface Clock {
+        long currentTimeMillis();
+    }
+
+    private final Listener mListener;
+    private final FrameSource mFrameSource;
+    private final Clock mClock;
+
+    private long mPeriodMillis;
+    private boolean mRunning;
+    private boolean mPosted;
+
+    /* The boundary the waiting tick is for, and the one of the last tick */
+    private long mTargetMillis;
+    private long mLastBoundaryMillis = -1;
+
+    private long mTickCount;
+    private long mMissedCount;
+    private long mLateCount;
+    private long mDuplicateCount;
+    private long mMaxLatenessMillis;
+
+    /**
+     * Ticks on the frames of the Choreographer of the calling thread, which needs a Looper.
+     */
+    TickScheduler(Listener listener) {
+        this(listener, new FrameSource() {
+            private final Choreographer mChoreographer = Choreographer.getInstance();
+
+            @Override
+            public void postFrameCallbackDelayed(Choreographer.FrameCallback callback,
+                    long delayMillis) {
+                mChoreographer.postFrameCallbackDelayed(callback, delayMillis);
+            }
+
+            @Override
+            public void removeFrameCallback(Choreographer.FrameCallback callback) {
+                mChoreographer.removeFrameCallback(callback);
+            }
+        }, new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        });
+    }
+
+    TickScheduler(Listener listener, FrameSource frameSource, Clock clock) {
+        mListener = listener;
+        mFrameSource = frameSource;
+        mClock = clock;
+    }
+
+    /**
+     * Starts ticking at the given rate, one of the RATE_ constants or any period in millis.
+     * Starting again at the same rate does nothing.
+     */
+    void start(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + periodMillis);
+        }
+        if (mRunning && periodMillis == mPeriodMillis) {
+            return;
+        }
+        if (periodMillis != mPeriodMillis) {
+            /* The old boundary means nothing at the new rate */
+            cancelPosted();
+            mPeriodMillis = periodMillis;
+        }
+        mRunning = true;
+        scheduleNext();
+    }
+
+    /**
+     * Stops ticking. Does nothing if we weren't.
+     */
+    void stop() {
+        mRunning = false;
+        cancelPosted();
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    private void cancelPosted() {
+        if (mPosted) {
+            mFrameSource.removeFrameCallback(this);
+            mPosted = false;
+        }
+    }
+
+    private void scheduleNext() {
+        if (mPosted) {
+            return;
+        }
+        long now = mClock.currentTimeMillis();
+        mTargetMillis = (now / mPeriodMillis + 1) * mPeriodMillis;
+        post(mTargetMillis - now);
+    }
+
+    private void post(long delayMillis) {
+        mPosted = true;
+        mFrameSource.postFrameCallbackDelayed(this, delayMillis);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mPosted = false;
+        if (!mRunning) {
+            return;
+        }
+
+        long now = mClock.currentTimeMillis();
+        if (now < mTargetMillis) {
+            if (mTargetMillis - now <= mPeriodMillis) {
+                /* The frame came a little before the boundary, wait for the next one past it */
+                post(mTargetMillis - now);
+                return;
+            }
+            /* The clock was set back by more than a period; aim at its next boundary */
+            scheduleNext();
+            return;
+        }
+
+        long boundary = now / mPeriodMillis * mPeriodMillis;
+        if (boundary == mLastBoundaryMillis) {
+            /* The clock was set back a little, and we already showed this time */
+            mDuplicateCount++;
+        } else {
+            if (boundary > mTargetMillis) {
+                mMissedCount += (boundary - mTargetMillis) / mPeriodMillis;
+            }
+            long lateness = now - boundary;
+            if (lateness > LATE_MILLIS) {
+                mLateCount++;
+            }
+            mMaxLatenessMillis = Math.max(mMaxLatenessMillis, lateness);
+            mTickCount++;
+            mLastBoundaryMillis = boundary;
+            mListener.onTick(boundary);
+        }
+        scheduleNext();
+    }
+
+    long getTickCount() {
+        return mTickCount;
+    }
+
+    /** Number of boundaries that went by without a tick, because the thread was busy. */
+    long getMissedCount() {
+        return mMissedCount;
+    }
+
+    /** Number of ticks that came more than {@link #LATE_MILLIS} after their boundary. */
+    long getLateCount() {
+        return mLateCount;
+    }
+
+    /** Number of ticks dropped because we already ticked for their boundary. */
+    long getDuplicateCount() {
+        return mDuplicateCount;
+    }
+
+    long getMaxLatenessMillis() {
+        return mMaxLatenessMillis;
+    }
+}
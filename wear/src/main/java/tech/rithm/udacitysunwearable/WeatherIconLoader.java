@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the icon assets the phone sends into bitmaps the watch face can draw.
+ * <p>
+ * Decoded icons are kept in an LRU cache keyed by the digest of their asset. The phone sends
+ * the same bytes for the same icon, so a kind of weather that comes back costs no I/O and no
+ * decoding. Misses are decoded one at a time on a single background thread, down to the size
+ * the face draws them at.
+ * <p>
+ * Only the latest request is answered: when the weather changes twice in a row, the icon of
+ * the first change can't land after the one of the second. That part is {@link LatestLoader}.
+ * Call it from the main thread.
+ */
+class WeatherIconLoader {
+
+    private static final String TAG = WeatherIconLoader.class.getSimpleName();
+
+    /* A few dozen icons at the size we draw them, far more than there are kinds of weather */
+    private static final int CACHE_SIZE_BYTES = 1024 * 1024;
+
+    private static final long ASSET_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+
+    /* Shared by every engine of the process, faces come and go but the icons stay the same */
+    private static final LruCache<String, Bitmap> sCache =
+            new LruCache<String, Bitmap>(CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(String digest, Bitmap icon) {
+                    return icon.getByteCount();
+                }
+            };
+
+    private static final ExecutorService sDecodeExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sunface-icon-decode");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    interface Callback {
+        void onIconLoaded(Bitmap icon);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final int mIconSize;
+    private final LatestLoader<Asset, Bitmap> mLoader;
+
+    /**
+     * @param googleApiClient The client of the face. It's used while connected, never connected
+     *                        or disconnected here.
+     * @param iconSize        The size the icons are drawn at, in pixels
+     */
+    WeatherIconLoader(GoogleApiClient googleApiClient, int iconSize) {
+        mGoogleApiClient = googleApiClient;
+        mIconSize = iconSize;
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mLoader = new LatestLoader<>(
+                new LatestLoader.Source<Asset, Bitmap>() {
+                    @Override
+                    public Bitmap load(Asset asset) {
+                        return decode(asset);
+                    }
+                },
+                new LatestLoader.Cache<Bitmap>() {
+                    @Override
+                    public Bitmap get(String digest) {
+                        return sCache.get(digest);
+                    }
+
+                    @Override
+                    public void put(String digest, Bitmap icon) {
+                        sCache.put(digest, icon);
+                    }
+                },
+                sDecodeExecutor,
+                new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        mainHandler.post(command);
+                    }
+                });
+    }
+
+    /**
+     * Loads the icon of an asset, and hands it to the callback on the main thread. On a cache
+     * hit, that happens before this returns.
+     */
+    void load(Asset asset, final Callback callback) {
+        mLoader.load(asset.getDigest(), asset, new LatestLoader.Callback<Bitmap>() {
+            @Override
+            public void onLoaded(Bitmap icon) {
+                callback.onIconLoaded(icon);
+            }
+        });
+    }
+
+    /* Runs on the decode thread */
+    private Bitmap decode(Asset asset) {
+        /*
+         * If the face went away in the mean time, so did its connection. It will read the
+         * weather again, icon included, once it's connected again.
+         */
+        if (!mGoogleApiClient.isConnected()) {
+            return null;
+        }
+
+        DataApi.GetFdForAssetResult result = Wearable.DataApi
+                .getFdForAsset(mGoogleApiClient, asset)
+                .await(ASSET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        InputStream in = result.getInputStream();
+        if (in == null) {
+            Log.w(TAG, "Icon asset unavailable: " + result.getStatus());
+            return null;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = readFully(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read icon asset", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+
+        /* Read the size first, so we can skip decoding pixels we would only scale away */
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+
+        options.inSampleSize = 1;
+        while (options.outWidth / (options.inSampleSize * 2) >= mIconSize
+                && options.outHeight / (options.inSampleSize * 2) >= mIconSize) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+
+        Bitmap decoded = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        if (decoded == null || decoded.getWidth() == mIconSize) {
+            return decoded;
+        }
+
+        int height = Math.round((float) decoded.getHeight() * mIconSize / decoded.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, mIconSize, height, true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void closeQuietly(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            /* Nothing we can do, and nothing we need to */
+        }
+    }
+
+    /** Number of icons decoded, as opposed to found in the cache. */
+    int getDecodeCount() {
+        return mLoader.getLoadCount();
+    }
+
+    /** Number of icons found in the cache. */
+    int getHitCount() {
+        return mLoader.getHitCount();
+    }
+
+    /** How long the last decode took, fetching the asset included. */
+    long getLastDecodeMillis() {
+        return mLoader.getLastLoadMillis();
+    }
+}
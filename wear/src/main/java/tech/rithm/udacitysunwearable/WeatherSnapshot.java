@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The last weather the face showed, kept in a small file so a face that starts again can show it
+ * straight away, instead of placeholders until the phone answers over Bluetooth.
+ * <p>
+ * It holds the values, the icon encoded as PNG, and the day the weather is for, from which
+ * {@link SunFaceRenderer} tells whether it's stale. Reading it is a few kilobytes from flash, fast
+ * enough to do on the main thread while the engine is created; writing it happens on a
+ * background thread.
+ */
+final class WeatherSnapshot {
+
+    private static final String TAG = WeatherSnapshot.class.getSimpleName();
+
+    /** Name of the snapshot file, in the files directory of the app. */
+    static final String FILE_NAME = "weather_snapshot";
+
+    /* Files written by another version are ignored, the phone sends the weather again */
+    private static final int MAGIC = 0x53554e31;
+
+    /* A snapshot is far smaller; anything bigger is not a snapshot */
+    private static final int MAX_ICON_BYTES = 256 * 1024;
+
+    private static final ExecutorService sWriteExecutor =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "sunface-snapshot");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    private final long mDate;
+    private final String mMaxTemp;
+    private final String mMinTemp;
+    private final String mDescription;
+    private final byte[] mIcon;
+
+    /**
+     * @param date The day the weather is for, the date of its
+     *             {@link tech.rithm.udacitysunwearable.shared.DayForecast}: UTC midnight of the
+     *             local date
+     * @param icon The icon, encoded as PNG, or null
+     */
+    WeatherSnapshot(long date, String maxTemp, String minTemp, String description, byte[] icon) {
+        mDate = date;
+        mMaxTemp = maxTemp;
+        mMinTemp = minTemp;
+        mDescription = description;
+        mIcon = icon;
+    }
+
+    long getDate() {
+        return mDate;
+    }
+
+    String getMaxTemp() {
+        return mMaxTemp;
+    }
+
+    String getMinTemp() {
+        return mMinTemp;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    byte[] getIcon() {
+        return mIcon;
+    }
+
+    /** Whether the other snapshot holds the same values, the icon aside. */
+    boolean hasSameWeatherAs(WeatherSnapshot other) {
+        return other != null
+                && mDate == other.mDate
+                && equal(mMaxTemp, other.mMaxTemp)
+                && equal(mMinTemp, other.mMinTemp)
+                && equal(mDescription, other.mDescription);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Decodes the icon.
+     *
+     * @return The icon, or null if the snapshot has none
+     */
+    Bitmap decodeIcon() {
+        if (mIcon == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(mIcon, 0, mIcon.length);
+    }
+
+    /**
+     * Reads the snapshot from a file.
+     *
+     * @return The snapshot, or null if there's none or it can't be read
+     */
+    static WeatherSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            long date = in.readLong();
+            String maxTemp = readString(in);
+            String minTemp = readString(in);
+            String description = readString(in);
+
+            byte[] icon = null;
+            int iconLength = in.readInt();
+            if (iconLength > MAX_ICON_BYTES) {
+                return null;
+            }
+            if (iconLength >= 0) {
+                icon = new byte[iconLength];
+                in.readFully(icon);
+            }
+            return new WeatherSnapshot(date, maxTemp, minTemp, description, icon);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the weather snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file. It goes to a temporary file first, renamed over the old
+     * one, so a face that dies while writing still finds the old snapshot.
+     */
+    void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(mDate);
+            writeString(out, mMaxTemp);
+            writeString(out, mMinTemp);
+            writeString(out, mDescription);
+            if (mIcon == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(mIcon.length);
+                out.write(mIcon);
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Couldn't rename " + temp + " to " + file);
+        }
+    }
+
+    /**
+     * Encodes the icon and writes the snapshot on a background thread.
+     *
+     * @param icon The icon as it's shown, or null
+     */
+    static void writeAsync(final File file, final long date, final String maxTemp,
+            final String minTemp, final String description, final Bitmap icon) {
+        sWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] encoded = null;
+                if (icon != null) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    icon.compress(Bitmap.CompressFormat.PNG, 100, out);
+                    encoded = out.toByteArray();
+                }
+                try {
+                    new WeatherSnapshot(date, maxTemp, minTemp, description, encoded).write(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Couldn't write the weather snapshot", e);
+                }
+            }
+        });
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            /* Nothing we can do, and nothing we need to */
+        }
+    }
+}
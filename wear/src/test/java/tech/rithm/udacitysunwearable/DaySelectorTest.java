@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import tech.rithm.udacitysunwearable.shared.DayForecast;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Moves the clock and the time zone of a {@link DaySelector} and checks it shows the day that
+ * is today on the watch, moving on at local midnight without a new forecast.
+ */
+public class DaySelectorTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    /* 2016-12-01 00:00 UTC, the date of the first day of the forecast */
+    private static final long FIRST_DATE = 1480550400000L;
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone NEW_YORK = TimeZone.getTimeZone("America/New_York");
+    private static final TimeZone TOKYO = TimeZone.getTimeZone("Asia/Tokyo");
+
+    /* Days in a row from FIRST_DATE, the weather id of each telling which one it is */
+    private static List<DayForecast> days(int count) {
+        List<DayForecast> days = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            days.add(new DayForecast(FIRST_DATE + i * DAY, 20, 10, i));
+        }
+        return days;
+    }
+
+    @Test
+    public void rollsOverAtLocalMidnight() {
+        DaySelector selector = new DaySelector(NEW_YORK);
+        selector.setDays(days(3));
+
+        /* 23:59 on the first day in New York, already the next day in UTC */
+        long beforeMidnight = FIRST_DATE + DAY + 5 * HOUR - 60 * 1000;
+        assertEquals(0, selector.selectDay(beforeMidnight).getWeatherId());
+        assertFalse(selector.isDayOver(beforeMidnight + 59 * 1000));
+
+        /* The first frame past midnight asks for the next day */
+        long midnight = beforeMidnight + 60 * 1000;
+        assertTrue(selector.isDayOver(midnight));
+        assertEquals(1, selector.selectDay(midnight).getWeatherId());
+        assertFalse(selector.isDayOver(midnight + 23 * HOUR));
+    }
+
+    @Test
+    public void timeZoneChangeMovesToThatDay() {
+        DaySelector selector = new DaySelector(NEW_YORK);
+        selector.setDays(days(3));
+
+        /* 20:00 on the first day in New York, 10:00 on the second day in Tokyo */
+        long now = FIRST_DATE + DAY + HOUR;
+        assertEquals(0, selector.selectDay(now).getWeatherId());
+
+        selector.setTimeZone(TOKYO);
+        assertTrue(selector.isDayOver(now));
+        assertEquals(1, selector.selectDay(now).getWeatherId());
+
+        /* A zone with the same date changes nothing, 01:00 on the second day in UTC */
+        selector.setTimeZone(UTC);
+        assertFalse(selector.isDayOver(now));
+
+        /* And back again */
+        selector.setTimeZone(NEW_YORK);
+        assertTrue(selector.isDayOver(now));
+        assertEquals(0, selector.selectDay(now).getWeatherId());
+    }
+
+    @Test
+    public void keepsLastDayWhenForecastRunsOut() {
+        DaySelector selector = new DaySelector(UTC);
+        selector.setDays(days(2));
+
+        long later = FIRST_DATE + 5 * DAY + HOUR;
+        assertTrue(selector.isDayOver(later));
+        assertEquals(1, selector.selectDay(later).getWeatherId());
+        assertFalse(selector.isDayOver(later + HOUR));
+
+        /* Before the forecast starts there is nothing to show */
+        assertNull(selector.selectDay(FIRST_DATE - HOUR));
+    }
+
+    @Test
+    public void nothingIsOverWithoutDays() {
+        DaySelector selector = new DaySelector(UTC);
+
+        assertFalse(selector.isDayOver(FIRST_DATE));
+        assertNull(selector.selectDay(FIRST_DATE));
+    }
+}
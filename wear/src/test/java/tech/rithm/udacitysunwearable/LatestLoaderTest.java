@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives {@link LatestLoader}, the part of {@link WeatherIconLoader} that decides what gets
+ * decoded and what gets delivered, with queues standing in for the decode thread and the main
+ * thread so the order things finish in is ours to pick.
+ */
+public class LatestLoaderTest {
+
+    /* Runs what it's given when told to, in order */
+    private static final class QueueExecutor implements Executor {
+        final Queue<Runnable> mQueue = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mQueue.add(command);
+        }
+
+        void runNext() {
+            assertTrue(!mQueue.isEmpty());
+            mQueue.remove().run();
+        }
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+
+    /* An asset by its digest, decoding to an icon named after it */
+    private static final class Source implements LatestLoader.Source<String, String> {
+        final List<String> mLoaded = new ArrayList<>();
+
+        @Override
+        public String load(String digest) {
+            mLoaded.add(digest);
+            return "icon of " + digest;
+        }
+    }
+
+    private static final class MapCache implements LatestLoader.Cache<String> {
+        final Map<String, String> mValues = new HashMap<>();
+
+        @Override
+        public String get(String key) {
+            return mValues.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            mValues.put(key, value);
+        }
+    }
+
+    private static final class Delivered implements LatestLoader.Callback<String> {
+        final List<String> mValues = new ArrayList<>();
+
+        @Override
+        public void onLoaded(String value) {
+            mValues.add(value);
+        }
+    }
+
+    private final Source mSource = new Source();
+    private final QueueExecutor mDecodeThread = new QueueExecutor();
+    private final QueueExecutor mMainThread = new QueueExecutor();
+    private final LatestLoader<String, String> mLoader =
+            new LatestLoader<>(mSource, new MapCache(), mDecodeThread, mMainThread);
+
+    private void load(String digest, Delivered delivered) {
+        mLoader.load(digest, digest, delivered);
+    }
+
+    @Test
+    public void sameDigestIsDecodedOnce() {
+        Delivered first = new Delivered();
+        load("rain", first);
+        assertTrue(first.mValues.isEmpty());
+        mDecodeThread.runAll();
+        mMainThread.runAll();
+        assertEquals(1, first.mValues.size());
+        assertEquals("icon of rain", first.mValues.get(0));
+
+        /* The second time, it's there before load returns, with nothing queued */
+        Delivered second = new Delivered();
+        load("rain", second);
+        assertEquals(1, second.mValues.size());
+        assertEquals("icon of rain", second.mValues.get(0));
+        assertTrue(mDecodeThread.mQueue.isEmpty());
+        assertTrue(mMainThread.mQueue.isEmpty());
+
+        assertEquals(1, mSource.mLoaded.size());
+        assertEquals(1, mLoader.getLoadCount());
+        assertEquals(1, mLoader.getHitCount());
+    }
+
+    @Test
+    public void staleResultIsDropped() {
+        Delivered rain = new Delivered();
+        Delivered snow = new Delivered();
+        load("rain", rain);
+        load("snow", snow);
+
+        /* The rain decode finishes first, but snow was asked for since */
+        mDecodeThread.runNext();
+        mMainThread.runAll();
+        assertTrue(rain.mValues.isEmpty());
+        assertTrue(snow.mValues.isEmpty());
+
+        mDecodeThread.runNext();
+        mMainThread.runAll();
+        assertTrue(rain.mValues.isEmpty());
+        assertEquals(1, snow.mValues.size());
+        assertEquals("icon of snow", snow.mValues.get(0));
+
+        /* The stale icon was still worth keeping: rain coming back is a hit */
+        Delivered rainAgain = new Delivered();
+        load("rain", rainAgain);
+        assertEquals(1, rainAgain.mValues.size());
+        assertEquals(2, mSource.mLoaded.size());
+        assertEquals(2, mLoader.getLoadCount());
+    }
+
+    @Test
+    public void staleResultIsDroppedWhenItLandsLast() {
+        Delivered rain = new Delivered();
+        Delivered snow = new Delivered();
+        load("rain", rain);
+        mDecodeThread.runNext();
+        load("snow", snow);
+        mDecodeThread.runNext();
+
+        /* Both results wait on the main thread, rain's first */
+        mMainThread.runAll();
+        assertTrue(rain.mValues.isEmpty());
+        assertEquals(1, snow.mValues.size());
+    }
+
+    @Test
+    public void noDigestIsNeverCached() {
+        Delivered first = new Delivered();
+        Delivered second = new Delivered();
+        mLoader.load(null, "rain", first);
+        mDecodeThread.runAll();
+        mMainThread.runAll();
+        mLoader.load(null, "rain", second);
+        mDecodeThread.runAll();
+        mMainThread.runAll();
+
+        assertEquals(1, first.mValues.size());
+        assertEquals(1, second.mValues.size());
+        assertEquals(2, mSource.mLoaded.size());
+        assertEquals(0, mLoader.getHitCount());
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what {@link SunFaceRenderer} draws, and measures how long a frame takes, how much it
+ * allocates and how much it draws in an hour, against the way SunFace used to draw, and what an
+ * ambient tick costs. Runs on the JVM: the canvas only records the calls, so this measures our
+ * work per frame, not the rasterizing.
+ */
+public class SunFaceRendererBenchmarkTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    /* 10:09:08 UTC, January 9th 2017 */
+    private static final long TEN_09_08 = 1483956548000L;
+
+    /* The day of the weather, as the phone sends it: UTC midnight of that date */
+    private static final long TODAY = 1483920000000L;
+
+    private static final int WARM_UP_FRAMES = 20000;
+    private static final int FRAMES = 100000;
+
+    /* Records the calls it gets, without allocating */
+    private static final class RecordingCanvas extends Canvas {
+        int mOps;
+        int mTexts;
+        int mGlyphs;
+        int mBitmaps;
+        int mSaves;
+        float mTranslateX;
+        float mTranslateY;
+        char[] mTimeChars;
+        int mTimeLength;
+        String mLastText;
+        /* Where the time was drawn, if set */
+        Set<String> mPlaces;
+
+        @Override
+        public void drawColor(int color) {
+            mOps++;
+        }
+
+        @Override
+        public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+            mOps++;
+        }
+
+        @Override
+        public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+            mOps++;
+            mTexts++;
+            mGlyphs += count;
+            mTimeChars = text;
+            mTimeLength = count;
+            if (mPlaces != null) {
+                assertTrue(Math.abs(mTranslateX) <= SunFaceRenderer.BURN_IN_SHIFT);
+                assertTrue(Math.abs(mTranslateY) <= SunFaceRenderer.BURN_IN_SHIFT);
+                mPlaces.add(mTranslateX + "," + mTranslateY);
+            }
+        }
+
+        @Override
+        public void drawText(String text, float x, float y, Paint paint) {
+            mOps++;
+            mTexts++;
+            mGlyphs += text.length();
+            if (mLastText == null) {
+                /* The first string of a frame is the date */
+                mLastText = text;
+            }
+        }
+
+        @Override
+        public void drawLine(float startX, float startY, float stopX, float stopY, Paint paint) {
+            mOps++;
+        }
+
+        @Override
+        public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+            mOps++;
+            mBitmaps++;
+        }
+
+        @Override
+        public int save() {
+            return ++mSaves;
+        }
+
+        @Override
+        public void restore() {
+            mSaves--;
+            mTranslateX = 0;
+            mTranslateY = 0;
+        }
+
+        @Override
+        public void translate(float dx, float dy) {
+            mTranslateX += dx;
+            mTranslateY += dy;
+        }
+
+        String time() {
+            return new String(mTimeChars, 0, mTimeLength);
+        }
+
+        void reset() {
+            mOps = 0;
+            mTexts = 0;
+            mGlyphs = 0;
+            mBitmaps = 0;
+            mLastText = null;
+        }
+    }
+
+    private static SunFaceRenderer newRenderer() {
+        return setUp(new SunFaceRenderer(new Resources(null, null, null)));
+    }
+
+    /* A renderer whose layers are drawn on the given canvas */
+    private static SunFaceRenderer newRenderer(final RecordingCanvas layers) {
+        return setUp(new SunFaceRenderer(new Resources(null, null, null)) {
+            @Override
+            Canvas newLayerCanvas(Bitmap layer) {
+                return layers;
+            }
+        });
+    }
+
+    private static SunFaceRenderer setUp(SunFaceRenderer renderer) {
+        renderer.setTimeZone(UTC);
+        renderer.setSize(320, 320);
+        renderer.setWeather(TODAY, "21°", "12°", "Clear");
+        return renderer;
+    }
+
+    @Test
+    public void formatsTimeWithoutSecondsInAmbient() {
+        Calendar calendar = Calendar.getInstance(UTC);
+        char[] chars = new char[8];
+
+        calendar.setTimeInMillis(TEN_09_08);
+        assertEquals("10:09:08", new String(chars, 0,
+                SunFaceRenderer.formatTime(calendar, true, chars)));
+        assertEquals("10:09", new String(chars, 0,
+                SunFaceRenderer.formatTime(calendar, false, chars)));
+
+        /* Noon, Calendar.HOUR being 0 */
+        calendar.setTimeInMillis(TEN_09_08 + TimeUnit.MINUTES.toMillis(111) - 8000);
+        assertEquals("0:00:00", new String(chars, 0,
+                SunFaceRenderer.formatTime(calendar, true, chars)));
+    }
+
+    @Test
+    public void drawsTheTimeOverALayerRebuiltOnlyOnDataOrDayChange() {
+        RecordingCanvas layer = new RecordingCanvas();
+        SunFaceRenderer renderer = newRenderer(layer);
+        RecordingCanvas canvas = new RecordingCanvas();
+
+        renderer.draw(canvas, TEN_09_08);
+        /* The layer and the time */
+        assertEquals(2, canvas.mOps);
+        assertEquals(1, canvas.mBitmaps);
+        assertEquals("10:09:08", canvas.time());
+        /* Background, date, line, max, min, description; no icon yet */
+        assertEquals(6, layer.mOps);
+        assertEquals(4, layer.mTexts);
+        String date = layer.mLastText;
+        SimpleDateFormat format = new SimpleDateFormat("EEE, MMM d yyyy");
+        format.setTimeZone(UTC);
+        assertEquals(format.format(TEN_09_08), date);
+
+        canvas.reset();
+        layer.reset();
+        renderer.draw(canvas, TEN_09_08 + TimeUnit.HOURS.toMillis(13));
+        assertEquals("11:09:08", canvas.time());
+        assertEquals(0, layer.mOps);
+        assertEquals(1, renderer.getStaticLayerBuildCount());
+
+        renderer.setWeather(TODAY, "22°", "12°", "Clouds");
+        renderer.draw(canvas, TEN_09_08 + TimeUnit.HOURS.toMillis(13));
+        assertEquals(2, renderer.getStaticLayerBuildCount());
+        assertSame(date, layer.mLastText);
+
+        layer.reset();
+        renderer.draw(canvas, TEN_09_08 + TimeUnit.HOURS.toMillis(14));
+        assertEquals(3, renderer.getStaticLayerBuildCount());
+        assertNotSame(date, layer.mLastText);
+    }
+
+    @Test
+    public void frameBeforeTheSizeIsKnownDrawsOnlyTheTime() {
+        SunFaceRenderer renderer = new SunFaceRenderer(new Resources(null, null, null));
+        renderer.setTimeZone(UTC);
+        RecordingCanvas canvas = new RecordingCanvas();
+
+        renderer.draw(canvas, TEN_09_08);
+        assertEquals(0, canvas.mBitmaps);
+        assertEquals(0, renderer.getStaticLayerBuildCount());
+        assertEquals("10:09:08", canvas.time());
+    }
+
+    @Test
+    public void weatherFromAnEarlierDayIsStale() {
+        SunFaceRenderer renderer = newRenderer(new RecordingCanvas());
+        RecordingCanvas canvas = new RecordingCanvas();
+
+        renderer.draw(canvas, TEN_09_08);
+        assertFalse(renderer.isWeatherStale());
+        int builds = renderer.getStaticLayerBuildCount();
+
+        /* Past midnight it's yesterday's weather, faded in a new layer */
+        renderer.draw(canvas, TEN_09_08 + TimeUnit.HOURS.toMillis(14));
+        assertTrue(renderer.isWeatherStale());
+        assertEquals(builds + 1, renderer.getStaticLayerBuildCount());
+
+        renderer.setWeather(TODAY + TimeUnit.DAYS.toMillis(1), "19°", "10°", "Rain");
+        assertFalse(renderer.isWeatherStale());
+    }
+
+    @Test
+    public void drawsAFractionOfTheWorkPerHour() {
+        final RecordingCanvas canvas = new RecordingCanvas();
+        SunFaceRenderer renderer = newRenderer(canvas);
+        LegacyFace legacy = new LegacyFace();
+
+        /* An hour at one frame a second, the weather changing every quarter of an hour */
+        int frames = (int) TimeUnit.HOURS.toSeconds(1);
+        for (int i = 0; i < frames; i++) {
+            legacy.draw(canvas, TEN_09_08 + TimeUnit.SECONDS.toMillis(i));
+        }
+        int legacyOps = canvas.mOps;
+        int legacyGlyphs = canvas.mGlyphs;
+
+        canvas.reset();
+        for (int i = 0; i < frames; i++) {
+            if (i % TimeUnit.MINUTES.toSeconds(15) == 0) {
+                renderer.setWeather(TODAY, i + "°", "12°", "Clear");
+            }
+            renderer.draw(canvas, TEN_09_08 + TimeUnit.SECONDS.toMillis(i));
+        }
+        System.out.println(String.format("before   %6d draw calls/hour, %6d glyphs/hour",
+                legacyOps, legacyGlyphs));
+        System.out.println(String.format("after    %6d draw calls/hour, %6d glyphs/hour, "
+                        + "layer built %d times", canvas.mOps, canvas.mGlyphs,
+                renderer.getStaticLayerBuildCount()));
+
+        assertEquals(4, renderer.getStaticLayerBuildCount());
+        /* The blit and the time, plus the four rebuilds */
+        assertEquals(2 * frames + 4 * 6, canvas.mOps);
+        assertTrue(canvas.mGlyphs * 4 < legacyGlyphs);
+    }
+
+    @Test
+    public void ambientTickDrawsTheTimeOverALayerBuiltOnDataChange() {
+        SunFaceRenderer renderer = newRenderer();
+        RecordingCanvas canvas = new RecordingCanvas();
+        renderer.setAmbient(true);
+
+        /* Ten hours of ticks, all on the same day */
+        long now = TEN_09_08;
+        for (int i = 0; i < 600; i++) {
+            canvas.reset();
+            renderer.draw(canvas, now);
+            /* Background, time and the layer */
+            assertEquals(3, canvas.mOps);
+            assertEquals(1, canvas.mBitmaps);
+            assertEquals(0, canvas.mSaves);
+            now += TimeUnit.MINUTES.toMillis(1);
+        }
+        assertEquals(1, renderer.getAmbientLayerBuildCount());
+        assertEquals("8:08", canvas.time());
+
+        renderer.setWeather(TODAY, "22°", "12°", "Clouds");
+        renderer.draw(canvas, now);
+        assertEquals(2, renderer.getAmbientLayerBuildCount());
+
+        /* Interactive frames don't touch the layer */
+        renderer.setAmbient(false);
+        renderer.setWeather(TODAY, "23°", "12°", "Clouds");
+        renderer.draw(canvas, now);
+        assertEquals(2, renderer.getAmbientLayerBuildCount());
+    }
+
+    @Test
+    public void ambientFrameBeforeTheSizeIsKnownDrawsNoLayer() {
+        SunFaceRenderer renderer = new SunFaceRenderer(new Resources(null, null, null));
+        RecordingCanvas canvas = new RecordingCanvas();
+        renderer.setAmbient(true);
+
+        renderer.draw(canvas, TEN_09_08);
+        assertEquals(0, canvas.mBitmaps);
+        assertEquals(0, canvas.mSaves);
+        assertEquals(0, renderer.getAmbientLayerBuildCount());
+    }
+
+    @Test
+    public void burnInProtectionMovesTheAmbientFaceEveryMinute() {
+        SunFaceRenderer renderer = newRenderer();
+        RecordingCanvas canvas = new RecordingCanvas();
+        canvas.mPlaces = new HashSet<>();
+        renderer.setAmbient(true);
+
+        renderer.draw(canvas, TEN_09_08);
+        assertEquals(1, canvas.mPlaces.size());
+        assertTrue(canvas.mPlaces.contains("0.0,0.0"));
+
+        renderer.setAmbientProperties(false, true);
+        canvas.mPlaces.clear();
+        for (int minute = 0; minute < 60; minute++) {
+            renderer.draw(canvas, TEN_09_08 + TimeUnit.MINUTES.toMillis(minute));
+        }
+        assertEquals(9, canvas.mPlaces.size());
+        assertEquals(0, canvas.mSaves);
+    }
+
+    @Test
+    public void drawingAFrameDoesNotAllocate() {
+        final SunFaceRenderer renderer = newRenderer();
+        final RecordingCanvas canvas = new RecordingCanvas();
+
+        Frame current = new Frame() {
+            @Override
+            public void draw(long now) {
+                canvas.reset();
+                renderer.draw(canvas, now);
+            }
+        };
+        final LegacyFace legacy = new LegacyFace();
+        Frame before = new Frame() {
+            @Override
+            public void draw(long now) {
+                canvas.reset();
+                legacy.draw(canvas, now);
+            }
+        };
+
+        Result legacyResult = measure(before, TimeUnit.SECONDS.toMillis(1));
+        Result currentResult = measure(current, TimeUnit.SECONDS.toMillis(1));
+        report("before", legacyResult);
+        report("after", currentResult);
+
+        renderer.setAmbient(true);
+        renderer.setAmbientProperties(true, true);
+        Result ambientResult = measure(current, TimeUnit.MINUTES.toMillis(1));
+        report("ambient", ambientResult);
+        canvas.reset();
+        renderer.draw(canvas, TEN_09_08);
+        System.out.println("ambient  " + canvas.mOps + " draw calls/tick, layer built "
+                + renderer.getAmbientLayerBuildCount() + " times for "
+                + (WARM_UP_FRAMES + FRAMES) / (24 * 60) + " days of ticks");
+
+        /* Once a day, the date string is made again: less than a byte a frame on average */
+        assertTrue("Allocated " + currentResult.mBytesPerFrame + " bytes per frame",
+                currentResult.mBytesPerFrame < 1.0);
+        assertTrue(legacyResult.mBytesPerFrame > 100);
+        /* Once a day, the layer is drawn again */
+        assertTrue(ambientResult.mBytesPerFrame < 1.0);
+    }
+
+    private interface Frame {
+        void draw(long now);
+    }
+
+    private static final class Result {
+        double mMicrosPerFrame;
+        double mBytesPerFrame;
+    }
+
+    private static Result measure(Frame frame, long step) {
+        long now = TEN_09_08;
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.draw(now);
+            now += step;
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            frame.draw(now);
+            now += step;
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        Result result = new Result();
+        result.mMicrosPerFrame = elapsed / 1000.0 / FRAMES;
+        result.mBytesPerFrame = (double) allocated / FRAMES;
+        return result;
+    }
+
+    private static void report(String name, Result result) {
+        System.out.println(String.format("%-8s %6.2f us/frame, %8.1f bytes/frame",
+                name, result.mMicrosPerFrame, result.mBytesPerFrame));
+    }
+
+    /*
+     * The per frame work of SunFace.onDraw as it was: the dimension lookups, a new date format
+     * and String.format for the time.
+     */
+    private static final class LegacyFace {
+        final Resources mResources = new Resources(null, null, null);
+        final Calendar mCalendar = Calendar.getInstance(UTC);
+        final Paint mPaint = new Paint();
+
+        void draw(Canvas canvas, long now) {
+            int centerX = 160;
+            int centerY = 160;
+            canvas.drawRect(0, 0, 320, 320, mPaint);
+
+            mCalendar.setTimeInMillis(now);
+            String textTime = String.format("%d:%02d:%02d", mCalendar.get(Calendar.HOUR),
+                    mCalendar.get(Calendar.MINUTE), mCalendar.get(Calendar.SECOND));
+            canvas.drawText(textTime, centerX, 0, mPaint);
+
+            SimpleDateFormat sdf = new SimpleDateFormat("EEE, MMM d yyyy");
+            sdf.setTimeZone(mCalendar.getTimeZone());
+            String day = sdf.format(mCalendar.getTime());
+            Rect textBounds = new Rect();
+            mPaint.getTextBounds(day, 0, day.length(), textBounds);
+            canvas.drawText(day, centerX - mPaint.measureText(day) / 2, textBounds.height(),
+                    mPaint);
+
+            float lineY = mResources.getDimension(R.dimen.digital_y_line_offset_square);
+            float lineLength = mResources.getDimension(R.dimen.line_length_square);
+            canvas.drawLine(centerX - lineLength, centerY + lineY, centerX + lineLength,
+                    centerY + lineY, mPaint);
+
+            canvas.drawText("21°", centerX + mResources.getDimension(R.dimen.high_temp_x_offset_square),
+                    centerY + mResources.getDimension(R.dimen.high_temp_y_offset_square), mPaint);
+            canvas.drawText("12°", centerX + mResources.getDimension(R.dimen.low_temp_x_offset_square),
+                    centerY + mResources.getDimension(R.dimen.low_temp_y_offset_square), mPaint);
+            mResources.getDimension(R.dimen.bitmap_x_offset_square);
+            mResources.getDimension(R.dimen.bitmap_y_offset_square);
+            canvas.drawText("Clear", centerX - mResources.getDimension(R.dimen.desc_x_offset_square),
+                    centerY + mResources.getDimension(R.dimen.desc_y_offset_square), mPaint);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import android.view.Choreographer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link TickScheduler} for simulated days on a fake main thread with 60 Hz vsync, and
+ * checks it ticks once per boundary, within a frame, however the face is started and stopped.
+ */
+public class TickSchedulerTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /*
+     * A main thread with a Choreographer and a wall clock, the time being ours to move. Frames
+     * run on uptime; the wall clock is uptime plus an offset, which can be set.
+     */
+    private static final class FakeMainThread implements TickScheduler.FrameSource,
+            TickScheduler.Clock, TickScheduler.Listener {
+
+        static final double FRAME_MILLIS = 1000.0 / 60;
+
+        /* Vsync isn't aligned with the clock */
+        final double mVsyncPhase = 7.3;
+
+        double mNow;
+        double mWallClockOffset = 1483956548123.0;
+        Choreographer.FrameCallback mCallback;
+        double mDue;
+        int mPosts;
+
+        long mTicks;
+        long mLastBoundary;
+
+        @Override
+        public void postFrameCallbackDelayed(Choreographer.FrameCallback callback,
+                long delayMillis) {
+            /* The scheduler never has more than one frame callback waiting */
+            assertTrue(mCallback == null);
+            mCallback = callback;
+            mDue = nextVsync(mNow + delayMillis);
+            mPosts++;
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            mCallback = null;
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return (long) Math.floor(mNow + mWallClockOffset);
+        }
+
+        @Override
+        public void onTick(long boundaryMillis) {
+            assertTrue(boundaryMillis > mLastBoundary);
+            mLastBoundary = boundaryMillis;
+            mTicks++;
+        }
+
+        double nextVsync(double time) {
+            return Math.ceil((time - mVsyncPhase) / FRAME_MILLIS) * FRAME_MILLIS + mVsyncPhase;
+        }
+
+        /* Runs the frames due until then */
+        void run(double millis) {
+            double end = mNow + millis;
+            while (mCallback != null && mDue <= end) {
+                /* A frame that's due while the thread is busy comes on the next vsync */
+                mNow = mDue >= mNow ? mDue : nextVsync(mNow);
+                Choreographer.FrameCallback callback = mCallback;
+                mCallback = null;
+                callback.doFrame((long) (mNow * 1000000));
+            }
+            mNow = end;
+        }
+
+        /* Keeps the thread busy, frames wait */
+        void block(double millis) {
+            mNow += millis;
+        }
+
+        void setClockBack(double millis) {
+            mWallClockOffset -= millis;
+            mLastBoundary = 0;
+        }
+    }
+
+    private static void report(String name, TickScheduler scheduler) {
+        System.out.println(String.format(
+                "%-10s %7d ticks, %d missed, %d late, %d duplicates, max %d ms late",
+                name, scheduler.getTickCount(), scheduler.getMissedCount(),
+                scheduler.getLateCount(), scheduler.getDuplicateCount(),
+                scheduler.getMaxLatenessMillis()));
+    }
+
+    @Test
+    public void ticksOncePerBoundaryForADay() {
+        long[] rates = {TickScheduler.RATE_1_HZ, TickScheduler.RATE_2_HZ,
+                TickScheduler.RATE_PER_MINUTE};
+        for (long rate : rates) {
+            FakeMainThread thread = new FakeMainThread();
+            TickScheduler scheduler = new TickScheduler(thread, thread, thread);
+            scheduler.start(rate);
+            thread.run(DAY);
+            report(rate + " ms", scheduler);
+
+            assertEquals(DAY / rate, scheduler.getTickCount());
+            assertEquals(0, scheduler.getMissedCount());
+            assertEquals(0, scheduler.getLateCount());
+            assertEquals(0, scheduler.getDuplicateCount());
+            assertTrue(scheduler.getMaxLatenessMillis() <= TickScheduler.LATE_MILLIS);
+        }
+    }
+
+    @Test
+    public void startingAgainDoesNotDoubleUp() {
+        FakeMainThread thread = new FakeMainThread();
+        TickScheduler scheduler = new TickScheduler(thread, thread, thread);
+
+        /* Visibility and ambient changes, many a second, each starting the scheduler */
+        for (int i = 0; i < 10000; i++) {
+            scheduler.start(TickScheduler.RATE_1_HZ);
+            thread.run(100);
+        }
+        report("restarts", scheduler);
+        assertEquals(1000, scheduler.getTickCount());
+        assertEquals(0, scheduler.getDuplicateCount());
+
+        /* Stopping and starting within a second doesn't tick twice for it either */
+        for (int i = 0; i < 1000; i++) {
+            scheduler.stop();
+            thread.run(500);
+            scheduler.start(TickScheduler.RATE_1_HZ);
+            thread.run(500);
+        }
+        report("stops", scheduler);
+        assertTrue(scheduler.getTickCount() <= 2000);
+        assertEquals(0, scheduler.getDuplicateCount());
+    }
+
+    @Test
+    public void busyThreadCountsMissedAndLateTicks() {
+        FakeMainThread thread = new FakeMainThread();
+        TickScheduler scheduler = new TickScheduler(thread, thread, thread);
+        scheduler.start(TickScheduler.RATE_1_HZ);
+        thread.run(10000);
+
+        thread.block(2500);
+        thread.run(10000);
+        report("stall", scheduler);
+
+        /*
+         * The thread was busy over two boundaries. The first one never gets its tick, the second
+         * one gets it when the thread is free again, over half a second late.
+         */
+        assertEquals(1, scheduler.getMissedCount());
+        assertEquals(1, scheduler.getLateCount());
+        assertTrue(scheduler.getMaxLatenessMillis() > 500);
+        assertEquals(22 - 1, scheduler.getTickCount());
+    }
+
+    @Test
+    public void clockSetBackDropsTheTickItAlreadyShowed() {
+        FakeMainThread thread = new FakeMainThread();
+        TickScheduler scheduler = new TickScheduler(thread, thread, thread);
+        scheduler.start(TickScheduler.RATE_1_HZ);
+        thread.run(1000);
+        long ticks = scheduler.getTickCount();
+
+        /* While we're running, a clock set back a little only delays the next tick */
+        thread.setClockBack(300);
+        thread.run(2000);
+        assertEquals(0, scheduler.getDuplicateCount());
+        assertEquals(ticks + 1, scheduler.getTickCount());
+
+        /* Stopped right after a tick, the clock goes back into the second we showed */
+        thread.run(1000 - (thread.currentTimeMillis() % 1000) + 20);
+        scheduler.stop();
+        thread.setClockBack(300);
+        scheduler.start(TickScheduler.RATE_1_HZ);
+        thread.run(2000);
+        report("set back", scheduler);
+        assertEquals(1, scheduler.getDuplicateCount());
+
+        /* Set back by an hour, it ticks on the boundaries of the new time right away */
+        ticks = scheduler.getTickCount();
+        thread.setClockBack(TimeUnit.HOURS.toMillis(1));
+        thread.run(5000);
+        assertTrue(scheduler.getTickCount() - ticks >= 4);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.rithm.udacitysunwearable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link WeatherSnapshot} survives a round trip through its file and tolerates a missing or
+ * damaged one, and measures how long reading it takes when the face starts.
+ */
+public class WeatherSnapshotTest {
+
+    private static final long TODAY = 1483920000000L;
+
+    /* About the size of a 48dp icon as PNG on an xhdpi watch */
+    private static final int ICON_BYTES = 4 * 1024;
+
+    private static final int STARTS = 1000;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("weather_snapshot", null);
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static byte[] icon() {
+        byte[] icon = new byte[ICON_BYTES];
+        new Random(42).nextBytes(icon);
+        return icon;
+    }
+
+    @Test
+    public void roundTrips() throws IOException {
+        new WeatherSnapshot(TODAY, "21°", "12°", "Light rain", icon()).write(mFile);
+
+        WeatherSnapshot snapshot = WeatherSnapshot.read(mFile);
+        assertEquals(TODAY, snapshot.getDate());
+        assertEquals("21°", snapshot.getMaxTemp());
+        assertEquals("12°", snapshot.getMinTemp());
+        assertEquals("Light rain", snapshot.getDescription());
+        assertArrayEquals(icon(), snapshot.getIcon());
+
+        /* Missing values and icon */
+        new WeatherSnapshot(TODAY, null, "12°", null, null).write(mFile);
+        snapshot = WeatherSnapshot.read(mFile);
+        assertNull(snapshot.getMaxTemp());
+        assertNull(snapshot.getDescription());
+        assertNull(snapshot.getIcon());
+        assertTrue(snapshot.hasSameWeatherAs(
+                new WeatherSnapshot(TODAY, null, "12°", null, icon())));
+    }
+
+    @Test
+    public void missingOrDamagedFileReadsAsNone() throws IOException {
+        assertNull(WeatherSnapshot.read(mFile));
+
+        new WeatherSnapshot(TODAY, "21°", "12°", "Clear", icon()).write(mFile);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() / 2);
+        file.close();
+        assertNull(WeatherSnapshot.read(mFile));
+
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("not a snapshot".getBytes("UTF-8"));
+        out.close();
+        assertNull(WeatherSnapshot.read(mFile));
+    }
+
+    /*
+     * Before the snapshot, a face that started showed placeholders until the phone answered a
+     * /weather-request over Bluetooth: seconds. Now it reads this file before its first frame.
+     */
+    @Test
+    public void readingTheSnapshotAtStartTakesWellUnderAFrame() throws IOException {
+        new WeatherSnapshot(TODAY, "21°", "12°", "Light rain", icon()).write(mFile);
+
+        long[] micros = new long[STARTS];
+        for (int i = 0; i < STARTS; i++) {
+            long start = System.nanoTime();
+            WeatherSnapshot snapshot = WeatherSnapshot.read(mFile);
+            micros[i] = (System.nanoTime() - start) / 1000;
+            assertEquals(ICON_BYTES, snapshot.getIcon().length);
+        }
+        Arrays.sort(micros);
+        long median = micros[STARTS / 2];
+        System.out.println(String.format(
+                "snapshot of %d bytes read in %d us (median), %d us (99th)",
+                mFile.length(), median, micros[STARTS * 99 / 100]));
+
+        assertTrue("Took " + median + " us", median < 16000);
+    }
+}